@@ -0,0 +1,128 @@
+package en.talond.simGUI.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import en.talond.simGUI.data.CalTable;
+import en.talond.simGUI.data.DataPacket;
+import en.talond.simGUI.data.DataSet;
+
+
+
+
+
+
+/**
+ * Measures the finalize stage: narrowing the packets of a compound down to the ones worth reporting.
+ * @author talon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FinalizeBenchmark {
+
+
+
+	//packets of the finalized compound
+	@Param({"2", "10", "50"})
+	public int packets;
+
+	private DataPacket[] ofCompound;
+	private float minCal, maxCal;
+
+
+
+
+
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.quiet();
+		final File dir = Fixtures.tempDir();
+		final String sample = Fixtures.sampleName(0);
+		final CalTable cal;
+		final DataSet set;
+		try {
+			set = new DataSet(sample, Fixtures.results(Fixtures.workbook(dir, "finalize", new String[] {sample}, packets, 0)).get(sample));
+			cal = Fixtures.calibration(Fixtures.calTable(dir, 6));
+		} finally {
+			Fixtures.delete(dir);
+		}
+		final String compound = Fixtures.COMPOUNDS[0];
+		ofCompound = set.getCannaMassResultsOf(compound);
+		minCal = cal.getLow(compound);
+		maxCal = cal.getHigh(compound);
+		//only worth timing if it still rejects what the old recursion did
+		final RejectionCheck.Tally tally = RejectionCheck.compare(RejectionCheck.SETS, RejectionCheck.SEED);
+		if(tally.mismatches > 0)
+			throw new IllegalStateException("RSD rejection differs from the old recursion: "+tally);
+	}
+
+	@TearDown(Level.Iteration)
+	public void forget() {
+		Fixtures.loud();
+		Fixtures.quiet();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.loud();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Rejects packets until the rest are precise enough
+	 * @return kept packets
+	 */
+	@Benchmark
+	public DataPacket[] rejectByRSD() {
+		return DataPacket.useRSDToRejectPackets(ofCompound, DataPacket.MAX_PRECISE_RSD);
+	}
+
+
+
+	/**
+	 * Keeps only packets within the calibration range
+	 * @return kept packets
+	 */
+	@Benchmark
+	public DataPacket[] keepCalibrated() {
+		return DataPacket.findOnlyWithinCalibration(ofCompound, minCal, maxCal);
+	}
+
+
+
+	/**
+	 * Picks the packet closest to the calibration midpoint
+	 * @return picked packet
+	 */
+	@Benchmark
+	public DataPacket pickMidpoint() {
+		return DataPacket.findClosestToCalibrationMidpoint(ofCompound, minCal, maxCal);
+	}
+
+}
@@ -0,0 +1,329 @@
+package en.talond.simGUI.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import en.talond.simGUI.Terminal;
+import en.talond.simGUI.data.CalTable;
+import en.talond.simGUI.data.Result;
+import en.talond.simGUI.io.DataSheet;
+import en.talond.simGUI.report.ReportTable.LC_BY_RT;
+
+
+
+
+
+
+/**
+ * Synthetic but Agilent-shaped inputs for the benchmarks. Workbooks follow the cross-sequence
+ * summary layout DataSheet expects (a key of preparations, then one table per sample with a row
+ * per compound per preparation), and calibration tables follow the UTF-16 export CalTable parses.
+ * Everything is generated into a temporary directory and parsed by the application itself,
+ * so the fixtures exercise the same code paths as real exports.
+ * @author talon
+ *
+ */
+final class Fixtures {
+
+
+
+	//every cannabinoid the LC report knows, so each sample fills a full report row
+	static final String[] COMPOUNDS = compoundNames();
+	//date all fixture samples and sets are collected on
+	static final LocalDate DATE = LocalDate.of(2022, 8, 3);
+
+	private static final int COLUMNS = 13;
+	private static final String
+	CANNA_METHOD = "CANNABINOIDS_03.M",
+	FTHC_METHOD = "FTHC_01.M",
+	DIRECTORY = "D:/MassHunter/Data/BENCH";
+
+
+
+	private Fixtures() {}
+
+
+
+
+
+
+
+	/**
+	 * Names a plain request sample the way the lab does
+	 * @param index of the sample
+	 * @return sample name
+	 */
+	static final String sampleName(final int index) {
+		return "BENCH"+index+"_20220803_T#1";
+	}
+
+
+
+	/**
+	 * Writes a cross-sequence summary workbook.
+	 * Each sample gets every compound once per preparation, plus a THC-d9 fTHC row per preparation.
+	 * @param directory to write into
+	 * @param file name (without extension)
+	 * @param samples to list
+	 * @param preps per sample
+	 * @param shift added to the area of odd preparations, so two workbooks with different shifts
+	 * 			share exactly the results of their even preparations
+	 * @return written .xlsx file
+	 * @throws IOException if the file couldn't be written
+	 */
+	static final File workbook(final File dir, final String name, final String[] samples, final int preps, final double shift) throws IOException {
+		return workbook(dir, name, samples, preps, shift, false);
+	}
+
+
+
+	/**
+	 * Writes a cross-sequence summary workbook, either as .xlsx with every cell written out
+	 * or as a legacy .xls the way ChemStation writes one: unused cells left blank (blank records),
+	 * the row ending the key and one of the spacer rows above each table left out altogether,
+	 * and the sample name above each table written as a formula with its result cached.
+	 * @param directory to write into
+	 * @param file name (without extension)
+	 * @param samples to list
+	 * @param preps per sample
+	 * @param shift added to the area of odd preparations
+	 * @param legacy to write an .xls rather than an .xlsx
+	 * @return written file
+	 * @throws IOException if the file couldn't be written
+	 */
+	static final File workbook(final File dir, final String name, final String[] samples, final int preps, final double shift, final boolean legacy) throws IOException {
+		final File f = new File(dir, name+(legacy ? ".xls" : ".xlsx"));
+		try(Workbook w = legacy ? new HSSFWorkbook() : new XSSFWorkbook(); OutputStream out = new FileOutputStream(f)) {
+			final Sheet s = w.createSheet("Summary");
+			int at = 0;
+			//the key of preparations, closed by a row with a blank sample
+			row(s, at++, legacy, 0, "Sample  Name", 5, "Sample Amt", 9, "Directory", 11, "Data File");
+			for(final String sample : samples)
+				for(int p = 0; p < preps; p++)
+					row(s, at++, legacy, 0, sample, 5, Double.toString(amount(p)), 9, DIRECTORY, 11, sample+"-"+p+".D");
+			if(!legacy)
+				row(s, at, legacy);
+			at++;
+			//one table per sample, each below two blank rows
+			for(int i = 0; i < samples.length; i++) {
+				row(s, at++, legacy);
+				if(!legacy)
+					row(s, at, legacy);
+				at++;
+				row(s, at++, legacy, 0, "Compound", 1, "Method", 4, "Desc.", 6, "Area", 8, "Area %", 10, "Mass %", 12, "Dilute PPM");
+				row(s, at++, legacy, 0, "Sample:", 1, samples[i]);
+				if(legacy) {
+					final Cell named = s.getRow(at-1).getCell(1);
+					named.setCellFormula("\""+samples[i].replace("\"", "\"\"")+"\"");
+					named.setCellValue(samples[i]);
+				}
+				for(int c = 0; c < COMPOUNDS.length; c++)
+					for(int p = 0; p < preps; p++)
+						row(s, at++, legacy, 0, COMPOUNDS[c], 1, CANNA_METHOD, 4, dilution(p)+"x", 6, Double.toString(area(i, c, p, shift)),
+								8, "1.0", 10, Double.toString(area(i, c, p, shift) / 10000), 12, "0.0");
+				for(int p = 0; p < preps; p++)
+					row(s, at++, legacy, 0, LC_BY_RT.THC_d9.getSheetName(), 1, FTHC_METHOD, 4, dilution(p)+"x", 6, Double.toString(area(i, -1, p, shift)),
+							8, "1.0", 10, Double.toString(area(i, -1, p, shift) / 100000), 12, "0.0");
+			}
+			//the last row of a sheet is never read as data
+			row(s, at++, legacy);
+			w.write(out);
+		}
+		return f;
+	}
+
+
+
+	/**
+	 * Checks two reads of a workbook mapped the same samples to the same data
+	 * @param one read
+	 * @param other read
+	 * @return true if both hold the same content
+	 */
+	static final boolean sameContent(final DataSheet one, final DataSheet other) {
+		return content(one).equals(content(other));
+	}
+
+	/* every preparation and result row of a read, by sample name */
+	private static final String content(final DataSheet sheet) {
+		final String[] samples = sheet.getSamples();
+		Arrays.sort(samples);
+		final StringBuilder s = new StringBuilder();
+		for(final String sample : samples)
+			for(final DataSheet.SheetData prep : sheet.getDataOf(sample)) {
+				s.append(prep.getSample()).append(' ').append(prep.getAmount()).append(' ').append(prep.getSource()).append('\n');
+				for(final DataSheet.ResultRow r : prep.getData())
+					s.append('\t').append(r.stringify()).append('\n');
+			}
+		return s.toString();
+	}
+
+
+
+	/**
+	 * Writes a calibration table export with the given number of levels per compound
+	 * @param directory to write into
+	 * @param calibration levels per compound
+	 * @return written file
+	 * @throws IOException if the file couldn't be written
+	 */
+	static final File calTable(final File dir, final int levels) throws IOException {
+		final StringBuilder table = new StringBuilder();
+		for(final String compound : COMPOUNDS)
+			for(int l = 0; l < levels; l++) {
+				final String area = Double.toString(250 + 4250.0 * l / Math.max(1, levels-1));
+				//the first level of a compound starts a 12 column row, the rest continue it in 9 columns
+				final String[] cells = new String[l == 0 ? 12 : 9];
+				Arrays.fill(cells, "");
+				cells[3] = l == 0 ? "\""+compound+"\"" : "";
+				cells[7] = area;
+				table.append(String.join("\t", cells)).append("\r\n");
+			}
+		final File f = new File(dir, "caltable.csv");
+		Files.write(f.toPath(), table.toString().getBytes(StandardCharsets.UTF_16));
+		return f;
+	}
+
+
+
+	/**
+	 * Parses a workbook and converts it to results, as an ingest would
+	 * @param workbook file
+	 * @return map of sample names to results
+	 * @throws IOException if the workbook couldn't be read
+	 */
+	static final Map<String,Result[]> results(final File workbook) throws IOException {
+		return Result.parseSheet(new DataSheet(workbook, DataSheet.Mode.STREAMING), new HashMap<>());
+	}
+
+
+
+	/**
+	 * Parses a calibration table written by calTable
+	 * @param file of the table
+	 * @return parsed table
+	 * @throws IOException if the table couldn't be read
+	 */
+	static final CalTable calibration(final File table) throws IOException {
+		return new CalTable(table);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Creates the temporary directory a benchmark writes its fixtures to
+	 * @return new directory
+	 * @throws IOException if it couldn't be created
+	 */
+	static final File tempDir() throws IOException {
+		return Files.createTempDirectory("sim-bench").toFile();
+	}
+
+
+
+	/**
+	 * Deletes a fixture directory and everything in it
+	 * @param directory to delete
+	 * @throws IOException if something couldn't be deleted
+	 */
+	static final void delete(final File dir) throws IOException {
+		try(Stream<Path> paths = Files.walk(dir.toPath())) {
+			final List<Path> all = new ArrayList<>();
+			paths.sorted(Comparator.reverseOrder()).forEach(all::add);
+			for(final Path p : all)
+				Files.deleteIfExists(p);
+		}
+	}
+
+
+
+	private static PrintStream console;
+
+	/**
+	 * Silences the application's console output, which would otherwise dominate every measurement
+	 */
+	static final synchronized void quiet() {
+		if(console == null) {
+			console = System.out;
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		}
+	}
+
+	/**
+	 * Restores the console and forgets what the application logged meanwhile
+	 */
+	static final synchronized void loud() {
+		if(console != null) {
+			System.setOut(console);
+			console = null;
+		}
+		Terminal.clear();
+	}
+
+
+
+
+
+
+
+	/* writes a row of empty string cells (blank cells if legacy), with the given column/value pairs filled in */
+	private static final void row(final Sheet s, final int index, final boolean legacy, final Object... filled) {
+		final Row r = s.createRow(index);
+		for(int c = 0; c < COLUMNS; c++)
+			if(legacy)
+				r.createCell(c);
+			else
+				r.createCell(c).setCellValue("");
+		for(int i = 0; i < filled.length; i += 2)
+			r.getCell((Integer) filled[i]).setCellValue((String) filled[i+1]);
+	}
+
+	/* prep amount (mg) of a preparation; the first is the least dilute */
+	private static final double amount(final int prep) {
+		return 50.0 / (prep + 1);
+	}
+
+	/* dilution factor of a preparation */
+	private static final int dilution(final int prep) {
+		return 10 * (prep + 1);
+	}
+
+	/* a spread of areas, mostly within the calibration of calTable */
+	private static final double area(final int sample, final int compound, final int prep, final double shift) {
+		return 300 + (sample * 131 + (compound + 1) * 37 + prep * 113) % 4000 + (prep % 2 == 1 ? shift : 0);
+	}
+
+	/* sheet names of every LC compound */
+	private static final String[] compoundNames() {
+		final List<String> names = new ArrayList<>();
+		for(final LC_BY_RT compound : LC_BY_RT.values())
+			names.add(compound.getSheetName());
+		return names.toArray(new String[0]);
+	}
+
+}
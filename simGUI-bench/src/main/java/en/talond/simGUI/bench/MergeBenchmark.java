@@ -0,0 +1,109 @@
+package en.talond.simGUI.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import en.talond.simGUI.data.DataSet;
+import en.talond.simGUI.data.Result;
+
+
+
+
+
+
+/**
+ * Measures the merge stage: combining a sample's results from two overlapping ingests.
+ * The child repeats the even preparations of the parent, so half of its results are duplicates.
+ * @author talon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+
+
+
+	//preparations of the sample in each ingest
+	@Param({"2", "10", "50"})
+	public int preps;
+
+	private Result[] parentResults, childResults;
+	private DataSet parent, child;
+
+
+
+
+
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.quiet();
+		final File dir = Fixtures.tempDir();
+		final String sample = Fixtures.sampleName(0);
+		try {
+			parentResults = Fixtures.results(Fixtures.workbook(dir, "parent", new String[] {sample}, preps, 0)).get(sample);
+			childResults = Fixtures.results(Fixtures.workbook(dir, "child", new String[] {sample}, preps, 7)).get(sample);
+		} finally {
+			Fixtures.delete(dir);
+		}
+		parent = new DataSet(sample, parentResults);
+		child = new DataSet(sample, childResults);
+	}
+
+	@TearDown(Level.Iteration)
+	public void forget() {
+		Fixtures.loud();
+		Fixtures.quiet();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.loud();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Merges the raw results of both ingests, as the result map does
+	 * @return merged results
+	 */
+	@Benchmark
+	public Result[] mergeResults() {
+		return Result.mergeWithoutDuplication(parentResults, childResults);
+	}
+
+
+
+	/**
+	 * Merges both ingests as data sets, as the working set does
+	 * @return merged set
+	 */
+	@Benchmark
+	public DataSet mergeDataSets() {
+		return DataSet.merge(parent.copy(), child);
+	}
+
+}
@@ -0,0 +1,133 @@
+package en.talond.simGUI.bench;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import en.talond.simGUI.data.CalTable;
+import en.talond.simGUI.data.Result;
+import en.talond.simGUI.io.DataSheet;
+
+
+
+
+
+
+/**
+ * Measures the parse stage: reading an Agilent workbook into a DataSheet,
+ * converting a read sheet into results, and reading a calibration table.
+ * @author talon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+
+
+	//samples in the workbook, each with every compound over two preparations
+	@Param({"10", "100"})
+	public int samples;
+	//how the workbook is read
+	@Param({"USERMODEL", "STREAMING"})
+	public DataSheet.Mode mode;
+	//whether the workbook is written as a legacy .xls, with blank cells and rows left out
+	@Param({"false", "true"})
+	public boolean legacy;
+
+	private File dir, workbook, calTable;
+	private DataSheet sheet;
+
+
+
+
+
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.quiet();
+		dir = Fixtures.tempDir();
+		final String[] names = new String[samples];
+		for(int i = 0; i < samples; i++)
+			names[i] = Fixtures.sampleName(i);
+		workbook = Fixtures.workbook(dir, "parse", names, 2, 0, legacy);
+		calTable = Fixtures.calTable(dir, 6);
+		sheet = new DataSheet(workbook, mode);
+		//both modes must read the same workbook into the same content, or comparing them measures nothing
+		final DataSheet.Mode other = mode == DataSheet.Mode.USERMODEL ? DataSheet.Mode.STREAMING : DataSheet.Mode.USERMODEL;
+		if(!Fixtures.sameContent(sheet, new DataSheet(workbook, other)))
+			throw new IllegalStateException(mode+" and "+other+" read "+workbook.getName()+" differently");
+		if(sheet.getSamples().length != samples)
+			throw new IllegalStateException(mode+" read "+sheet.getSamples().length+" of the "+samples+" samples in "+workbook.getName());
+	}
+
+	@TearDown(Level.Iteration)
+	public void forget() {
+		Fixtures.loud();
+		Fixtures.quiet();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Fixtures.loud();
+		Fixtures.delete(dir);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Reads the workbook from disk
+	 * @return read sheet
+	 */
+	@Benchmark
+	public DataSheet readWorkbook() throws Exception {
+		return new DataSheet(workbook, mode);
+	}
+
+
+
+	/**
+	 * Converts an already read sheet into results
+	 * @return map of sample names to results
+	 */
+	@Benchmark
+	public Map<String,Result[]> convertSheet() {
+		return Result.parseSheet(sheet, new HashMap<>());
+	}
+
+
+
+	/**
+	 * Reads the calibration table from disk
+	 * @return parsed table
+	 */
+	@Benchmark
+	public CalTable readCalibration() throws Exception {
+		return Fixtures.calibration(calTable);
+	}
+
+}
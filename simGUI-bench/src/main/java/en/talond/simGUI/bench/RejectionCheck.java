@@ -0,0 +1,308 @@
+package en.talond.simGUI.bench;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Random;
+
+import en.talond.simGUI.data.DataPacket;
+import en.talond.simGUI.data.ReplicateStats;
+
+
+
+
+
+
+/**
+ * Compares RSD rejection by ReplicateStats against the leave-one-out recursion DataPacket used before it,
+ * kept here as it was (boxed, one copied array per candidate), on randomized sets of replicate results.
+ * Every rejection step is compared, and a differing choice only passes in one of three cases:
+ * <ul>
+ * <li>tie: both candidates leave exactly the same RSD, decided in exact arithmetic. The old code took
+ * whichever rounded lower and the kernel takes the first</li>
+ * <li>near tie: the RSDs differ, but by less than the kernel's tie tolerance, so it takes the first
+ * where the old code took the lower</li>
+ * <li>above limit: no candidate left an RSD under 100%, where the old code ran past its sentinel and threw.
+ * The kernel rejects the lowest one instead, or the first of any tied or near tied with it</li>
+ * </ul>
+ * Anything else is a mismatch. Run it with {@code java -cp benchmarks.jar en.talond.simGUI.bench.RejectionCheck [sets] [seed]}.
+ * @author talon
+ *
+ */
+public final class RejectionCheck {
+
+
+
+	//sets compared by default, and the seed they are drawn from
+	static final int SETS = 100_000;
+	static final long SEED = 20220803L;
+	//relative difference below which ReplicateStats treats two RSDs as tied
+	private static final BigDecimal TIE = new BigDecimal("1e-9");
+	private static final MathContext PRECISION = new MathContext(40);
+	/* how a differing choice compares with the one it was measured against */
+	private static final int APART = 0, TIED = 1, NEAR = 2;
+
+
+
+	private RejectionCheck() {}
+
+
+
+
+
+
+
+	/**
+	 * Compares the two on randomized sets and prints the tally
+	 * @param args sets to compare and seed, both optional
+	 */
+	public static void main(final String[] args) {
+		final int sets = args.length > 0 ? Integer.parseInt(args[0]) : SETS;
+		final long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+		final Tally tally = compare(sets, seed);
+		System.out.println(tally);
+		if(tally.mismatches > 0)
+			System.exit(1);
+	}
+
+
+
+	/**
+	 * Compares the two on randomized sets
+	 * @param sets to compare
+	 * @param seed to draw them from
+	 * @return how the rejection steps compared
+	 */
+	static final Tally compare(final int sets, final long seed) {
+		final Random random = new Random(seed);
+		final Tally tally = new Tally();
+		for(int s = 0; s < sets; s++) {
+			final double[] values = draw(random);
+			final double limit = random.nextInt(4) == 0 ? random.nextDouble() * 50.0 : DataPacket.MAX_PRECISE_RSD;
+			compare(values, limit, tally);
+			tally.sets++;
+		}
+		return tally;
+	}
+
+
+
+	/**
+	 * Steps the old recursion along one set, checking each rejection against the kernel's,
+	 * then checks the kernel's whole rejection ends on the same values
+	 * @param values of the set
+	 * @param limit acceptable RSD
+	 * @param tally to count into
+	 */
+	private static final void compare(final double[] values, final double limit, final Tally tally) {
+		Double[] current = box(values);
+		while(current.length > 1 && !(oldRSD(current) <= limit)) {
+			final int expected = ReplicateStats.leastPreciseOf(unbox(current), current.length);
+			final int old = oldRejection(current);
+			tally.steps++;
+			if(old == expected)
+				tally.matches++;
+			else if(old < 0 && tie(current, lowestOf(current), expected) != APART)
+				tally.aboveLimit++;
+			else if(old >= 0 && tie(current, old, expected) == TIED)
+				tally.ties++;
+			else if(old >= 0 && tie(current, old, expected) == NEAR)
+				tally.nearTies++;
+			else {
+				tally.mismatches++;
+				if(tally.example == null)
+					tally.example = Arrays.toString(current)+" at "+limit+": old rejected "+old+", kernel "+expected;
+				return;
+			}
+			current = without(current, expected);
+		}
+		//the kernel, run whole, has to land on the values stepped to above
+		final double[] kernel = values.clone();
+		final int[] indices = new int[kernel.length];
+		final int kept = ReplicateStats.rejectToLimit(kernel, indices, kernel.length, limit);
+		if(!Arrays.equals(Arrays.copyOf(kernel, kept), unbox(current))) {
+			tally.mismatches++;
+			if(tally.example == null)
+				tally.example = Arrays.toString(values)+" at "+limit+": kernel kept "+Arrays.toString(Arrays.copyOf(kernel, kept));
+		}
+	}
+
+
+
+	/**
+	 * Draws a set of replicate results, mixing the shapes rejection has to handle:
+	 * tight replicates, one gross outlier, small integers (which tie often) and values
+	 * spread over orders of magnitude (which leave every RSD above 100%)
+	 * @param random to draw from
+	 * @return results
+	 */
+	private static final double[] draw(final Random random) {
+		final double[] values = new double[2 + random.nextInt(11)];
+		final int shape = random.nextInt(4);
+		for(int i = 0; i < values.length; i++)
+			switch(shape) {
+			case 0:		values[i] = 100.0 * (1.0 + random.nextGaussian() * 0.02);							break;
+			case 1:		values[i] = 100.0 * (1.0 + random.nextGaussian() * 0.01) * (i == 0 ? 3.0 : 1.0);		break;
+			case 2:		values[i] = 1 + random.nextInt(6);												break;
+			default:	values[i] = Math.pow(10.0, random.nextDouble() * 6.0 - 2.0);						break;
+			}
+		//the outlier anywhere, not just first
+		if(shape == 1) {
+			final int to = random.nextInt(values.length);
+			final double outlier = values[0];
+			values[0] = values[to];
+			values[to] = outlier;
+		}
+		return values;
+	}
+
+
+
+
+
+
+
+	/**
+	 * The old choice of rejection: the candidate whose removal leaves the lowest RSD,
+	 * as long as that is below the 100% it started from
+	 * @param data to reject from
+	 * @return position rejected, or -1 where the old code threw
+	 */
+	private static final int oldRejection(final Double[] data) {
+		Double minRSD = 100.0;
+		int indexOfRejectionForMin = -1;
+		for(int i = 0; i < data.length; i++) {
+			final Double currentRSD = oldRSD(without(data, i));
+			if(currentRSD < minRSD) {
+				minRSD = currentRSD;
+				indexOfRejectionForMin = i;
+			}
+		}
+		return indexOfRejectionForMin;
+	}
+
+
+
+	/* the old RSD: boxed, summed in order, not divided by the count */
+	private static final Double oldRSD(final Double[] nums) {
+		if(nums.length == 0)
+			return -1.0;
+		else if(nums.length == 1)
+			return 0.0;
+		Double mean = 0.0;
+		for(final Double d : nums)
+			mean += d;
+		mean = mean / nums.length;
+		Double variation = 0.0;
+		for(final Double d : nums)
+			variation += (d-mean)*(d-mean);
+		return Math.sqrt(variation) / mean * 100.0;
+	}
+
+
+
+	/* the rejection the kernel makes where the old code threw: the lowest RSD left, the first on a tie, NaN last */
+	private static final int lowestOf(final Double[] data) {
+		int lowest = -1;
+		double lowestRSD = Double.NaN;
+		for(int i = 0; i < data.length; i++) {
+			final double rsd = oldRSD(without(data, i));
+			if(lowest < 0 || rsd < lowestRSD || (Double.isNaN(lowestRSD) && !Double.isNaN(rsd))) {
+				lowest = i;
+				lowestRSD = rsd;
+			}
+		}
+		return lowest;
+	}
+
+
+
+	/**
+	 * Decides, in exact arithmetic, whether the kernel's rejection ties with another one.
+	 * With s the sum and q the sum of squares of n values, the RSD squared is n(nq - s^2) / s^2
+	 * (times a constant), so two sets tie exactly when those fractions are equal and their sums share a sign.
+	 * Either way the kernel's rejection has to come first, since a tie never displaces an earlier candidate.
+	 * @param data to reject from
+	 * @param other rejection
+	 * @param kernel rejection
+	 * @return TIED, NEAR if the RSDs are within the kernel's tolerance, or APART
+	 */
+	private static final int tie(final Double[] data, final int other, final int kernel) {
+		if(kernel > other)
+			return APART;
+		final BigDecimal[] fa = rsdSquared(without(data, other)), fb = rsdSquared(without(data, kernel));
+		if(fa[0].signum() != fb[0].signum() || fa[2].signum() == 0 || fb[2].signum() == 0)
+			return APART;
+		else if(fa[1].multiply(fb[2]).compareTo(fb[1].multiply(fa[2])) == 0)
+			return TIED;
+		final BigDecimal a = fa[1].divide(fa[2], PRECISION).abs().sqrt(PRECISION);
+		final BigDecimal b = fb[1].divide(fb[2], PRECISION).abs().sqrt(PRECISION);
+		return a.subtract(b).abs().compareTo(TIE.multiply(a.max(b))) < 0 ? NEAR : APART;
+	}
+
+
+
+	/* sum, numerator and denominator of the squared RSD of a set, exactly */
+	private static final BigDecimal[] rsdSquared(final Double[] values) {
+		final BigDecimal n = BigDecimal.valueOf(values.length);
+		BigDecimal s = BigDecimal.ZERO, q = BigDecimal.ZERO;
+		for(final Double v : values) {
+			final BigDecimal x = new BigDecimal(v);
+			s = s.add(x);
+			q = q.add(x.multiply(x));
+		}
+		return new BigDecimal[] { s, n.multiply(n.multiply(q).subtract(s.multiply(s))), s.multiply(s) };
+	}
+
+
+
+
+
+
+
+	/* copies a set without one of its values */
+	private static final Double[] without(final Double[] data, final int rejected) {
+		final Double[] oneLess = new Double[data.length-1];
+		for(int j = 0, k = 0; j < data.length; j++)
+			if(j != rejected)
+				oneLess[k++] = data[j];
+		return oneLess;
+	}
+
+	private static final Double[] box(final double[] values) {
+		final Double[] boxed = new Double[values.length];
+		for(int i = 0; i < values.length; i++)
+			boxed[i] = values[i];
+		return boxed;
+	}
+
+	private static final double[] unbox(final Double[] values) {
+		final double[] unboxed = new double[values.length];
+		for(int i = 0; i < values.length; i++)
+			unboxed[i] = values[i];
+		return unboxed;
+	}
+
+
+
+
+
+
+
+	/**
+	 * How the rejection steps of the compared sets came out
+	 * @author talon
+	 *
+	 */
+	static final class Tally {
+		int sets, steps, matches, ties, nearTies, aboveLimit, mismatches;
+		//first mismatch found, if any
+		String example;
+		@Override public String toString() {
+			return sets+" sets, "+steps+" rejections: "+matches+" matched, "+ties+" exact ties and "+nearTies+" near ties taken first, "
+					+aboveLimit+" above the old 100% sentinel, "+mismatches+" mismatched"
+					+(example == null ? "" : " (e.g. "+example+")");
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package en.talond.simGUI.bench;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import en.talond.simGUI.WorkingSet;
+import en.talond.simGUI.data.Batch;
+import en.talond.simGUI.data.CalTable;
+import en.talond.simGUI.data.DataSet;
+import en.talond.simGUI.data.Puma;
+import en.talond.simGUI.data.Request;
+import en.talond.simGUI.data.Result;
+import en.talond.simGUI.io.SampleFactory;
+import en.talond.simGUI.report.Report;
+
+
+
+
+
+
+/**
+ * Measures the report stage: finalizing every reportable request and puma set of a working set
+ * into a report workbook. The working set is filled once per trial, so only the report is timed.
+ * @author talon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+
+
+	//plain requests in the working set
+	@Param({"10", "100"})
+	public int requests;
+	//puma sets in the working set
+	@Param({"1", "10"})
+	public int pumas;
+	//type of every puma set, which decides how many elements each has
+	@Param({"ONE3", "TWO6"})
+	public Puma.Type pumaType;
+
+	private File dir;
+	private List<Request> toReport;
+	private List<Puma> setsToReport;
+	private CalTable cal;
+
+
+
+
+
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.quiet();
+		dir = Fixtures.tempDir();
+		WorkingSet.open(new File(dir, "set").getAbsolutePath());
+		cal = Fixtures.calibration(Fixtures.calTable(dir, 6));
+		WorkingSet.updateCalibration(cal);
+		//requests
+		final String[] names = new String[requests];
+		for(int i = 0; i < requests; i++)
+			names[i] = Fixtures.sampleName(i);
+		final Map<String,Result[]> requestResults = Fixtures.results(Fixtures.workbook(dir, "requests", names, 2, 0));
+		for(final String name : names) {
+			final Request r = new Request(name, true, true, false, new String[] {});
+			WorkingSet.addRequest(r);
+			WorkingSet.addData(new DataSet(name, requestResults.get(name)), r);
+		}
+		//puma sets, each on its own day so their names differ
+		for(int i = 0; i < pumas; i++) {
+			final Puma p = new Puma(pumaType, Fixtures.DATE.plusDays(i), new Batch(1.0));
+			WorkingSet.addPuma(p);
+			final String[] elements = elementNames(p);
+			final Map<String,Result[]> pumaResults = Fixtures.results(Fixtures.workbook(dir, "puma"+i, elements, 2, 0));
+			for(final String element : elements)
+				WorkingSet.addPumaData(new DataSet(element, pumaResults.get(element)));
+		}
+		toReport = WorkingSet.getReportableRequests();
+		setsToReport = WorkingSet.getReportablePumas();
+	}
+
+	@TearDown(Level.Iteration)
+	public void forget() {
+		Fixtures.loud();
+		Fixtures.quiet();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		WorkingSet.close();
+		Fixtures.loud();
+		Fixtures.delete(dir);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Builds the report of the whole working set
+	 * @return number of reported requests, so the report isn't optimized away
+	 */
+	@Benchmark
+	public int buildReport() throws Exception {
+		final Report report = new Report(toReport, setsToReport, cal, Fixtures.DATE, Report.FthcPolicy.LATEST);
+		report.close();
+		return toReport.size();
+	}
+
+
+
+
+
+
+
+	/* LC sheet names of each element of a puma set, e.g. RAFFINATE_P1.3_20220803 */
+	private static final String[] elementNames(final Puma p) {
+		final int elements = p.getNames().length;
+		final String postfix = "_"+p.getSuffix()+"_"+SampleFactory.assembleDate(p.getDate());
+		final String[] names = new String[elements];
+		names[Puma.FEED_INDEX] = Puma.SHEET_FEED+postfix;
+		names[Puma.RAFF_INDEX] = Puma.SHEET_RAFF+postfix;
+		final int cuts = elements - Puma.EXTR_START;
+		for(int i = 1; i <= cuts; i++)
+			names[Puma.EXTR_START+i-1] = Puma.SHEET_EXTR+(cuts == 1 ? "" : Integer.toString(i))+postfix;
+		return names;
+	}
+
+}
@@ -1,5 +1,6 @@
 package en.talond.simGUI;
 
+import java.util.Arrays;
 
 import en.talond.simGUI.io.Storage;
 import javafx.application.Application;
@@ -22,9 +23,14 @@ public class Executable {
 	
 	/**
 	 * Application entry function
-	 * @param launch args
+	 * @param launch args (--headless runs without the GUI, see Headless)
 	 */
 	public static void main(String[] args) {
+		//scheduled runs skip the GUI entirely
+		if(args.length > 0 && args[0].equals(Headless.FLAG)) {
+			Headless.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		try { 
 			Storage.init();						//write/load persistent files
 			Application.launch(Gui.class);		//launch the JavaFX implementing class
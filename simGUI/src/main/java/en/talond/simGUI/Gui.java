@@ -121,8 +121,12 @@ public class Gui extends Application {
 		@SuppressWarnings("unchecked")
 		ListView<Group> list = (ListView<Group>) getIdFromScene("workingSet");
 		List<Group> names = new LinkedList<>();
-		for(Request r : WorkingSet.getRequests())
-			names.add(makeRequestIndicator(r,WorkingSet.getDataSetOf(r)));
+		for(Request r : WorkingSet.getRequests()) {
+			DataSet d = WorkingSet.getDataSetOf(r);
+			//the request may have been removed by another thread since the list was taken
+			if(d != null)
+				names.add(makeRequestIndicator(r,d));
+		}
 		for(Puma p : WorkingSet.getPumas())
 			try {
 				names.add(makeRequestIndicator(p,WorkingSet.getDataSetsOf(p)));
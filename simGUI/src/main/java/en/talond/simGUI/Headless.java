@@ -0,0 +1,330 @@
+package en.talond.simGUI;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import en.talond.simGUI.data.Batch;
+import en.talond.simGUI.data.CalTable;
+import en.talond.simGUI.data.DataSet;
+import en.talond.simGUI.data.Puma;
+import en.talond.simGUI.data.Request;
+import en.talond.simGUI.data.Result;
+import en.talond.simGUI.io.DataSheet;
+import en.talond.simGUI.io.SampleFactory;
+import en.talond.simGUI.io.SheetCache;
+import en.talond.simGUI.io.SheetIngest;
+import en.talond.simGUI.io.Storage;
+import en.talond.simGUI.report.Report;
+import en.talond.simGUI.report.Report.FthcPolicy;
+
+
+
+/**
+ * Command line entry point which ingests sheets and writes a report without the JavaFX GUI.
+ * Every decision the GUI would ask the user for is instead made by a policy given on the
+ * command line, so a run can be scheduled on a machine without a display.
+ * @author talon
+ * @see Executable for the --headless switch
+ *
+ */
+public final class Headless {
+
+
+
+	//switch given to Executable to run headless
+	public static final String FLAG = "--headless";
+
+	private static final String USAGE =
+			"usage: "+FLAG+" [--set FILE] [--sheets DIR] [--cal FILE] [--report DIR] [--date YYYY-MM-DD]\n"
+			+"\t[--fthc latest|earliest|midpoint|lowest_rsd|max_amount] [--leftovers ignore|infer] [--puma-batch BATCH]\n"
+			+"\t[--mode usermodel|streaming] [--threads N] [--cache DIR|off]";
+
+
+
+
+
+
+
+	/**
+	 * Headless application entry function
+	 * @param command line args (without the --headless switch)
+	 */
+	public static void main(String[] args) {
+		final Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		System.exit(run(options) ? 0 : 1);
+	}
+
+
+
+	/**
+	 * Runs each requested stage against the working set, then stores the working set and log
+	 * @param options of the run
+	 * @return true if every stage succeeded
+	 */
+	public static final boolean run(final Options options) {
+		Terminal.logTo(new File(Storage.ROOT, Storage.LOG_NAME));
+		Terminal.say("Starting headless run...");
+		boolean success = true;
+		try {
+			WorkingSet.open(options.setFile.getAbsolutePath());
+		} catch (Exception e) {
+			Terminal.say("Couldn't open working set "+options.setFile.getAbsolutePath());
+			Terminal.specifyFullError(e);
+			return false;
+		}
+		try {
+			if(options.calFile != null)
+				updateCalibration(options);
+			if(options.sheetDir != null)
+				ingest(options);
+			if(options.reportDir != null)
+				report(options);
+		} catch (Exception e) {
+			Terminal.say("!!! HEADLESS RUN FAILED !!!");
+			Terminal.specifyFullError(e);
+			success = false;
+		} finally {
+			Storage.close();
+		}
+		return success;
+	}
+
+
+
+
+
+
+
+	/**
+	 * Replaces the working set calibration with the given table
+	 * @param options of the run
+	 * @throws Exception if the table can't be parsed
+	 */
+	private static final void updateCalibration(final Options options) throws Exception {
+		Terminal.say("Loading calibration table from "+options.calFile.getAbsolutePath()+"...");
+		final CalTable t = new CalTable(options.calFile);
+		WorkingSet.updateCalibration(t);
+		Terminal.say("\tParsed table:\n "+t.stringify());
+	}
+
+
+
+	/**
+	 * Ingests every sheet of the sheet directory into the working set
+	 * @param options of the run
+	 * @throws Exception if the directory can't be read or the results can't be merged
+	 */
+	private static final void ingest(final Options options) throws Exception {
+		final File[] files = options.sheetDir.listFiles();
+		if(files == null)
+			throw new IllegalArgumentException("Not a readable directory: "+options.sheetDir.getAbsolutePath());
+		final long start = System.nanoTime();
+		final SheetIngest ingest = new SheetIngest(files, options.mode, options.threads, options.cache);
+		final Map<String,Result[]> resultMap = Result.mergeGcAndLcOfPuma(ingest.run((done, total) -> {}));
+		final Map<String,Result[]> unhandled = WorkingSet.addResults(resultMap, name -> inferPuma(name, options.pumaBatch));
+		for(final String name : unhandled.keySet())
+			options.leftovers.handle(name, unhandled.get(name));
+		final long millis = (System.nanoTime() - start) / 1_000_000;
+		Terminal.say("Ingested "+ingest.getSheetsParsed()+" of "+files.length+" files ("+resultMap.size()+" samples, "
+				+unhandled.size()+" left over) in "+millis+" ms, "+rate(files.length, millis)+" files/s");
+	}
+
+
+
+	/**
+	 * Reports every reportable request and puma set in the working set
+	 * @param options of the run
+	 * @throws Exception if the report can't be assembled or written
+	 */
+	private static final void report(final Options options) throws Exception {
+		if(WorkingSet.getCalibration() == null)
+			throw new IllegalStateException("No calibration table in the working set; give one with --cal");
+		final long start = System.nanoTime();
+		Terminal.say("Fetching reportable samples...");
+		final List<Request> requests = WorkingSet.getReportableRequests();
+		final List<Puma> pumas = WorkingSet.getReportablePumas();
+		final Report r = new Report(requests, pumas, WorkingSet.getCalibration(), options.date, options.fthc);
+		try {
+			r.writeReport(options.reportDir);
+		} finally {
+			r.close();
+		}
+		final long millis = (System.nanoTime() - start) / 1_000_000;
+		final int count = requests.size() + pumas.size();
+		Terminal.say("Reported "+requests.size()+" requests and "+pumas.size()+" puma sets in "
+				+millis+" ms, "+rate(count, millis)+" samples/s");
+	}
+
+
+
+	/* throughput for the run summaries */
+	private static final String rate(final int count, final long millis) {
+		return String.format("%.2f", count * 1000.0 / Math.max(1, millis));
+	}
+
+
+
+
+
+
+
+	/**
+	 * Infers a puma set from one of its element names without asking the user.
+	 * Mirrors MainMenu.handlePumaInference, except that anything it would have
+	 * prompted for leaves the set uninferred.
+	 * @param gc or lc puma element name
+	 * @param batch to give new puma sets (may be null)
+	 * @return inferred puma set or null
+	 */
+	private static final Puma inferPuma(final String gcOrLcPumaName, final Batch batch) {
+		String lcName = gcOrLcPumaName;
+		if(Puma.nameIsFromPumaGC(gcOrLcPumaName)) try {
+			lcName = Puma.standardizePumaGcName(gcOrLcPumaName);
+		} catch (DataFormatException e) {
+			Terminal.say("Error while transforming GC name to LC name: "+gcOrLcPumaName);
+			return null;
+		}
+		final String[] tokens = lcName.split("_");
+		if(tokens.length < 3) {
+			Terminal.say("Name wasn't long enough deconstructed: "+lcName);
+			return null;
+		}
+		final Puma.Type machine = Puma.Type.inferFromSuffix(tokens[1]);
+		final LocalDate date = SampleFactory.parseDate(tokens[2]);
+		if(machine == null || date == null || batch == null) {
+			Terminal.say("Couldn't infer puma set of "+lcName+" (type? "+(machine!=null)
+					+" date? "+(date!=null)+" batch? "+(batch!=null)+")");
+			return null;
+		}
+		return new Puma(machine,date,batch);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Non-interactive handling of results which couldn't be filed into the working set.
+	 * Takes the place of the BadSheetHandler menu.
+	 * @author talon
+	 *
+	 */
+	public static enum LeftoverPolicy {
+		//log and forget the results
+		IGNORE {
+			@Override void handle(String name, Result[] results) {
+				Terminal.say("\tIgnoring unhandled results for "+name);
+			}
+		},
+		//create a request whose requirements match the data found
+		INFER {
+			@Override void handle(String name, Result[] results) {
+				final String hyphenated = name.replaceAll(Request.DISALLOWED_CHARACTERS, "-");
+				try {
+					final DataSet d = new DataSet(hyphenated, results);
+					Request r = WorkingSet.fetchRequest(hyphenated);
+					if(r == null) {
+						r = new Request(hyphenated, d.hasCanna(), d.hasFthc(), d.hasGC(), new String[] {});
+						WorkingSet.addRequest(r);
+					}
+					if(WorkingSet.addData(d, r))
+						Terminal.say("\tInferred "+r.getName()+" for unhandled results of "+name);
+					else
+						Terminal.say("\tCouldn't add unhandled results of "+name+" to "+r.getName());
+				} catch (Exception e) {
+					Terminal.say("\tCouldn't infer a request for unhandled results of "+name);
+					Terminal.specifyFullError(e);
+				}
+			}
+		};
+		abstract void handle(String name, Result[] results);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Parsed command line options of a headless run
+	 * @author talon
+	 *
+	 */
+	public static final class Options {
+		private File setFile = new File(Storage.ROOT+"/"+Storage.WORKING_SET_NAME);
+		private File sheetDir, calFile, reportDir;
+		private LocalDate date = LocalDate.now();
+		private FthcPolicy fthc = FthcPolicy.LATEST;
+		private LeftoverPolicy leftovers = LeftoverPolicy.IGNORE;
+		private Batch pumaBatch;
+		private DataSheet.Mode mode = DataSheet.Mode.USERMODEL;
+		private int threads = SheetIngest.DEFAULT_THREADS;
+		private SheetCache cache = SheetCache.getDefault();
+
+
+
+		/**
+		 * Parses the command line arguments
+		 * @param args (without the --headless switch)
+		 * @return parsed options
+		 * @throws IllegalArgumentException if an argument is unknown or malformed
+		 */
+		public static final Options parse(final String[] args) {
+			final Options o = new Options();
+			for(int i = 0; i < args.length; i++) {
+				final String flag = args[i];
+				if(i+1 >= args.length)
+					throw new IllegalArgumentException("Missing value for "+flag);
+				final String value = args[++i];
+				boolean known = true;
+				try {
+					switch(flag) {
+					case "--set":			o.setFile = new File(value); 								break;
+					case "--sheets":		o.sheetDir = new File(value); 								break;
+					case "--cal":			o.calFile = new File(value); 								break;
+					case "--report":		o.reportDir = new File(value); 								break;
+					case "--date":			o.date = LocalDate.parse(value); 							break;
+					case "--fthc":
+						o.fthc = FthcPolicy.valueOf(value.toUpperCase());
+						//nobody is there to answer a dialog
+						if(o.fthc == FthcPolicy.INTERACTIVE)
+							throw new IllegalArgumentException("Headless runs can't select interactively");
+						break;
+					case "--leftovers":		o.leftovers = LeftoverPolicy.valueOf(value.toUpperCase()); 	break;
+					case "--mode":			o.mode = DataSheet.Mode.valueOf(value.toUpperCase()); 		break;
+					case "--threads":		o.threads = Integer.parseInt(value); 						break;
+					case "--cache":			o.cache = value.equalsIgnoreCase("off") ? null : new SheetCache(new File(value)); break;
+					case "--puma-batch":
+						o.pumaBatch = SampleFactory.parseBatch(value);
+						if(o.pumaBatch == null)
+							throw new IllegalArgumentException("Invalid batch: "+value);
+						break;
+					default:
+						known = false;
+					}
+				} catch (IllegalArgumentException | DateTimeParseException e) {
+					throw new IllegalArgumentException("Invalid value for "+flag+": "+value, e);
+				}
+				if(!known)
+					throw new IllegalArgumentException("Unknown argument: "+flag);
+			}
+			return o;
+		}
+	}
+
+}
@@ -1,11 +1,11 @@
 package en.talond.simGUI;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -17,15 +17,18 @@ import de.milchreis.uibooster.model.ListElement;
 import en.talond.simGUI.data.Batch;
 import en.talond.simGUI.data.CalTable;
 import en.talond.simGUI.data.DataPacket;
-import en.talond.simGUI.data.DataSet;
 import en.talond.simGUI.data.Puma;
 import en.talond.simGUI.data.Request;
 import en.talond.simGUI.data.Result;
-import en.talond.simGUI.io.DataSheet;
 import en.talond.simGUI.io.SampleFactory;
+import en.talond.simGUI.io.SheetIngest;
+import en.talond.simGUI.io.SheetWatcher;
+import en.talond.simGUI.io.Storage;
 import en.talond.simGUI.report.Report;
 import en.talond.simGUI.report.ReportTable;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.scene.control.ProgressBar;
 
 
 
@@ -49,6 +52,8 @@ public class MainMenu {
 	
 	//singleton implementation of the UiBooster pop up gui library 
     public static final UiBooster HANDLER_INTERFACE = new UiBooster();
+    //watches the export folders the user chose to watch, started with the first of them
+    private static SheetWatcher watcher;
     
     
     
@@ -195,46 +200,32 @@ public class MainMenu {
 	    	List<Puma> reportablePuma = new LinkedList<>();
 	    	List<Request> reportableSamples = new LinkedList<>();
 	    	List<String> reportable = new LinkedList<>();		//name list for user dialogue
-	    	//iterate through each request in the set to pick out the reportable ones
+	    	//pick out the reportable requests and puma sets
 	    	Terminal.say("\tFetching reportable requests...");
-	    	for(Request r : WorkingSet.getRequests()) {
-	    		DataSet data = WorkingSet.getDataSetOf(r);
-	    		int req = r.checkRequestRequirements(data);
-	    		if(req > -1) {
-	    			Terminal.say("\t\t"+r.getName()+" is reportable");
-	    			reportableSamples.add(r);
-	    			reportable.add(r.getName());
-	    		} else Terminal.say("\t\t"+r.getName()+" is not reportable");	}
-	    	//iterate through each puma set in the working set, 
-	    	//find the minimal fulfillment code of the set, then add reportable to the list
+	    	reportableSamples.addAll(WorkingSet.getReportableRequests());
 	    	Terminal.say("\tFetching reportable pumas...");
-	    	for(Puma p : WorkingSet.getPumas()) {
-	    		DataSet[] data = WorkingSet.getDataSetsOf(p);
-	    		int index = 0;
-	    		int minReq = 2;
-	    		for(Request r : p.generateRequests()) {
-	    			int req = r.checkRequestRequirements(data[index]);
-	    			if(req < minReq)
-	    				minReq = req;
-	    			index++;
-	    		}
-	    		if(minReq > -1) {
-	    			reportablePuma.add(p);
-	    			reportable.add(p.getName());
-	    		} else
-	    			Terminal.say("\t\t"+p.getName()+" has at least one element which is not reportable");
-	    	}
+	    	reportablePuma.addAll(WorkingSet.getReportablePumas());
+	    	for(Request r : reportableSamples)
+	    		reportable.add(r.getName());
+	    	for(Puma p : reportablePuma)
+	    		reportable.add(p.getName());
 	    	Terminal.say("\tCollecting user input");
 	    	//Display the report generation form to allow user selections
+	    	List<String> policies = new LinkedList<>();			//ambiguous fTHC policies, interactive first as the default
+	    	for(Report.FthcPolicy p : Report.FthcPolicy.values())
+	    		policies.add(p.name());
 	    	Form f = HANDLER_INTERFACE.createForm("Report Generation")
 	    			.addDatePicker("Report Date")
 	    			.addMultipleSelection("Samples to report", reportable)
+	    			.addSelection("Ambiguous fTHC results", policies)
 	    			.show(); 
 	    	//collect date from form
 	    	LocalDate date = convertUiDate((Date) f.getByIndex(0).getValue());
 	    	//collect selected reportable pumas and requests from the form
 	    	@SuppressWarnings("unchecked")
 			List<String> selected = (List<String>) f.getByIndex(1).getValue();
+	    	Object policy = f.getByIndex(2).getValue();
+	    	Report.FthcPolicy fthcPolicy = policy == null ? Report.FthcPolicy.INTERACTIVE : Report.FthcPolicy.valueOf(policy.toString());
 	    	Terminal.say("\t\tThe following were selected:");
 	    	for(String sel : selected) {
 	    		boolean found = false;
@@ -258,7 +249,7 @@ public class MainMenu {
 	    	File dir = HANDLER_INTERFACE.showDirectorySelection();
 	    	//Create and write the report
 	    	try {
-		    	Report r = new Report(reported,reportedPuma,WorkingSet.getCalibration(),date);
+		    	Report r = new Report(reported,reportedPuma,WorkingSet.getCalibration(),date,fthcPolicy);
 		    	Terminal.say("Report generate successfully. Writing...");
 		    	r.writeReport(dir);
 	    	} catch (Exception e) {
@@ -335,6 +326,8 @@ public class MainMenu {
     
     /**
      * Allows to user to submit data sheets to fill out the WorkingSet.
+     * The selected directory is either parsed once, or watched so that new and changed sheets are
+     * ingested in the background as they are exported.
      * @apiNote button id=dataButton
      * @seeAlso BadSheetHandler
      */
@@ -343,26 +336,88 @@ public class MainMenu {
     	Terminal.say("Handling data sheet submission...");
     	//ask user for directory to parse
     	File dir = HANDLER_INTERFACE.showDirectorySelection();
-    	//attempt to parse each sheet in the selected directory
+    	HANDLER_INTERFACE.showConfirmDialog("Keep watching "+dir.getName()+" and ingest new or changed sheets as they are exported?"
+    			+"\nOnly sheets which weren't ingested from a watched folder before are parsed.", "Watch Folder",
+    			() -> watchDataSheets(dir),
+    			() -> ingestDataSheets(dir));
+    }
+    
+    
+    
+    /**
+     * Parses every sheet of a directory in the background, then files the results
+     * @param directory of data sheets
+     */
+    private final void ingestDataSheets(final File dir) {
     	Terminal.say("\tCollect data sheets from "+dir.getAbsolutePath());
-    	List<DataSheet> sheets = new LinkedList<>();
-    	for(File f : dir.listFiles()) try {
-    		DataSheet s = new DataSheet(f);
-    		sheets.add(s);
-    		Terminal.say("\t\tParsed data from "+f.getName());
-    	} catch (Exception e1) {
-    		Terminal.say("\t\tCouldn't parse file as data sheet: "+f.getAbsolutePath()+". Continuing...");
-    		Terminal.specifyFullError(e1);
-    		continue;
+    	final SheetIngest ingest = new SheetIngest(dir.listFiles());
+    	final ProgressBar progress = (ProgressBar) Gui.getIdFromScene("ingestProgress");
+    	progress.setProgress(0);
+    	progress.setVisible(true);
+    	final Thread worker = new Thread(() -> {
+    		try {
+    			//assemble the collected sheets into an intermediary result map
+    			final Map<String,Result[]> resultMap = ingest.run((done, total) -> 
+    				Platform.runLater(() -> progress.setProgress((double) done / total)));
+    			Platform.runLater(() -> {
+    				progress.setVisible(false);
+    				handleIngestedSheets(ingest.getSheetsParsed(), resultMap);
+    			});
+    		} catch (Exception e) {
+    			Terminal.say("Error occurred while ingesting data sheets!");
+    			Terminal.specifyFullError(e);
+    			Platform.runLater(() -> {
+    				progress.setVisible(false);
+    				HANDLER_INTERFACE.showErrorDialog("Error while parsing the selected data sheets! Exiting...", "Data Submission Error");
+    			});
+    		}
+    	}, "sheet-ingest");
+    	worker.setDaemon(true);
+    	worker.start();
+    }
+    
+    
+    
+    /**
+     * Watches a directory, filing the results of each new or changed sheet once it has been ingested
+     * @param directory of data sheets
+     */
+    private final void watchDataSheets(final File dir) {
+    	try {
+    		if(watcher == null)
+    			watcher = new SheetWatcher(new File(Storage.ROOT, Storage.WATCH_LEDGER_NAME),
+    					(sheets, resultMap, filed) -> Platform.runLater(() -> {
+    						//the sheets are only recorded as ingested once their results are in the working set
+    						if(handleIngestedSheets(sheets, resultMap))
+    							filed.run();
+    					}));
+    		watcher.watch(dir);
+    	} catch (IOException e) {
+    		Terminal.specifyFullError(e);
+    		HANDLER_INTERFACE.showErrorDialog("Couldn't watch "+dir.getAbsolutePath()+" for data sheets!", "Data Submission Error");
     	}
-    	Terminal.say("\tSuccessfully collected "+sheets.size()+" sheets!");
-    	//assemble the collected sheets into an intermediary result map
-    	Map<String,Result[]> resultMap = new HashMap<>();
-    	if(sheets.size() == 0) {
+    }
+    
+    
+    
+    
+    
+    
+    
+    
+    /**
+     * Files the results of a data sheet submission into the WorkingSet.
+     * Runs on the FX thread once every sheet has been ingested.
+     * @param number of sheets that were parsed
+     * @param intermediary result map of the parsed sheets
+     * @return true if the results were filed
+     */
+    private final boolean handleIngestedSheets(final int sheetCount, Map<String,Result[]> resultMap) {
+    	Terminal.say("\tSuccessfully collected "+sheetCount+" sheets!");
+    	if(sheetCount == 0) {
     		HANDLER_INTERFACE.showErrorDialog("No sheets were parsed from selected directory, so nothing happened.", "Data Submission Error");
-    		return;
-    	} else for(DataSheet s : sheets)
-    		resultMap = Result.parseSheet(s, resultMap);
+    		return false;
+    	}
     	//merge gc's and lc's
     	try {
     		Terminal.say("Attempting to merge GCs and LCs of puma samples...");
@@ -371,51 +426,14 @@ public class MainMenu {
 			Terminal.say("Error occurred during merge process!");
 			HANDLER_INTERFACE.showErrorDialog("Error while attempting to merge GC and LC puma results! Exiting...", "Data Submission Error");
 			e.printStackTrace();
-			return;
+			return false;
 		}
-    	List<String> handled = new LinkedList<>();
-    	for(String request : resultMap.keySet()) {
-    		Terminal.say("\tBeginning automatic handling of "+request+"...");
-    		if(Puma.isDataForPuma(request)) {
-    			Terminal.say("\t\tHandling as puma...");
-	    		Puma existingPuma = WorkingSet.fetchPuma(request);
-	    		//add the puma set to the working set if it is new
-	    		if(existingPuma == null) {
-	    			Terminal.say("\t\t\tDoesn't exist! Adding now...");
-	    			existingPuma = handlePumaInference(request);
-	    			WorkingSet.addPuma(existingPuma);
-	    		} else Terminal.say("\t\t\tExists!");
-	    		boolean added = WorkingSet.addPumaData(new DataSet(request,resultMap.get(request)));
-	    		if(added) {
-	    			Terminal.say("\t\t\t\tSuccessfully added puma data for "+request);
-	    			handled.add(request);
-	    		} else Terminal.say("\t\t\t\tError adding puma data to "+existingPuma.getName()+" from set element "+request);
-    		} else {
-    			Terminal.say("\t\tHandling as plain request...");
-    			Request existing = WorkingSet.fetchRequest(request);
-    			//add the request to the working set if it is new
-    			boolean abort = false;
-    			if(existing == null) {
-    				Terminal.say(request+" does not exist! Adding now...");
-    				existing = SampleFactory.parseBasicRequest(request);
-    				if(existing != null)
-    					WorkingSet.addRequest(existing);
-    				else abort = true;
-    			} else Terminal.say("Exists!");
-    			if(!abort) {
-    				boolean added = WorkingSet.addData(new DataSet(request,resultMap.get(request)), existing);
-    				if(added) {
-	    				Terminal.say("Successfully added data for "+request);
-	    				handled.add(request);
-    				} else Terminal.say("Failed apping data for "+request);
-    			} else Terminal.say("Error adding data to "+request);
-    		}
-    	}
+    	//file the results, then let the user handle whatever is left
+    	final Map<String,Result[]> unhandled = WorkingSet.addResults(resultMap, MainMenu::handlePumaInference);
     	Gui.updateSet();
-    	for(String request : handled)
-    		resultMap.remove(request);
-    	if(resultMap.size() > 0)
-    		BadSheetHandler.initBadDataGUI(resultMap);
+    	if(unhandled.size() > 0)
+    		BadSheetHandler.initBadDataGUI(unhandled);
+    	return true;
     }
     
     
@@ -1,8 +1,22 @@
 package en.talond.simGUI;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import en.talond.simGUI.io.Storage;
 
@@ -11,69 +25,446 @@ import en.talond.simGUI.io.Storage;
 /**
  * The Terminal simultaneously prints and records each message that is passed to it.
  * Its purpose revolves entirely around debugging.
+ * Messages below the current level are dropped before they are queued. The rest are handed to a
+ * single background writer, which prints them, keeps the most recent ones in a ring buffer,
+ * and appends them to a rolling log file once one is attached.
  * @author talon
  *
  */
 public class Terminal {
 
-	
-	
-	
-	
-	//message log
-	private static final List<String> LOG = new LinkedList<>();
-	
-	
-	
-	
-	
+
+
+
+
+	/**
+	 * Severity of a message, from per-row chatter to failures
+	 * @author talon
+	 *
+	 */
+	public static enum Level { DEBUG, INFO, WARN, ERROR }
+
+
+
+	//messages waiting for the writer (bounded, debug overflow is counted and dropped)
+	private static final int QUEUE_SIZE = 8192;
+	//recent messages kept in memory for writeLog
+	private static final int RING_SIZE = 4096;
+	//size at which the log file is rolled, and how many rolled files are kept
+	private static final long ROLL_BYTES = 5L << 20;
+	private static final int ROLLED_FILES = 5;
+
+	private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private static final String[] RING = new String[RING_SIZE];
+	private static final AtomicLong DROPPED = new AtomicLong();
+	private static int ringHead, ringCount;
+	private static volatile Level threshold = parseLevel(System.getProperty("sim.log.level"), Level.INFO);
+	//only touched by the writer thread
+	private static RollingFile sink;
+
+	static {
+		final Thread writer = new Thread(Terminal::drain, "sim-terminal");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Terminal::close, "sim-terminal-close"));
+	}
+
+
+
+
+
 	/**
 	 * Writes messages to the console, then logs them.
 	 * @param msg to say
 	 */
 	public static final void say(String msg) {
-		LOG.add(msg);
-		System.out.println(msg);
+		log(Level.INFO, msg);
 	}
-	
-	
-	
-	
-	
+
+
+
+
+
 	/**
 	 * Says a highly-indented message, so it is less noticeable in the log
 	 * @param message to whisper
 	 */
 	public static final void mention(String minorMsg) {
-		say("\t\t\t\t\t"+minorMsg);
+		log(Level.DEBUG, "\t\t\t\t\t"+minorMsg);
 	}
-	
-	
-	
-	
-	
+
+
+
+
+
+	/**
+	 * Logs per-row detail which is only wanted while debugging
+	 * @param msg to log
+	 */
+	public static final void debug(String msg) {
+		log(Level.DEBUG, msg);
+	}
+
+
+
+	/**
+	 * Logs per-row detail, building it only if debugging is enabled
+	 * @param msg supplier, e.g. some object's stringify
+	 */
+	public static final void debug(Supplier<String> msg) {
+		log(Level.DEBUG, msg);
+	}
+
+
+
+	/**
+	 * Logs something which went wrong but could be worked around
+	 * @param msg to log
+	 */
+	public static final void warn(String msg) {
+		log(Level.WARN, msg);
+	}
+
+
+
+
+
 	/**
 	 * Prints the full stack trace and logs the exception message
 	 * @param exception to log
 	 */
 	public static final void specifyFullError(Exception e) {
-		LOG.add(":: ERROR :: "+e.getLocalizedMessage());
-		System.out.println();
-		e.printStackTrace();
-		System.out.println();
-	}
-	
-	
-	
-	
-	
-	/**
-	 * Writes the logged messages to a file
+		final StringWriter trace = new StringWriter();
+		e.printStackTrace(new PrintWriter(trace));
+		log(Level.ERROR, ":: ERROR :: "+e.getLocalizedMessage()+System.lineSeparator()+trace);
+	}
+
+
+
+
+
+	/**
+	 * Logs a message at the given level, unless the level is currently disabled.
+	 * When the writer falls behind, debug messages are dropped and counted, while the rest wait for room.
+	 * @param level of the message
+	 * @param msg to log
+	 */
+	public static final void log(Level level, String msg) {
+		if(!isEnabled(level))
+			return;
+		final Entry e = new Entry(msg, null);
+		if(level != Level.DEBUG) try {
+			QUEUE.put(e);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} else if(!QUEUE.offer(e))
+			DROPPED.incrementAndGet();
+	}
+
+
+
+	/**
+	 * Logs a message at the given level, building it only if the level is currently enabled
+	 * @param level of the message
+	 * @param msg supplier
+	 */
+	public static final void log(Level level, Supplier<String> msg) {
+		if(isEnabled(level))
+			log(level, msg.get());
+	}
+
+
+
+	/**
+	 * Checks whether messages of a level would be logged, so callers can skip building expensive ones
+	 * @param level to check
+	 * @return true if messages of the level are kept
+	 */
+	public static final boolean isEnabled(Level level) {
+		return level.compareTo(threshold) >= 0;
+	}
+
+
+
+	/**
+	 * Sets the least severe level which is still logged
+	 * @param level to log from
+	 */
+	public static final void setLevel(Level level) {
+		threshold = level;
+	}
+
+
+
+
+
+	/**
+	 * Appends every further message to a log file, rolling it over (file.1, file.2, ...) once it grows too large
+	 * @param file to log to
+	 */
+	public static final void logTo(File file) {
+		final CountDownLatch attached = new CountDownLatch(1);
+		enqueue(new Entry(null, () -> {
+			closeSink();
+			sink = new RollingFile(file);
+			attached.countDown();
+		}));
+		await(attached);
+	}
+
+
+
+	/**
+	 * Waits until every message logged so far has been written
+	 */
+	public static final void flush() {
+		final CountDownLatch flushed = new CountDownLatch(1);
+		if(enqueue(new Entry(null, flushed::countDown)))
+			await(flushed);
+	}
+
+
+
+	/**
+	 * Writes everything logged so far, then detaches the log file
+	 */
+	public static final void close() {
+		final CountDownLatch closed = new CountDownLatch(1);
+		if(enqueue(new Entry(null, () -> {
+			closeSink();
+			closed.countDown();
+		}))) await(closed);
+	}
+
+
+
+
+
+	/**
+	 * Forgets every logged message, e.g. between benchmark iterations
+	 */
+	public static final void clear() {
+		flush();
+		synchronized(RING) {
+			ringHead = ringCount = 0;
+		}
+		DROPPED.set(0);
+	}
+
+
+
+
+
+	/**
+	 * Writes the most recently logged messages to a file
 	 * @param filepath
 	 * @throws IOException
 	 */
 	public static final void writeLog(String filepath) throws IOException {
-		Storage.writeLines(LOG.toArray(new String[] {}), filepath);
+		flush();
+		final String[] recent;
+		synchronized(RING) {
+			recent = new String[ringCount];
+			for(int i = 0; i < ringCount; i++)
+				recent[i] = RING[(ringHead - ringCount + i + RING_SIZE) % RING_SIZE];
+		}
+		Storage.writeLines(recent, filepath);
+	}
+
+
+
+
+
+
+
+
+
+
+	/* body of the writer thread: prints queued messages in batches */
+	private static final void drain() {
+		final List<Entry> batch = new ArrayList<>();
+		while(true) try {
+			batch.add(QUEUE.take());
+			QUEUE.drainTo(batch);
+			final long dropped = DROPPED.getAndSet(0);
+			if(dropped > 0)
+				write(":: WARNING :: "+dropped+" log messages were dropped while the log was full");
+			for(final Entry e : batch)
+				if(e.msg != null)
+					write(e.msg);
+				else {
+					System.out.flush();
+					flushSink();
+					e.control.run();
+				}
+			batch.clear();
+		} catch (InterruptedException e) {
+			return;
+		} catch (RuntimeException e) {
+			//the logger must outlive whatever went wrong with one batch
+			batch.clear();
+		}
+	}
+
+
+
+	/* writes one message everywhere it belongs */
+	private static final void write(final String msg) {
+		System.out.println(msg);
+		synchronized(RING) {
+			RING[ringHead] = msg;
+			ringHead = (ringHead + 1) % RING_SIZE;
+			if(ringCount < RING_SIZE)
+				ringCount++;
+		}
+		if(sink != null) try {
+			sink.write(msg);
+		} catch (IOException e) {
+			System.out.println(":: ERROR :: log file dropped: "+e.getLocalizedMessage());
+			closeSink();
+		}
 	}
-	
-}
\ No newline at end of file
+
+
+
+	/* queues a control entry, unless this is the writer itself (which would wait on itself) */
+	private static final boolean enqueue(final Entry control) {
+		if(Thread.currentThread().getName().equals("sim-terminal")) {
+			control.control.run();
+			return false;
+		}
+		try {
+			QUEUE.put(control);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/* waits for a control entry to be run, but not forever */
+	private static final void await(final CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* flushes the log file, dropping it if it can't be written */
+	private static final void flushSink() {
+		if(sink != null) try {
+			sink.flush();
+		} catch (IOException e) {
+			closeSink();
+		}
+	}
+
+	/* closes and detaches the log file */
+	private static final void closeSink() {
+		if(sink != null) try {
+			sink.close();
+		} catch (IOException e) {
+			System.out.println(":: ERROR :: couldn't close log file: "+e.getLocalizedMessage());
+		} finally {
+			sink = null;
+		}
+	}
+
+	/* reads a level name, falling back to a default when it's absent or unknown */
+	private static final Level parseLevel(final String name, final Level fallback) {
+		if(name != null) for(final Level l : Level.values())
+			if(l.name().equalsIgnoreCase(name.trim()))
+				return l;
+		return fallback;
+	}
+
+
+
+
+
+
+
+
+
+
+	/**
+	 * A queued message, or (without a message) an action the writer runs once everything before it is written
+	 * @author talon
+	 *
+	 */
+	private static final class Entry {
+		private final String msg;
+		private final Runnable control;
+		private Entry(final String msg, final Runnable control) {
+			this.msg = msg;
+			this.control = control;
+		}
+	}
+
+
+
+
+
+	/**
+	 * An appending log file which is rolled over to numbered copies once it reaches ROLL_BYTES
+	 * @author talon
+	 *
+	 */
+	private static final class RollingFile {
+		private final File file;
+		private BufferedWriter out;
+		private long written;
+
+		private RollingFile(final File file) {
+			this.file = file;
+		}
+
+		private final void write(final String msg) throws IOException {
+			if(out == null)
+				open();
+			out.write(msg);
+			out.newLine();
+			written += msg.length() + 1;
+			if(written >= ROLL_BYTES) {
+				close();
+				roll();
+			}
+		}
+
+		private final void flush() throws IOException {
+			if(out != null)
+				out.flush();
+		}
+
+		private final void close() throws IOException {
+			if(out != null)
+				out.close();
+			out = null;
+		}
+
+		/* appends to the file, counting what it already holds toward the roll */
+		private final void open() throws IOException {
+			final File dir = file.getAbsoluteFile().getParentFile();
+			if(dir != null)
+				dir.mkdirs();
+			written = file.exists() ? file.length() : 0;
+			out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		/* shifts file.n to file.n+1, dropping the oldest, then moves the file to file.1 */
+		private final void roll() throws IOException {
+			Files.deleteIfExists(rolled(ROLLED_FILES).toPath());
+			for(int i = ROLLED_FILES - 1; i >= 1; i--)
+				if(rolled(i).exists())
+					Files.move(rolled(i).toPath(), rolled(i+1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(file.toPath(), rolled(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			written = 0;
+		}
+
+		private final File rolled(final int n) {
+			return new File(file.getPath()+"."+n);
+		}
+	}
+
+}
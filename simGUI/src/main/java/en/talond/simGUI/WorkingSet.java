@@ -1,12 +1,22 @@
 package en.talond.simGUI;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.google.gson.JsonSyntaxException;
 
@@ -17,8 +27,11 @@ import en.talond.simGUI.data.DataSet;
 import en.talond.simGUI.data.Puma;
 import en.talond.simGUI.data.Request;
 import en.talond.simGUI.data.Result;
+import en.talond.simGUI.data.SampleName;
 import en.talond.simGUI.data.CalTable.Range;
+import en.talond.simGUI.io.Journal;
 import en.talond.simGUI.io.SampleFactory;
+import en.talond.simGUI.io.SetStore;
 import en.talond.simGUI.io.Storage;
 import en.talond.simGUI.report.ReportTable.LC_BY_RT;
 
@@ -28,6 +41,11 @@ import en.talond.simGUI.report.ReportTable.LC_BY_RT;
  * The working set is a Singleton class for managing requests, their data, and
  * the data's calibration settings. It is tightly correlated with and used
  * extensively by the GUI.
+ * 
+ * The set is safe to use from several threads at once. Mutations of different samples
+ * run concurrently, each holding the lock stripe of the names it touches, while opening,
+ * clearing and writing the set hold the set lock exclusively. Mapped data sets are never
+ * altered in place; a mutation maps an altered copy instead, so readers need no locks.
  * @author talon
  * 
  */
@@ -37,41 +55,84 @@ public final class WorkingSet {
 	
 	
 	//singleton instance data
-	private static String srcpath;
-	private static Map<Request,DataSet> workingSet;
-	private static Map<Puma,DataSet[]> pumaSet;
-	private static CalTable current;
+	private static volatile String srcpath;
+	private static volatile SetStore store;
+	private static volatile CalTable current;
+	//mapped keys by normalized request name, puma name, and puma suffix + date
+	private static final ConcurrentMap<String,Request> requestsByName = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String,Puma> pumasByName = new ConcurrentHashMap<>(), pumasByCollection = new ConcurrentHashMap<>();
+	//data sets by normalized name, missing until first read from the store
+	private static final ConcurrentMap<String,DataSet> workingSet = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String,DataSet[]> pumaSet = new ConcurrentHashMap<>();
+	//mappings changed since the store was last written, by normalized name
+	private static final Set<String> dirty = ConcurrentHashMap.newKeySet(), dirtyPumas = ConcurrentHashMap.newKeySet();
+	private static volatile boolean calibrationDirty;
+	//operations since the store was last written, and the store write they follow
+	private static volatile Journal journal;
+	private static long generation;
+	private static volatile boolean replaying;
+	//shared by mutations, exclusive while the whole set is opened, cleared or written
+	private static final ReentrantReadWriteLock SET_LOCK = new ReentrantReadWriteLock();
+	//serializes mutations of the same sample name
+	private static final ReentrantLock[] STRIPES = new ReentrantLock[64];
+	static {
+		for(int i = 0; i < STRIPES.length; i++)
+			STRIPES[i] = new ReentrantLock();
+	}
 	
 	
 	
 	/**
-	 * Singleton constructor method for the WorkingSet
+	 * Singleton constructor method for the WorkingSet.
+	 * Only the index of the store is read; data sets are loaded as they are used.
+	 * A working set file in the old line-by-line JSON format is migrated to the store.
 	 * @param file path to the working set file
 	 * @throws Exception
 	 */
 	public static final void open(String filepath) throws Exception {
-		srcpath = filepath;
-		File setFile = new File(filepath);
-		workingSet = new HashMap<>();
-		pumaSet = new HashMap<>();
-		if(!setFile.exists()) {
-			setFile.createNewFile();
-			Terminal.say("No exising "+Storage.WORKING_SET_NAME+". Created new.");
-		} else loadSetFile();
-			
+		SET_LOCK.writeLock().lock();
+		try {
+			srcpath = filepath;
+			File setFile = new File(filepath);
+			unmapAll();
+			dirty.clear();
+			dirtyPumas.clear();
+			calibrationDirty = false;
+			generation = 0;
+			if(!setFile.exists() || setFile.length() == 0) {
+				store = SetStore.open(setFile);
+				Terminal.say("No exising "+Storage.WORKING_SET_NAME+". Created new.");
+			} else if(SetStore.isStore(setFile)) {
+				store = SetStore.open(setFile);
+				loadIndex();
+			} else {
+				loadSetFile();
+				migrate(setFile);
+			}
+			recover();
+		} finally {
+			SET_LOCK.writeLock().unlock();
+		}
 	}
 	
 	
 
 	/**
 	 * Singleton destructor method for the WorkingSet.
-	 * Saves contents to file given during construction
+	 * Saves changed contents to file given during construction
 	 * @throws Exception
 	 */
 	public static final void close() throws Exception {
-		write();
-		clear();
-		current = null;
+		SET_LOCK.writeLock().lock();
+		try {
+			checkpoint();
+			journal.close();
+			store.close();
+			unmapAll();
+			current = null;
+		} finally {
+			SET_LOCK.writeLock().unlock();
+		}
 	}
 	
 	
@@ -93,8 +154,17 @@ public final class WorkingSet {
 	 * Also clears all puma stuff.
 	 */
 	public static final void clear() {
-		workingSet.clear();
-		pumaSet.clear();
+		SET_LOCK.writeLock().lock();
+		try {
+			log(Op.CLEAR);
+			unmapAll();
+			dirty.clear();
+			dirtyPumas.clear();
+			store.removeAll(SetStore.REQUEST);
+			store.removeAll(SetStore.PUMA);
+		} finally {
+			SET_LOCK.writeLock().unlock();
+		}
 	}
 	
 	
@@ -105,8 +175,20 @@ public final class WorkingSet {
 	 * @return true if successful
 	 */
 	public static final boolean remove(Request r) {
-		DataSet mapped = workingSet.remove(r);
-		return mapped != null;
+		return mutate(() -> {
+			log(Op.REMOVE, r.getName());
+			return forget(r);
+		}, r.getName());
+	}
+	
+	
+	
+	/* unmaps a request without journaling it */
+	private static final boolean forget(Request r) {
+		boolean mapped = unmapRequest(r);
+		dirty.remove(Request.normalizeName(r.getName()));
+		store.remove(SetStore.REQUEST, r.getName());
+		return mapped;
 	}
 	
 	
@@ -118,17 +200,20 @@ public final class WorkingSet {
 	 */
 	public static final boolean removePuma(String nameToRemove) {
 		//find the puma set associated with the given name
-		Puma toRemove = null;
-		for(Puma p : pumaSet.keySet())
-			if(p.getName().equalsIgnoreCase(nameToRemove)) {
-				toRemove = p;
-				break;
-			}
-		//remove the set from the map if one was found
-		if(toRemove != null) {
-			pumaSet.remove(toRemove);
-			return true;
-		} else return false;
+		Puma found = pumasByName.get(Request.normalizeName(nameToRemove));
+		if(found == null)
+			return false;
+		return mutate(() -> {
+			//remove the set from the map if it is still there
+			Puma toRemove = pumasByName.get(Request.normalizeName(nameToRemove));
+			if(toRemove != null) {
+				log(Op.REMOVE_PUMA, nameToRemove);
+				unmapPuma(toRemove);
+				dirtyPumas.remove(Request.normalizeName(toRemove.getName()));
+				store.remove(SetStore.PUMA, toRemove.getName());
+				return true;
+			} else return false;
+		}, collectionKey(found));
 	}
 	
 	
@@ -148,7 +233,16 @@ public final class WorkingSet {
 	 * @param new cal table to use
 	 */
 	public static final void updateCalibration(CalTable newer) {
-		current = newer;
+		if(newer == null) {
+			Terminal.warn("Couldn't update the calibration table: none was given");
+			return;
+		}
+		mutate(() -> {
+			log(Op.CALIBRATE, Storage.serialize(newer));
+			current = newer;
+			calibrationDirty = true;
+			return null;
+		}, CALIBRATION_NAME);
 	}
 	
 	
@@ -176,16 +270,30 @@ public final class WorkingSet {
 	/**
 	 * Merges the keys and values of the 2 mapped requests.
 	 * The new key to be used will be the parent.
+	 * Nothing happens if either request is missing or has no data mapped to it.
 	 * @param parent request
 	 * @param child request
 	 */
 	public static final void mergeRequests(Request parent, Request child) {
-		DataSet cSet, pSet, merged;
-		pSet = workingSet.get(parent);
-		cSet = workingSet.get(child);
-		merged = DataSet.merge(pSet, cSet);
-		workingSet.remove(child);
-		workingSet.put(parent, merged);
+		if(parent == null || child == null) {
+			Terminal.warn("Couldn't merge requests: "+(parent == null ? "parent" : "child")+" is missing");
+			return;
+		}
+		mutate(() -> {
+			DataSet cSet, pSet, merged;
+			pSet = dataOf(parent);
+			cSet = dataOf(child);
+			if(pSet == null || cSet == null) {
+				Terminal.warn("Couldn't merge "+child.getName()+" into "+parent.getName()+": "
+						+(pSet == null ? parent.getName() : child.getName())+" isn't in the working set");
+				return null;
+			}
+			log(Op.MERGE, parent.getName(), child.getName());
+			merged = DataSet.merge(pSet.copy(), cSet.copy());
+			forget(child);
+			mapRequest(parent, merged);
+			return null;
+		}, parent.getName(), child.getName());
 	}
 	
 	
@@ -216,7 +324,7 @@ public final class WorkingSet {
 				new Runnable() {		// runnable for affirmative
 					@Override public void run() {
 						Terminal.say("Proceeding to overwrite...");
-						workingSet.put(toAdd, workingSet.get(toAdd));
+						overwriteRequest(toAdd);
 					}
 				},
 				new Runnable() {		// runnable for negative
@@ -227,12 +335,38 @@ public final class WorkingSet {
 			);
 		else {
 			Terminal.say("Adding "+toAdd.getName()+" to the working set with an empty data set...");
-			workingSet.put(toAdd, new DataSet(toAdd.getName()));
+			putRequest(toAdd);
 		}
 	}
 	
 	
 	
+	/* maps a new request to an empty data set, unless another thread mapped the name first */
+	private static final void putRequest(Request toAdd) {
+		mutate(() -> {
+			if(contains(toAdd.getName()))
+				Terminal.say("\t"+toAdd.getName()+" was added to the working set meanwhile. Keeping it...");
+			else {
+				log(Op.ADD_REQUEST, Storage.serialize(toAdd));
+				mapRequest(toAdd, new DataSet(toAdd.getName()));
+			}
+			return null;
+		}, toAdd.getName());
+	}
+	
+	
+	
+	/* maps a request to the existing data of its name */
+	private static final void overwriteRequest(Request toAdd) {
+		mutate(() -> {
+			log(Op.OVERWRITE_REQUEST, Storage.serialize(toAdd));
+			mapRequest(toAdd, getDataSetOf(toAdd));
+			return null;
+		}, toAdd.getName());
+	}
+	
+	
+	
 	/**
 	 * Adds a Puma request set.
 	 * If an existing instance of the puma set is found, nothing happens,
@@ -240,13 +374,17 @@ public final class WorkingSet {
 	 * @param puma set to add
 	 */
 	public static final void addPuma(Puma toAdd) {
-		if(!containsPuma(toAdd.getName())) {
-			Terminal.say("Adding "+toAdd.getName()+" to the working set with an empty data set...");
-			DataSet[] emptySets = new DataSet[toAdd.getNames().length];
-			for(int i = 0; i < emptySets.length; i++)
-				emptySets[i] = new DataSet(toAdd.getNames()[i]);
-			pumaSet.put(toAdd, emptySets);
-		} else Terminal.say("Couldn't add PUMA set because it already exists: "+toAdd.getName());
+		mutate(() -> {
+			if(!containsPuma(toAdd.getName())) {
+				Terminal.say("Adding "+toAdd.getName()+" to the working set with an empty data set...");
+				DataSet[] emptySets = new DataSet[toAdd.getNames().length];
+				for(int i = 0; i < emptySets.length; i++)
+					emptySets[i] = new DataSet(toAdd.getNames()[i]);
+				log(Op.ADD_PUMA, Storage.serialize(toAdd));
+				mapPuma(toAdd, emptySets);
+			} else Terminal.say("Couldn't add PUMA set because it already exists: "+toAdd.getName());
+			return null;
+		}, collectionKey(toAdd));
 	}
 	
 	
@@ -271,19 +409,22 @@ public final class WorkingSet {
 	 * @return true if no exception occurred
 	 */
 	public static final boolean addData(DataSet toAdd, Request toAddTo) {
-		try {
-			DataSet parent = getDataSetOf(toAddTo);
-			if(parent == null)
-				Terminal.say("\t\t\t\t\tNo mapping for "+toAddTo.getName()+" in the working set. Adding now...");
-			else {
-				Terminal.say("\t\t\t\t\tAdding data to "+toAddTo.getName()+" in working set...");
-				toAdd = DataSet.merge(parent,toAdd);
+		return mutate(() -> {
+			log(Op.ADD_DATA, Storage.serialize(toAddTo), Storage.serialize(toAdd));
+			try {
+				DataSet parent = getDataSetOf(toAddTo), merged = toAdd;
+				if(parent == null)
+					Terminal.say("\t\t\t\t\tNo mapping for "+toAddTo.getName()+" in the working set. Adding now...");
+				else {
+					Terminal.say("\t\t\t\t\tAdding data to "+toAddTo.getName()+" in working set...");
+					merged = DataSet.merge(parent.copy(),toAdd);
+				}
+				mapRequest(toAddTo, merged);
+				return true;
+			} catch (NullPointerException e) {
+				return false;
 			}
-			workingSet.put(toAddTo, toAdd);
-			return true;
-		} catch (NullPointerException e) {
-			return false;
-		}
+		}, toAddTo.getName());
 	}
 	
 	
@@ -297,15 +438,18 @@ public final class WorkingSet {
 	public static final boolean addPumaData(DataSet toAdd) {
 		try {
 			Terminal.say("Attempting to add puma data for "+toAdd.getSample());
-			if(containsPuma(toAdd.getSample())) {
+			Puma found = fetchPuma(toAdd.getSample());
+			if(found != null) return mutate(() -> {
+				log(Op.ADD_PUMA_DATA, Storage.serialize(toAdd));
 				int index = Puma.inferDataSetIndex(toAdd.getSample());
 				Terminal.say("Adding puma data to index "+index);
 				Puma p = fetchPuma(toAdd.getSample());
-				DataSet[] ds = pumaSet.get(p);
-				ds[index] = DataSet.merge(ds[index],toAdd);
-				pumaSet.put(p,ds);
+				DataSet[] ds = dataOf(p).clone();
+				ds[index] = DataSet.merge(ds[index].copy(),toAdd);
+				mapPuma(p,ds);
 				return true;
-			} else Terminal.say("Couldn't add data set to puma element "+toAdd.getSample());
+			}, collectionKey(found));
+			else Terminal.say("Couldn't add data set to puma element "+toAdd.getSample());
 			return false;
 		} catch(Exception e) {
 			Terminal.say("Couldn't add data set to puma element due to exception"+toAdd.getSample());
@@ -327,6 +471,75 @@ public final class WorkingSet {
 	
 	
 	
+	/**
+	 * Files an intermediary result map into the working set.
+	 * Missing requests are autoparsed from their names, while missing puma sets are
+	 * created by the given inference function.
+	 * @param map of sample names to results (with puma GCs and LCs already merged)
+	 * @param inference of a new puma set from one of its element names (null leaves the element unfiled)
+	 * @return results which couldn't be filed
+	 * @see MainMenu.handleDataSheetSubmission
+	 */
+	public static final Map<String,Result[]> addResults(final Map<String,Result[]> resultMap, final Function<String,Puma> pumaInference) {
+		final Map<String,Result[]> unhandled = new HashMap<>(resultMap);
+    	for(String request : resultMap.keySet()) {
+    		Terminal.say("\tBeginning automatic handling of "+request+"...");
+    		if(Puma.isDataForPuma(request)) {
+    			Terminal.say("\t\tHandling as puma...");
+	    		Puma existingPuma = fetchPuma(request);
+	    		//add the puma set to the working set if it is new
+	    		if(existingPuma == null) {
+	    			Terminal.say("\t\t\tDoesn't exist! Adding now...");
+	    			existingPuma = pumaInference.apply(request);
+	    			if(existingPuma == null) {
+	    				Terminal.say("\t\t\tCouldn't infer a puma set for "+request);
+	    				continue;
+	    			}
+	    			addPuma(existingPuma);
+	    		} else Terminal.say("\t\t\tExists!");
+	    		boolean added = addPumaData(new DataSet(request,resultMap.get(request)));
+	    		if(added) {
+	    			Terminal.say("\t\t\t\tSuccessfully added puma data for "+request);
+	    			unhandled.remove(request);
+	    		} else Terminal.say("\t\t\t\tError adding puma data to "+existingPuma.getName()+" from set element "+request);
+    		} else {
+    			Terminal.say("\t\tHandling as plain request...");
+    			Request existing = fetchRequest(request);
+    			//add the request to the working set if it is new
+    			boolean abort = false;
+    			if(existing == null) {
+    				Terminal.say(request+" does not exist! Adding now...");
+    				existing = SampleFactory.parseBasicRequest(request);
+    				if(existing != null)
+    					addRequest(existing);
+    				else abort = true;
+    			} else Terminal.say("Exists!");
+    			if(!abort) {
+    				boolean added = addData(new DataSet(request,resultMap.get(request)), existing);
+    				if(added) {
+	    				Terminal.say("Successfully added data for "+request);
+	    				unhandled.remove(request);
+    				} else Terminal.say("Failed apping data for "+request);
+    			} else Terminal.say("Error adding data to "+request);
+    		}
+    	}
+    	return unhandled;
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
 	/**
 	 * Check if the name is matched by any existing request
 	 * @param request name
@@ -367,11 +580,7 @@ public final class WorkingSet {
 	 * @return request instance with matching name or null
 	 */
 	public static final Request fetchRequest(String requestName) {
-		for(Request r : workingSet.keySet())
-			if(r.getName().equalsIgnoreCase(requestName))
-				return r;
-			else continue;
-		return null;
+		return requestsByName.get(Request.normalizeName(requestName));
 	}
 	 
 	
@@ -383,37 +592,21 @@ public final class WorkingSet {
 	 */
 	public static final Puma fetchPuma(String pumaName) {
 		Terminal.say("\t\t\tTrying to find PUMA set for "+pumaName+" in the working set...");
-		String suffix;
-		LocalDate date;
-		if(Puma.nameIsFromPumaLC(pumaName)) try {
-				Terminal.say("\t\t\t\tThis puma is an LC sheet type");
-				String[] tokens = pumaName.split("_");
-				date =  SampleFactory.parseDate(tokens[2]);
-				suffix = tokens[1];
-				if(!suffix.startsWith("P"))
-					suffix = "P"+suffix;
-			} catch (Exception e) {
-				Terminal.say("\t\t\t\tError parsing LC Puma name.");
-				Terminal.specifyFullError(e);
-				return null;
-			}
-		else try {
-				Terminal.say("\t\t\t\tThis is probably a GC puma name...");
-				String missingId = pumaName.split("#")[0];
-				String[] tokens = missingId.split("_");
-				date = SampleFactory.parseDate(tokens[1]);
-				suffix = tokens[2];
-			} catch (Exception e) {
-				Terminal.say("\t\t\tError parsing GC Puma name.");
-				Terminal.specifyFullError(e);
-				return null;
-			}
-		for(Puma p : pumaSet.keySet())
-			if(p.getSuffix().equalsIgnoreCase(suffix)
-					&& SampleFactory.assembleDate(date).equalsIgnoreCase( SampleFactory.assembleDate(p.getDate()))) {
-				Terminal.say("\t\t\t"+pumaName+" belongs to existing "+p.getName()+"!");
-				return p;
-			} else continue;
+		final SampleName name = SampleName.of(pumaName);
+		if(name.isPumaLC())
+			Terminal.say("\t\t\t\tThis puma is an LC sheet type");
+		else Terminal.say("\t\t\t\tThis is probably a GC puma name...");
+		if(name.getSuffix() == null) {
+			Terminal.say("\t\t\t\tError parsing "+(name.isPumaLC() ? "LC" : "GC")+" Puma name; it has no date or suffix.");
+			return null;
+		}
+		final String suffix = name.getSuffix();
+		final LocalDate date = name.getDate();
+		Puma p = date == null ? null : pumasByCollection.get(collectionKey(suffix, date));
+		if(p != null) {
+			Terminal.say("\t\t\t"+pumaName+" belongs to existing "+p.getName()+"!");
+			return p;
+		}
 		Terminal.say("\t\t\tNo puma with the suffix "+suffix+" and date "+date+" was fetched!");
 		return null;
 	}
@@ -434,7 +627,7 @@ public final class WorkingSet {
 	 */
 	public static List<Request> getRequests() {
 		List<Request> list = new ArrayList<>();
-		list.addAll(workingSet.keySet());
+		list.addAll(requestsByName.values());
 		return list;
 	}
 	
@@ -446,7 +639,62 @@ public final class WorkingSet {
 	 */
 	public static List<Puma> getPumas() {
 		List<Puma> list = new ArrayList<>();
-		list.addAll(pumaSet.keySet());
+		list.addAll(pumasByName.values());
+		return list;
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	/**
+	 * Collects the requests whose data fulfills their requirements
+	 * @return reportable requests
+	 */
+	public static final List<Request> getReportableRequests() {
+		List<Request> list = new ArrayList<>();
+		for(Request r : requestsByName.values()) {
+			DataSet d = getDataSetOf(r);
+			if(d != null && r.checkRequestRequirements(d) > -1) {
+				Terminal.say("\t\t"+r.getName()+" is reportable");
+				list.add(r);
+			} else Terminal.say("\t\t"+r.getName()+" is not reportable");
+		}
+		return list;
+	}
+	
+	
+	
+	/**
+	 * Collects the puma sets whose every element fulfills its requirements
+	 * @return reportable puma sets
+	 * @throws Exception if the elements of a puma set can't be generated
+	 */
+	public static final List<Puma> getReportablePumas() throws Exception {
+		List<Puma> list = new ArrayList<>();
+		for(Puma p : pumasByName.values()) {
+			DataSet[] data = getDataSetsOf(p);
+			//removed by another thread since the iteration began
+			if(data == null)
+				continue;
+			int index = 0;
+			int minReq = 2;
+			for(Request r : p.generateRequests()) {
+				int req = r.checkRequestRequirements(data[index]);
+				if(req < minReq)
+					minReq = req;
+				index++;
+			}
+			if(minReq > -1)
+				list.add(p);
+			else
+				Terminal.say("\t\t"+p.getName()+" has at least one element which is not reportable");
+		}
 		return list;
 	}
 	
@@ -465,11 +713,8 @@ public final class WorkingSet {
 	 * @return data set mapping found
 	 */
 	public static final DataSet getDataSetOf(Request r) {
-		for(Request other : workingSet.keySet())
-			if(other.getName().equalsIgnoreCase(r.getName()))
-				return workingSet.get(other);
-			else continue;
-		return null;
+		Request key = fetchRequest(r.getName());
+		return key == null ? null : dataOf(key);
 	}
 	
 	
@@ -480,7 +725,176 @@ public final class WorkingSet {
 	 * @return ordered array of data sets found
 	 */
 	public static DataSet[] getDataSetsOf(Puma p) {
-		return pumaSet.get(p);
+		return dataOf(p);
+	}
+	
+	
+	
+	/**
+	 * Reads the data set of a request key from the store if it hasn't been yet
+	 * @param request key of the working set map
+	 * @return data set or null if the request isn't mapped
+	 */
+	private static final DataSet dataOf(Request key) {
+		String name = Request.normalizeName(key.getName());
+		DataSet d = workingSet.get(name);
+		if(d != null || !requestsByName.containsKey(name))
+			return d;
+		SET_LOCK.readLock().lock();
+		try {
+			return workingSet.computeIfAbsent(name, n -> {
+				try {
+					return Storage.deserialize(store.read(SetStore.REQUEST, key.getName()), new DataSet(key.getName(),new Result[] {}));
+				} catch (Exception e) {
+					throw new IllegalStateException("Couldn't load data set of "+key.getName()+" from "+srcpath, e);
+				}
+			});
+		} finally {
+			SET_LOCK.readLock().unlock();
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads the data sets of a puma key from the store if they haven't been yet
+	 * @param puma key of the puma map
+	 * @return data sets or null if the puma set isn't mapped
+	 */
+	private static final DataSet[] dataOf(Puma key) {
+		String name = Request.normalizeName(key.getName());
+		DataSet[] d = pumaSet.get(name);
+		if(d != null || !pumasByName.containsKey(name))
+			return d;
+		SET_LOCK.readLock().lock();
+		try {
+			return pumaSet.computeIfAbsent(name, n -> {
+				try {
+					return Storage.deserialize(store.read(SetStore.PUMA, key.getName()), new DataSet[0]);
+				} catch (Exception e) {
+					throw new IllegalStateException("Couldn't load data sets of "+key.getName()+" from "+srcpath, e);
+				}
+			});
+		} finally {
+			SET_LOCK.readLock().unlock();
+		}
+	}
+	
+	
+	
+	/**
+	 * Applies a mutation while holding the set lock shared and the stripes of the given names,
+	 * so mutations of different samples run at once while those of the same sample are serialized.
+	 * A journal which grew past its limit is checkpointed once the locks are released.
+	 * @param mutation to apply
+	 * @param names the mutation reads or alters
+	 * @return result of the mutation
+	 */
+	private static final <T> T mutate(Supplier<T> mutation, String... names) {
+		int[] stripes = new int[names.length];
+		for(int i = 0; i < names.length; i++)
+			stripes[i] = (Request.normalizeName(names[i]).hashCode() & Integer.MAX_VALUE) % STRIPES.length;
+		//stripes are always taken in the same order so two mutations can't wait on each other
+		Arrays.sort(stripes);
+		T result;
+		SET_LOCK.readLock().lock();
+		try {
+			for(int stripe : stripes)
+				STRIPES[stripe].lock();
+			try {
+				result = mutation.get();
+			} finally {
+				for(int stripe : stripes)
+					STRIPES[stripe].unlock();
+			}
+		} finally {
+			SET_LOCK.readLock().unlock();
+		}
+		checkpointIfFull();
+		return result;
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	/**
+	 * Maps a request and its data, replacing any request of the same name, and marks it changed.
+	 * Every request mapping goes through here so the name index stays in step.
+	 * @param request key
+	 * @param data set (null if it is still in the store)
+	 */
+	private static final void mapRequest(Request key, DataSet d) {
+		String name = Request.normalizeName(key.getName());
+		//the data goes in before the key, so a reader who finds the key finds its data
+		if(d != null) {
+			workingSet.put(name, d);
+			dirty.add(name);
+		} else workingSet.remove(name);
+		requestsByName.put(name, key);
+	}
+	
+	
+	
+	/* removes a request mapping and its data */
+	private static final boolean unmapRequest(Request r) {
+		String name = Request.normalizeName(r.getName());
+		boolean mapped = requestsByName.remove(name) != null;
+		workingSet.remove(name);
+		return mapped;
+	}
+	
+	
+	
+	/**
+	 * Maps a puma set and its data, indexing it by name and by suffix + date
+	 * @param puma key
+	 * @param data sets (null if they are still in the store)
+	 */
+	private static final void mapPuma(Puma key, DataSet[] d) {
+		String name = Request.normalizeName(key.getName());
+		if(d != null) {
+			pumaSet.put(name, d);
+			dirtyPumas.add(name);
+		} else pumaSet.remove(name);
+		pumasByName.put(name, key);
+		pumasByCollection.put(collectionKey(key), key);
+	}
+	
+	
+	
+	/* removes a puma mapping, its index entries and its data */
+	private static final void unmapPuma(Puma p) {
+		pumasByCollection.remove(collectionKey(p));
+		pumasByName.remove(Request.normalizeName(p.getName()));
+		pumaSet.remove(Request.normalizeName(p.getName()));
+	}
+	
+	
+	
+	/* removes every mapping and index entry */
+	private static final void unmapAll() {
+		workingSet.clear();
+		pumaSet.clear();
+		requestsByName.clear();
+		pumasByName.clear();
+		pumasByCollection.clear();
+	}
+	
+	
+	
+	/* index key of a puma set, which is unique by its suffix and date */
+	private static final String collectionKey(String suffix, LocalDate date) {
+		return Request.normalizeName(suffix)+"_"+SampleFactory.assembleDate(date);
+	}
+	
+	private static final String collectionKey(Puma p) {
+		return collectionKey(p.getSuffix(), p.getDate());
 	}
 	
 	
@@ -500,8 +914,13 @@ public final class WorkingSet {
 	 * @param older request
 	 */
 	public static final void swapRequest(Request newer, Request older) {
-		DataSet data = workingSet.remove(older);
-		workingSet.put(newer, data);
+		mutate(() -> {
+			log(Op.SWAP, Storage.serialize(newer), older.getName());
+			DataSet data = dataOf(older);
+			forget(older);
+			mapRequest(newer, data);
+			return null;
+		}, newer.getName(), older.getName());
 	}
 	
 	
@@ -512,8 +931,190 @@ public final class WorkingSet {
 	 * @param nd packet
 	 */
 	public static void insertFthcPacket(Request r, DataPacket nd) {
-		DataSet d = getDataSetOf(r);
-		d.insertFthcPacket(LC_BY_RT.THC_d9.getSheetName(),nd);
+		mutate(() -> {
+			log(Op.INSERT_FTHC, r.getName(), Storage.serialize(nd));
+			Request key = fetchRequest(r.getName());
+			DataSet d = dataOf(key).copy();
+			d.insertFthcPacket(LC_BY_RT.THC_d9.getSheetName(),nd);
+			mapRequest(key, d);
+			return null;
+		}, r.getName());
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	
+	/**
+	 * Journaled mutations of the working set.
+	 * Each is appended to the journal once its inputs are checked, before it is applied, and is replayed by the same
+	 * functions if the application stops before the next checkpoint.
+	 */
+	private static enum Op {
+		ADD_REQUEST, OVERWRITE_REQUEST, ADD_PUMA, ADD_DATA, ADD_PUMA_DATA, MERGE, SWAP,
+		INSERT_FTHC, REMOVE, REMOVE_PUMA, CLEAR, CALIBRATE;
+	}
+	
+	//journal size which triggers a checkpoint
+	private static final long CHECKPOINT_BYTES = 4 << 20;
+	private static final String
+	JOURNAL_SUFFIX = ".journal",
+	GENERATION_NAME = "generation";
+	
+	
+	
+	/**
+	 * Appends a mutation to the journal
+	 * @param operation
+	 * @param serialized arguments
+	 */
+	private static final void log(Op op, String... args) {
+		if(replaying)
+			return;
+		try {
+			journal.append(op.name(), args);
+		} catch (Exception e) {
+			throw new IllegalStateException("Couldn't journal "+op+" for "+srcpath, e);
+		}
+	}
+	
+	
+	
+	/**
+	 * Folds the journal into the store if it has grown large.
+	 * Does nothing while the calling thread holds the set lock, since it can't be taken exclusively then.
+	 */
+	private static final void checkpointIfFull() {
+		if(replaying || SET_LOCK.getReadHoldCount() > 0 || SET_LOCK.isWriteLockedByCurrentThread()
+				|| journal.size() <= CHECKPOINT_BYTES)
+			return;
+		SET_LOCK.writeLock().lock();
+		try {
+			if(journal.size() > CHECKPOINT_BYTES)
+				checkpoint();
+		} catch (Exception e) {
+			throw new IllegalStateException("Couldn't checkpoint the journal of "+srcpath, e);
+		} finally {
+			SET_LOCK.writeLock().unlock();
+		}
+	}
+	
+	
+	
+	/**
+	 * Writes every change into the store, then empties the journal
+	 * @throws Exception if the store or journal couldn't be written
+	 */
+	private static final void checkpoint() throws Exception {
+		write();
+		journal.reset(generation);
+	}
+	
+	
+	
+	/**
+	 * Opens the journal and replays whatever was appended after the last checkpoint.
+	 * A journal from another generation was either already checkpointed or belongs to
+	 * a different store, so it is discarded.
+	 * @throws Exception if the journal or store couldn't be read
+	 */
+	private static final void recover() throws Exception {
+		journal = Journal.open(new File(srcpath+JOURNAL_SUFFIX));
+		String stored = store.read(SetStore.META, GENERATION_NAME);
+		generation = stored == null ? 0 : Long.parseLong(stored);
+		if(journal.getGeneration() != generation) {
+			Terminal.say("\t\tDiscarding journal of generation "+journal.getGeneration()+" (store is at "+generation+")");
+			journal.reset(generation);
+		} else if(!journal.isEmpty()) {
+			Terminal.say("\t\tReplaying journal of "+srcpath+"...");
+			replaying = true;
+			int count;
+			try {
+				count = journal.replay(WorkingSet::replay);
+			} finally {
+				replaying = false;
+			}
+			Terminal.say("\t\tReplayed "+count+" operations!");
+			checkpoint();
+		}
+	}
+	
+	
+	
+	/**
+	 * Reapplies one journaled mutation.
+	 * An operation which can't be reapplied is skipped, so one bad entry can't keep the working set from opening.
+	 * @param operation name
+	 * @param serialized arguments
+	 */
+	private static final void replay(String op, String[] args) {
+		try {
+			reapply(op, args);
+		} catch (Exception e) {
+			Terminal.warn("\t\tSkipping journaled "+op+" which couldn't be reapplied: "+e);
+			Terminal.specifyFullError(e);
+		}
+	}
+	
+	
+	
+	/**
+	 * Reapplies one journaled mutation by the function which made it
+	 * @param operation name
+	 * @param serialized arguments
+	 * @throws Exception if the operation is unknown or its arguments couldn't be deserialized
+	 */
+	private static final void reapply(String op, String[] args) throws Exception {
+		Request exampleRequest = new Request("example_20220803_test#3",false,false,false,new String[] {"Not a Cannabinoid"});
+		switch(Op.valueOf(op)) {
+		case ADD_REQUEST:		putRequest(Storage.deserialize(args[0], exampleRequest));						break;
+		case OVERWRITE_REQUEST:	overwriteRequest(Storage.deserialize(args[0], exampleRequest));					break;
+		case ADD_PUMA:			addPuma(Storage.deserialize(args[0], new Puma(Puma.Type.ONE3,LocalDate.now(),new Batch(0.0))));	break;
+		case ADD_PUMA_DATA:		addPumaData(Storage.deserialize(args[0], new DataSet("",new Result[] {})));	break;
+		case MERGE: {
+			Request parent = fetchRequest(args[0]), child = fetchRequest(args[1]);
+			if(parent != null && child != null)
+				mergeRequests(parent, child);
+			break;
+		}
+		case REMOVE_PUMA:		removePuma(args[0]);															break;
+		case CLEAR:				clear();																		break;
+		case CALIBRATE:			updateCalibration(Storage.deserialize(args[0], new CalTable(new HashMap<String,Range>(), LocalDate.now())));	break;
+		case ADD_DATA: {
+			Request key = fetchRequest(Storage.deserialize(args[0], exampleRequest).getName());
+			addData(Storage.deserialize(args[1], new DataSet("",new Result[] {})),
+					key != null ? key : Storage.deserialize(args[0], exampleRequest));
+			break;
+		}
+		case SWAP: {
+			Request older = fetchRequest(args[1]);
+			if(older != null)
+				swapRequest(Storage.deserialize(args[0], exampleRequest), older);
+			break;
+		}
+		case INSERT_FTHC: {
+			Request r = fetchRequest(args[0]);
+			if(r != null)
+				insertFthcPacket(r, Storage.deserialize(args[1], DataPacket.generateFTHCNondetect("")));
+			break;
+		}
+		case REMOVE: {
+			Request r = fetchRequest(args[0]);
+			if(r != null)
+				remove(r);
+			break;
+		}
+		}
 	}
 	
 	
@@ -530,11 +1131,60 @@ public final class WorkingSet {
 	
 	
 	
-	//delimits the request and the data in the working set .dat file
+	//store entry name of the calibration table
+	private static final String CALIBRATION_NAME = "calibration";
+	//suffix of the copy kept when an old working set file is migrated
+	private static final String LEGACY_BACKUP = ".json.bak";
+
+	/**
+	 * Loads the calibration and the request and puma keys from the store index
+	 * @throws Exception if the store couldn't be read
+	 */
+	private static final void loadIndex() throws Exception {
+		Terminal.say("\t\tLoading WorkingSet index from "+srcpath+"...");
+		String cal = store.read(SetStore.CALIBRATION, CALIBRATION_NAME);
+		if(cal != null)
+			current = Storage.deserialize(cal, new CalTable(new HashMap<String,Range>() , LocalDate.now()));
+		Request exampleRequest = new Request("example_20220803_test#3",false,false,false,new String[] {"Not a Cannabinoid"});
+		for(SetStore.Entry e : store.getEntries(SetStore.REQUEST))
+			mapRequest(Storage.deserialize(e.key, exampleRequest), null);
+		Puma examplePuma = new Puma(Puma.Type.ONE3,LocalDate.now(),new Batch(0.0));
+		for(SetStore.Entry e : store.getEntries(SetStore.PUMA))
+			mapPuma(Storage.deserialize(e.key, examplePuma), null);
+		Terminal.say("\tIndexed "+requestsByName.size()+" requests and "+pumasByName.size()+" puma sets from "+srcpath+"!");
+	}
+	
+	
+	
+	/**
+	 * Rewrites a working set file of the old JSON format as a store.
+	 * The old file is kept alongside it as a backup.
+	 * @param old working set file, already loaded
+	 * @throws Exception if the store couldn't be written
+	 */
+	private static final void migrate(File legacy) throws Exception {
+		Terminal.say("\t\tMigrating "+srcpath+" to the indexed store format...");
+		Files.copy(legacy.toPath(), Paths.get(srcpath+LEGACY_BACKUP), StandardCopyOption.REPLACE_EXISTING);
+		File tmp = new File(srcpath+".tmp");
+		Files.deleteIfExists(tmp.toPath());
+		store = SetStore.open(tmp);
+		calibrationDirty = true;
+		dirty.addAll(requestsByName.keySet());
+		dirtyPumas.addAll(pumasByName.keySet());
+		write();
+		store.close();
+		Files.move(tmp.toPath(), legacy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		store = SetStore.open(legacy);
+		Terminal.say("\t\tMigrated! The old file was kept as "+srcpath+LEGACY_BACKUP);
+	}
+	
+	
+	
+	//delimits the request and the data in the old working set .dat file
 	private static final String DELIMITER = "@DATA_DELIMITER";
 
 	/**
-	 * Loads singleton data from the persistent data file
+	 * Loads singleton data from a persistent data file of the old JSON format
 	 * @throws Exception if the file couldn't be read
 	 */
 	private static final void loadSetFile() throws Exception {
@@ -552,7 +1202,7 @@ public final class WorkingSet {
 				DataSet[] example = new DataSet[key.getNames().length];
 				Arrays.fill(example, new DataSet(key.getName(),new Result[] {}));
 				DataSet[] val = Storage.deserialize(tokens[1], example);
-				pumaSet.put(key, val);
+				mapPuma(key, val);
 			//the first line should be the canna cal table
 			} else if (first) {
 				Terminal.say("\n\t\tDeserializing calibration...");
@@ -565,7 +1215,7 @@ public final class WorkingSet {
 				Terminal.say("\t\tDeserialized data set: "+ tokens[1]);
 				Request key = Storage.deserialize(tokens[0], new Request("example_20220803_test#3",false,false,false,new String[] {"Not a Cannabinoid"}));
 				DataSet val = Storage.deserialize(tokens[1], new DataSet(key.getName(),new Result[] {}));
-				workingSet.put(key, val);
+				mapRequest(key, val);
 			//this is basically a carbon copy of the first case in this if block, it
 			//just triggers the loop to start parsing PUMAs from here on out as well. Probably just shouldn't use a foreach, but too late.
 			} catch (JsonSyntaxException e) {
@@ -577,7 +1227,7 @@ public final class WorkingSet {
 				DataSet[] example = new DataSet[key.getNames().length];
 				Arrays.fill(example, new DataSet(key.getName(),new Result[] {}));
 				DataSet[] val = Storage.deserialize(tokens[1], example);
-				pumaSet.put(key, val);
+				mapPuma(key, val);
 			//logs any unexpected parse errors
 			} catch (Exception e) {
 				Terminal.say("\n\t\tError in working set persistent file in line: "+line);
@@ -589,19 +1239,28 @@ public final class WorkingSet {
 	
 	
 	/**
-	 * Writes class data to persistent file
+	 * Appends the changed mappings to the store, then commits it
 	 * @throws Exception if the file couldn't be written
 	 */
 	private static final void write() throws Exception {
-		Terminal.say("\tWriting WorkingSet contents to the filesystem...");
-		ArrayList<String> lines = new ArrayList<>(workingSet.size()+1);
-		lines.add(Storage.serialize(current));
-		for(Request r : workingSet.keySet())
-			lines.add(Storage.serialize(r)+DELIMITER+Storage.serialize(workingSet.get(r)));
-		for(Puma p : pumaSet.keySet())
-			lines.add(Storage.serialize(p)+DELIMITER+Storage.serialize(pumaSet.get(p)));
-		Storage.writeLines(lines.toArray(new String[]{}), srcpath);
-		Terminal.say("\tSuccessfully wrote working set contents!");
+		Terminal.say("\tWriting changed WorkingSet contents to the filesystem...");
+		generation++;
+		store.put(SetStore.META, GENERATION_NAME, "", Long.toString(generation));
+		if(calibrationDirty && current != null)
+			store.put(SetStore.CALIBRATION, CALIBRATION_NAME, "", Storage.serialize(current));
+		for(String name : dirty) {
+			Request r = requestsByName.get(name);
+			store.put(SetStore.REQUEST, r.getName(), Storage.serialize(r), Storage.serialize(workingSet.get(name)));
+		}
+		for(String name : dirtyPumas) {
+			Puma p = pumasByName.get(name);
+			store.put(SetStore.PUMA, p.getName(), Storage.serialize(p), Storage.serialize(pumaSet.get(name)));
+		}
+		store.commit();
+		Terminal.say("\tSuccessfully wrote "+(dirty.size()+dirtyPumas.size())+" changed working set elements!");
+		dirty.clear();
+		dirtyPumas.clear();
+		calibrationDirty = false;
 	}
 
 
@@ -2,7 +2,11 @@ package en.talond.simGUI.data;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -48,6 +52,8 @@ public class CalTable {
 	
 	private final Map<String,Range> compoundRanges;
 	private final LocalDate parsed;
+	//case-insensitive lookup of the ranges; never serialized, so rebuilt after deserialization
+	private transient Index index;
 	
 	
 	
@@ -59,6 +65,7 @@ public class CalTable {
 	public CalTable(final File src) throws IOException {
 		compoundRanges = parseRanges(src);
 		parsed = LocalDate.now();
+		index = new Index(compoundRanges);
 	}
 	
 	
@@ -71,6 +78,7 @@ public class CalTable {
 	public CalTable(final Map<String,Range> ranges, final LocalDate generated) {
 		this.compoundRanges = ranges;
 		this.parsed = generated;
+		index = new Index(compoundRanges);
 	}
 	
 	
@@ -124,10 +132,11 @@ public class CalTable {
 	 * @param compound to check calibration of
 	 * @return calibration max or default
 	 */
-	public final Float getHigh(final String compound) { 
-		for(String calibrated : compoundRanges.keySet())
-			if(compound.equalsIgnoreCase(calibrated))
-				return compoundRanges.get(calibrated).getHigh();
+	public final float getHigh(final String compound) { 
+		final Index i = index();
+		final int slot = i.slotOf(compound);
+		if(slot > -1)
+			return i.highs[slot];
 		Terminal.say("\t\t\tSomething attempted to retrieve an uncalibrated compound: "+compound+", so it got "+DEFAULT_MAX);
 		return DEFAULT_MAX;
 	}
@@ -142,10 +151,11 @@ public class CalTable {
 	 * @param compound to check calibration of
 	 * @return calibration min or default
 	 */
-	public final Float getLow (final String compound) {
-		for(String calibrated : compoundRanges.keySet())
-			if(compound.equalsIgnoreCase(calibrated))
-				return compoundRanges.get(calibrated).getLow();
+	public final float getLow (final String compound) {
+		final Index i = index();
+		final int slot = i.slotOf(compound);
+		if(slot > -1)
+			return i.lows[slot];
 		Terminal.say("\t\t\tSomething attempted to retrieve an uncalibrated compound: "+compound+", so it got "+DEFAULT_MIN);
 		return DEFAULT_MIN;
 	}
@@ -157,8 +167,19 @@ public class CalTable {
 	 * @param compound name
 	 * @return cal midpoint
 	 */
-	public final Float getMidpoint(final String compound) {
-		return getHigh(compound) - getLow(compound) / 2 + getLow(compound);
+	public final float getMidpoint(final String compound) {
+		final float low = getLow(compound);
+		return (getHigh(compound) - low) / 2 + low;
+	}
+	
+	
+	
+	/* index of the table, built here if the table was deserialized */
+	private final Index index() {
+		Index i = index;
+		if(i == null)
+			index = i = new Index(compoundRanges);
+		return i;
 	}
 
 	
@@ -176,11 +197,10 @@ public class CalTable {
 	 * @return stringified object
 	 */
 	public final String stringify() {
-		String stringified = "";
-		final String[] compounds = compoundRanges.keySet().toArray(new String[0]);
-		for(final String compound : compounds)
-			stringified += compound+" "+compoundRanges.get(compound).stringify()+"\n\t";
-		return stringified;
+		final StringBuilder stringified = new StringBuilder();
+		for(final Map.Entry<String,Range> compound : compoundRanges.entrySet())
+			stringified.append(compound.getKey()).append(' ').append(compound.getValue().stringify()).append("\n\t");
+		return stringified.toString();
 	}
 
 
@@ -216,6 +236,62 @@ public class CalTable {
 		private final Float getHigh() { return high; }
 		private final String stringify() { return "Min Area: "+getLow()+" | Max Area: "+getHigh(); }
 	}
+	
+	
+	
+	/**
+	 * Immutable open-addressed table of the calibrated compounds, with their bounds as primitives.
+	 * Hashes and compares names ignoring case without building a case-folded copy,
+	 * so a lookup neither scans the table nor allocates.
+	 * @author talon
+	 *
+	 */
+	private static final class Index {
+		private final String[] compounds;
+		private final float[] lows, highs;
+		private final int mask;
+		/**
+		 * Builds the table at under half load
+		 * @param ranges to index
+		 */
+		private Index(final Map<String,Range> ranges) {
+			int size = 2;
+			while(size < ranges.size() * 2)
+				size <<= 1;
+			compounds = new String[size];
+			lows = new float[size];
+			highs = new float[size];
+			mask = size - 1;
+			for(final Map.Entry<String,Range> e : ranges.entrySet()) {
+				int slot = foldedHash(e.getKey()) & mask;
+				while(compounds[slot] != null)
+					slot = (slot + 1) & mask;
+				compounds[slot] = e.getKey();
+				lows[slot] = e.getValue().getLow();
+				highs[slot] = e.getValue().getHigh();
+			}
+		}
+		/**
+		 * @param compound name (any case)
+		 * @return slot of the compound or -1 if it isn't calibrated
+		 */
+		private final int slotOf(final String compound) {
+			int slot = foldedHash(compound) & mask;
+			while(compounds[slot] != null) {
+				if(compounds[slot].equalsIgnoreCase(compound))
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+		/* hash which agrees with equalsIgnoreCase */
+		private static final int foldedHash(final String s) {
+			int h = 0;
+			for(int i = 0; i < s.length(); i++)
+				h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+			return h ^ (h >>> 16);
+		}
+	}
 
 
 
@@ -231,7 +307,7 @@ public class CalTable {
 	
 	
 
-	private static final Float  NIL_AREA = Float.valueOf("0");
+	private static final float  NIL_AREA = 0f;
 	private static final String NIL_COMP = "INVALID COMPONENT";
 	private static final int 
 	START_COMP_ROW_SIZE = 12, CONTINUED_COMP_ROW_SIZE = 9,
@@ -244,67 +320,177 @@ public class CalTable {
 	 * Parses a canna CalTable csv file. It will map each compound name
 	 * contained in the table to a max and min float value. Used by the novel file
 	 * constructor.
+	 * 
+	 * The file is read as UTF-16 straight out of its (possibly memory-mapped) bytes and
+	 * split along tabs in place, one line at a time, so no line or field is copied into a string
+	 * except the compound names. Each compound's range is put in the map once its last row is passed.
 	 * @param src file to parse
 	 * @return mapping of compounds to ranges
 	 * @throws IOException if the file cannot be read from
 	 */
 	private static final Map<String,Range> parseRanges(final File src) throws IOException {
 		final Map<String,Range> ranges = new HashMap<>();		//declare map of compounds to ranges
-		final String[] lines = Storage.loadUTF16File(src);		//collect lines of the file (with UTF-16 encoding)
-		//Split each line's contents along indentation characters and fill the token array
-		final String[][] tokens = new String[lines.length][];
-		for(int i = 0 ; i < lines.length; i++)
-			tokens[i] = lines[i].split("[\t]");
+		final Fields line = new Fields(utf16(Storage.loadBytes(src)));	//the characters of the file, one line at a time
 		//initialize compound trackers with null values
 		String currentCompound = NIL_COMP;
-		Float currentMax = NIL_AREA, currentMin = NIL_AREA;
-		//Iterate through each tokenized line of the original file and assign values to the map
-		for(int i = 0; i < tokens.length; i++) {
-			final String[] line = tokens[i];	//collect the next line to be parsed
-			//if this ^ is a new line, reassign the compound trackers
-			if(line.length == START_COMP_ROW_SIZE) {
-				currentCompound = unwrap(line[COMPOUND_COLUMN]);
-				currentMax = currentMin = Float.parseFloat(line[AREA_COLUMN]);
+		float currentMax = NIL_AREA, currentMin = NIL_AREA;
+		boolean first = true;
+		//Iterate through each line of the original file and assign values to the map
+		while(line.next()) {
+			//if this is a new compound row, put the previous compound's ranges in the map and reassign the compound trackers
+			if(line.count() == START_COMP_ROW_SIZE) {
+				if(!first)
+					ranges.put(currentCompound, new Range(currentMin,currentMax));
+				currentCompound = line.unwrap(COMPOUND_COLUMN);
+				currentMax = currentMin = line.parseFloat(AREA_COLUMN);
 			//Or if this line is a continuation of the tracked compound, evaluate the contents of this line and reassign as needed
-			} else if (line.length == CONTINUED_COMP_ROW_SIZE) {	
-				final Float area = Float.parseFloat(line[AREA_COLUMN]);
+			} else if (line.count() == CONTINUED_COMP_ROW_SIZE) {
+				final float area = line.parseFloat(AREA_COLUMN);
 				if(area < currentMin)
 					currentMin = area;
 				if(area > currentMax)
 					currentMax = area;
 			//Otherwise, assume invalid input was given 
 			} else throw new IOException("INVALID CAL TABLE FORMAT, NULL MAP GIVEN");
-			//If this is the last line of the table, put the current ranges in the map
-			if(i == tokens.length-1) {
-				ranges.put(currentCompound, new Range(currentMin,currentMax));
-				currentCompound = NIL_COMP;
-				currentMin = currentMax = NIL_AREA;
-			//Or try to look at the next row. If it is a new compound row, add the current values to the map and reassign trackers
-			} else try {
-				if(tokens[i+1].length == START_COMP_ROW_SIZE) {
-					ranges.put(currentCompound, new Range(currentMin,currentMax));
-					currentCompound = NIL_COMP;
-					currentMin = currentMax = NIL_AREA;
-				}
-			//I'll be honest, I do not remember what this does, but I'm too scared to delete it. It looks important
-			} catch (final ArrayIndexOutOfBoundsException e) {
-				continue;
-			}
+			first = false;
 		}
+		//the last compound of the table ends with the file
+		if(!first)
+			ranges.put(currentCompound, new Range(currentMin,currentMax));
 		return ranges;
 	}
 
-	
-	
+
+
 	/**
-	 * factory method used to extract compound names from a raw csv.
-	 * @param raw component name
-	 * @return formatted compound name
+	 * Views the bytes of a UTF-16 file as characters without decoding them into a copy.
+	 * Like the "UTF-16" charset, the byte order mark is skipped and big endian is assumed without one.
+	 * @param bytes of the file
+	 * @return characters of the file
 	 */
-	private static final String unwrap(final String component) { 
-		return component.replace("\"", ""); 
+	private static final CharBuffer utf16(final ByteBuffer bytes) {
+		ByteOrder order = ByteOrder.BIG_ENDIAN;
+		if(bytes.remaining() >= 2) {
+			final int mark = bytes.getShort(0) & 0xFFFF;
+			if(mark == 0xFEFF || mark == 0xFFFE) {
+				order = mark == 0xFFFE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+				bytes.position(2);
+			}
+		}
+		return bytes.slice().order(order).asCharBuffer();
+	}
+
+
+
+	/**
+	 * Walks the lines of a tab-delimited text and finds the fields of each in place.
+	 * Lines end at \r, \n or \r\n. Fields are counted the way String.split counts them,
+	 * so trailing empty fields aren't counted.
+	 * @author talon
+	 *
+	 */
+	private static final class Fields {
+		private final CharBuffer text;
+		private final StringBuilder name = new StringBuilder();
+		//start of the next line, and the bounds of the current one
+		private int next = 0, start, end;
+		//positions of the tabs of the current line
+		private int[] tabs = new int[16];
+		private int tabCount, count;
+
+		private Fields(final CharBuffer text) {
+			this.text = text;
+		}
+
+		/**
+		 * Moves on to the next line
+		 * @return false once there are no more lines
+		 */
+		private final boolean next() {
+			final int limit = text.limit();
+			if(next >= limit)
+				return false;
+			start = next;
+			tabCount = 0;
+			int pos = start;
+			for(char c; pos < limit && (c = text.get(pos)) != '\n' && c != '\r'; pos++)
+				if(c == '\t') {
+					if(tabCount == tabs.length)
+						tabs = Arrays.copyOf(tabs, tabCount*2);
+					tabs[tabCount++] = pos;
+				}
+			end = pos;
+			next = pos < limit && text.get(pos) == '\r' && pos+1 < limit && text.get(pos+1) == '\n' ? pos+2 : pos+1;
+			//a line without tabs is one field, even when it's empty
+			count = tabCount+1;
+			if(tabCount > 0)
+				while(count > 0 && from(count-1) == to(count-1))
+					count--;
+			return true;
+		}
+
+		/* number of fields of the line */
+		private final int count() { return count; }
+
+		/* bounds of a field of the line */
+		private final int from(final int field) { return field == 0 ? start : tabs[field-1]+1; }
+		private final int to(final int field)   { return field == tabCount ? end : tabs[field]; }
+
+		/**
+		 * Reads a field as a compound name
+		 * @param field index
+		 * @return contents of the field without quotes
+		 */
+		private final String unwrap(final int field) {
+			name.setLength(0);
+			for(int pos = from(field); pos < to(field); pos++)
+				if(text.get(pos) != '"')
+					name.append(text.get(pos));
+			return Symbols.of(name.toString());
+		}
+
+		/**
+		 * Reads a field as a number, exactly as Float.parseFloat would.
+		 * Plain decimals of up to seven significant digits (which every area Agilent writes is) are
+		 * read in place: the digits and a power of ten are both exact floats, so their quotient is
+		 * rounded just once, like Float.parseFloat rounds. Anything else is handed to Float.parseFloat.
+		 * @param field index
+		 * @return value of the field
+		 * @throws NumberFormatException if the field isn't a number
+		 */
+		private final float parseFloat(final int field) {
+			final int from = from(field), to = to(field);
+			int pos = from;
+			final boolean negative = pos < to && text.get(pos) == '-';
+			if(pos < to && (negative || text.get(pos) == '+'))
+				pos++;
+			int mantissa = 0, digits = 0, significant = 0, scale = 0;
+			boolean point = false;
+			for(; pos < to; pos++) {
+				final char c = text.get(pos);
+				if(c >= '0' && c <= '9') {
+					digits++;
+					if(mantissa > 0 || c != '0')
+						significant++;
+					mantissa = mantissa * 10 + (c - '0');
+					if(point)
+						scale++;
+				} else if(c == '.' && !point)
+					point = true;
+				else break;
+			}
+			if(pos < to || digits == 0 || significant > MAX_PLAIN_DIGITS || scale >= POWERS_OF_TEN.length)
+				return Float.parseFloat(text.subSequence(from, to).toString());
+			final float value = mantissa / POWERS_OF_TEN[scale];
+			return negative ? -value : value;
+		}
 	}
 
+	//every integer of up to seven digits is below 2^24, so is an exact float
+	private static final int MAX_PLAIN_DIGITS = 7;
+	//powers of ten which are exact floats
+	private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
 
 
 }
@@ -2,6 +2,7 @@ package en.talond.simGUI.data;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 
 import en.talond.simGUI.Terminal;
 
@@ -100,6 +101,8 @@ public class DataPacket {
 	public final String getDescription()		{ if(description != null) return description; else return df+"x"; }
 	public final Double getMassPercentFromPPM() { return result / SOLVENT_DENSITY; }
 	public String getResultType() 				{ return rType; }
+	//the description as given, null for lc packets (which describe themselves by dilution)
+	final String getGivenDescription()			{ return description; }
 	
 	
 	
@@ -128,6 +131,28 @@ public class DataPacket {
 	}
 	
 	
+	
+	/**
+	 * Packets are equal when their whole area, source (ignoring case) and type match
+	 */
+	@Override public final boolean equals(Object other) {
+		return other instanceof DataPacket && equals((DataPacket) other);
+	}
+	
+	
+	
+	/**
+	 * Hashes the same fields equals compares, so packets can be deduplicated by hash
+	 */
+	@Override public final int hashCode() {
+		int sourceHash = 0;
+		//folds case per character the way equalsIgnoreCase compares
+		for(int i = 0; i < source.length(); i++)
+			sourceHash = 31 * sourceHash + Character.toLowerCase(Character.toUpperCase(source.charAt(i)));
+		return Objects.hash(area.intValue(), sourceHash, rType);
+	}
+	
+	
 
 	
 	
@@ -191,10 +216,10 @@ public class DataPacket {
 	 * @param max calibration
 	 * @return calibrated packets
 	 */
-	public static DataPacket[] findOnlyWithinCalibration(DataPacket[] allOfCompound, Float minCal, Float maxCal) {
+	public static DataPacket[] findOnlyWithinCalibration(DataPacket[] allOfCompound, float minCal, float maxCal) {
 		List<DataPacket> withinCal = new LinkedList<>();
 		for(DataPacket dp : allOfCompound) {
-			Terminal.say("Packet area: "+dp.getArea()+" "+maxCal+" "+minCal);
+			Terminal.debug(() -> "Packet area: "+dp.getArea()+" "+maxCal+" "+minCal);
 			if(dp.getArea() <= maxCal && dp.getArea() >= minCal)
 				withinCal.add(dp);
 			else continue;
@@ -215,7 +240,7 @@ public class DataPacket {
 	 * @param calibration table
 	 * @return packet with a detected area closest to the midpoint
 	 */
-	public static DataPacket findClosestToCalibrationMidpoint(DataPacket[] allOfCompound, Float minCal, Float maxCal) {
+	public static DataPacket findClosestToCalibrationMidpoint(DataPacket[] allOfCompound, float minCal, float maxCal) {
 		//in the event that an empty data array is given, a null packet is returned
 		try {
 			final double calMidpoint = (maxCal - minCal) / 2 + minCal;
@@ -230,7 +255,7 @@ public class DataPacket {
 			}
 			return allOfCompound[indexOfClosest];
 		} catch (ArrayIndexOutOfBoundsException e) {
-			Terminal.say("");
+			Terminal.debug("No packets to find a calibration midpoint among");
 			return null;
 		}
 	}
@@ -238,71 +263,27 @@ public class DataPacket {
 	
 	
 	/**
-	 * Rejects packets recursively until the given array is <= rsdLimit or
-	 * 	until the array has a length of 1
+	 * Rejects packets one at a time, always the one whose removal leaves the lowest RSD,
+	 * 	until the rest are <= rsdLimit or only one remains
 	 * @param data packets to finalize
 	 * @param acceptable rsd limit
-	 * @return rsdLimited result(s), or an empty array if a null array was given
+	 * @return rsdLimited result(s) in their given order, or an empty array if a null array was given
+	 * @see ReplicateStats.rejectToLimit
 	 */
 	public static final DataPacket[] useRSDToRejectPackets(final DataPacket[] data, final Double rsdLimit) {
 		if(data == null)
 			return new DataPacket[0];
-		else if((data.length == 1) || (calcRSD(data) <= rsdLimit))
-			return data;
-		else
-			return useRSDToRejectPackets(removeOnePacketToMinimizeRSD(data),rsdLimit);
-	}
-
-	
-	
-	/**
-	 * Shrinks the argument by one element to obtain a set of results with the lowest possible RSD
-	 * @param data[]
-	 * @return data[n-1], where the element removed minimizes RSD, or simply the input if the array is size 1
-	 * TODO perhaps this could be simplified by simplify finding the outlier?
-	 */
-	private static final DataPacket[] removeOnePacketToMinimizeRSD(final DataPacket[] data) {
-		//base case for algorithm
-		if(data.length < 2)
+		final double[] results = collectResults(data);
+		final int[] indices = new int[data.length];
+		for(int i = 0; i < indices.length; i++)
+			indices[i] = i;
+		final int kept = ReplicateStats.rejectToLimit(results, indices, data.length, rsdLimit);
+		if(kept == data.length)
 			return data;
-		//the algorithm implementation
-		else {
-			//invalid initializations for trackers. The function SHOULD error in the event that these trackers
-			//are not changed during the calculations
-			Double minRSD = 100.0;
-			int indexOfRejectionForMin = -1;
-			//this could probably be greatly simplified to a remove the nested for loop,
-			//but I'm too scared to mess with it. It works.
-			for(int i = 0; i < data.length; i++) {
-				final DataPacket[] oneLess = new DataPacket[data.length-1];
-				boolean foundIndex = false;
-				int currentRejection = -1;
-				for(int j = 0; j < data.length; j++)
-					if(j == i) {
-						foundIndex = true;
-						currentRejection = j;
-					} else if(foundIndex)
-						oneLess[j-1] = data[j];
-					else
-						oneLess[j] = data[j];
-				final Double currentRSD = calcRSD(oneLess);
-				if(currentRSD < minRSD) {
-					minRSD = currentRSD;
-					indexOfRejectionForMin = currentRejection;
-				}
-			}
-			//iterate through the arg array, omitting the minimizing packet, then return it
-			final DataPacket[] finalArray = new DataPacket[data.length-1];
-			boolean hasRejected = false;
-			for(int i = 0; i < data.length; i++)
-				if(i == indexOfRejectionForMin)
-					hasRejected = true;
-				else if(hasRejected)
-					finalArray[i-1] = data[i];
-				else
-					finalArray[i] = data[i];
-			return finalArray;
-		}
+		final DataPacket[] finalized = new DataPacket[kept];
+		for(int i = 0; i < kept; i++)
+			finalized[i] = data[indices[i]];
+		return finalized;
 	}
 
 	
@@ -325,50 +306,11 @@ public class DataPacket {
 	 * @param data packets to evaluate
 	 * @return evaluation
 	 */
-	public static final Double calcRSD(final DataPacket[] data) 				{ return calcRSD(collectResults(data)); }
-	public static final Double calcMean(final DataPacket[] data) 				{ return calcMean(collectResults(data)); }
-	public static final Double calcMeanFromPPM(final DataPacket[] ppmData)		{ return calcMean(collectPPMResults(ppmData)); }
+	public static final Double calcRSD(final DataPacket[] data) 				{ return ReplicateStats.rsd(collectResults(data), data.length); }
+	public static final Double calcMean(final DataPacket[] data) 				{ return ReplicateStats.mean(collectResults(data), data.length); }
+	public static final Double calcMeanFromPPM(final DataPacket[] ppmData)		{ return ReplicateStats.mean(collectPPMResults(ppmData), ppmData.length); }
 	public static final DataPacket[] useRSDToMinimize(final DataPacket[] data) 	{ return useRSDToRejectPackets(data,MAX_PRECISE_RSD); }
 
-	
-	
-	/**
-	 * Calculates the arithmetic mean of an array of numbers
-	 * @param numbers
-	 * @return average of numbers
-	 */
-	private static final Double calcMean(final Double[] data) {
-		double mean = 0.0;
-		for(final Double d : data)
-			mean += d;
-		return mean / data.length;
-	}
-
-	
-
-	/**
-	 * Calculates the relative standard deviation of an array of numbers
-	 * @param array of numbers
-	 * @return RSD of numerical array
-	 */
-	private static final Double calcRSD(final Double[] nums) {
-		if(nums.length == 0)
-			return -1.0;
-		else if (nums.length == 1)
-			return 0.0;
-		else {
-			final Double mean = calcMean(nums);
-			final Double[] deviations = new Double[nums.length];
-			for(int i = 0; i < deviations.length; i++)
-				deviations[i] = (nums[i]-mean)*(nums[i]-mean);
-			Double variation = 0.0;
-			for(final Double deviation : deviations)
-				variation += deviation;
-			final Double stddev = Math.sqrt(variation);
-			return stddev / mean * 100.0;
-		}
-	}
-
 
 
 	/**
@@ -376,8 +318,8 @@ public class DataPacket {
 	 * @param data packets
 	 * @return numerical results
 	 */
-	private static final Double[] collectResults(final DataPacket[] data) {
-		final Double[] results = new Double[data.length];
+	private static final double[] collectResults(final DataPacket[] data) {
+		final double[] results = new double[data.length];
 		for(int i = 0; i < data.length; i++)
 			results[i] = data[i].getResult();
 		return results;
@@ -390,8 +332,8 @@ public class DataPacket {
 	 * @param data
 	 * @return
 	 */
-	private static final Double[] collectPPMResults(DataPacket[] data) {
-		final Double[] results = new Double[data.length];
+	private static final double[] collectPPMResults(DataPacket[] data) {
+		final double[] results = new double[data.length];
 		for(int i = 0; i < data.length; i++)
 			results[i] = data[i].getMassPercentFromPPM();
 		return results;
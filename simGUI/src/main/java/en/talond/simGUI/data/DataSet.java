@@ -1,9 +1,22 @@
 package en.talond.simGUI.data;
 
+import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
 
 import en.talond.simGUI.Terminal;
 import en.talond.simGUI.data.Result.*;
@@ -16,6 +29,8 @@ import en.talond.simGUI.report.ReportTable;
 
 /**
  * This is used to wrap a set of result maps.
+ * Each analysis method's results are held as columns of primitives per compound (see Replicates),
+ * and packets are only built when something asks for them.
  * @author talon
  *
  */
@@ -25,7 +40,7 @@ public class DataSet {
 	
 	private final String sample;
 	//analysis-specific mappings for detected compounds to results
-	private final Map<String,List<DataPacket>> 
+	private final PacketColumns
 	ppmCannaResults,
 	massCannaResults,
 	gcResults,
@@ -39,10 +54,10 @@ public class DataSet {
 	 */
 	public DataSet(final String ofSample) {
 		this.sample = ofSample;
-		gcResults = new HashMap<>();
-		ppmCannaResults = new HashMap<>();
-		massCannaResults = new HashMap<>();
-		thcResults = new HashMap<>();
+		gcResults = new PacketColumns();
+		ppmCannaResults = new PacketColumns();
+		massCannaResults = new PacketColumns();
+		thcResults = new PacketColumns();
 	}
 	
 	
@@ -54,16 +69,16 @@ public class DataSet {
 	 */
 	public DataSet(final String ofSample, final Result[] results) {
 		this.sample = ofSample;
-		gcResults = Factory.generateGCMap(Factory.parseForGC(results),ofSample);
-		ppmCannaResults = Factory.generatePPMMap(Factory.parseForPPM(results),ofSample);
-		massCannaResults = Factory.generateMassMap(Factory.parseForCanna(results),ofSample);
-		thcResults = Factory.generateTHCMap(Factory.parseForTHC(results),ofSample);
+		gcResults = Factory.generateGCColumns(Factory.parseForGC(results),ofSample);
+		ppmCannaResults = Factory.generatePPMColumns(Factory.parseForPPM(results),ofSample);
+		massCannaResults = Factory.generateMassColumns(Factory.parseForCanna(results),ofSample);
+		thcResults = Factory.generateTHCColumns(Factory.parseForTHC(results),ofSample);
 	}
 
 	
 	
 	/**
-	 * Constructs with defined inner fields.
+	 * Constructs from compound maps, which are copied into columns.
 	 * Used for JSON deserialization.
 	 * @param sample name
 	 * @param gc map
@@ -74,12 +89,19 @@ public class DataSet {
 	public DataSet(final String ofSample,
 			final Map<String,List<DataPacket>> gc, final Map<String,List<DataPacket>> ppm,  
 			final Map<String,List<DataPacket>> canna,  final Map<String,List<DataPacket>> thc) {
+		this(ofSample, PacketColumns.of(gc), PacketColumns.of(ppm), PacketColumns.of(canna), PacketColumns.of(thc));
+	}
+
+
+
+	/* constructs around columns which belong to this set alone */
+	private DataSet(final String ofSample, final PacketColumns gc, final PacketColumns ppm,
+			final PacketColumns canna, final PacketColumns thc) {
 		this.sample = ofSample;
 		gcResults = gc;
 		ppmCannaResults = ppm;
 		massCannaResults = canna;
 		thcResults = thc;
-
 	}
 	
 	
@@ -129,36 +151,47 @@ public class DataSet {
 	
 	
 	//data indicators
-	public final boolean hasCanna() { return massCannaResults.size() > 0 | ppmCannaResults.size() > 0; }
-	public final boolean hasFthc() { return thcResults.size() > 0; }
-	public final boolean hasGC() { return gcResults.size() > 0; }
-	public final boolean canBeConfident(String onCompound) { return DataPacket.useRSDToMinimize(getCannaMassResultsOf(onCompound)).length > 1; }
+	public final boolean hasCanna() { return !massCannaResults.isEmpty() | !ppmCannaResults.isEmpty(); }
+	public final boolean hasFthc() { return !thcResults.isEmpty(); }
+	public final boolean hasGC() { return !gcResults.isEmpty(); }
+	public final boolean canBeConfident(String onCompound) { return keptByRSD(getCannaMassReplicatesOf(onCompound)) > 1; }
 	//name getters for detected compounds
-	public final String[] getCompoundsOfGC() { return gcResults.keySet().toArray(new String[] {}); }
-	public final String[] getCompoundsOfPPM() { return ppmCannaResults.keySet().toArray(new String[] {}); }
-	public final String[] getCompoundsOfMass() { return massCannaResults.keySet().toArray(new String[] {}); }
+	public final String[] getCompoundsOfGC() { return gcResults.compounds(); }
+	public final String[] getCompoundsOfPPM() { return ppmCannaResults.compounds(); }
+	public final String[] getCompoundsOfMass() { return massCannaResults.compounds(); }
 	//result getters for individual compounds 
 	public final DataPacket[] getGCResultsOf(String compound) 			{ return tryGettingResults(compound,gcResults); }	
 	public final DataPacket[] getCannaPPMResultsOf(String compound) 	{ return tryGettingResults(compound,ppmCannaResults); }	
 	public final DataPacket[] getCannaMassResultsOf(String compound) 	{ return tryGettingResults(compound,massCannaResults); }	
 	public final DataPacket[] getTHCMassResultsOf(String compound) 		{ return tryGettingResults(compound,thcResults); }
+	//replicate getters for individual compounds, which build no packets (read-only, null if not detected)
+	public final Replicates getGCReplicatesOf(String compound) 			{ return gcResults.columnOf(compound); }
+	public final Replicates getCannaPPMReplicatesOf(String compound) 	{ return ppmCannaResults.columnOf(compound); }
+	public final Replicates getCannaMassReplicatesOf(String compound) 	{ return massCannaResults.columnOf(compound); }
+	public final Replicates getTHCMassReplicatesOf(String compound) 	{ return thcResults.columnOf(compound); }
 	
 
 	
 	/**
-	 * Attempts to fetch the results of a compound from a map.
-	 * Automatically returns an empty array in the event of a null result
-	 * from the map.
+	 * Attempts to fetch the results of a compound from its columns.
+	 * Automatically returns an empty array if the compound wasn't detected.
 	 * @param name of compound to fetch
-	 * @param result map to fetch from
+	 * @param result columns to fetch from
 	 * @return empty array OR collected data
 	 */
-	private static final DataPacket[] tryGettingResults(String ofCompound, Map<String,List<DataPacket>> fromMap) {
-		try { 
-			return fromMap.get(ofCompound).toArray(new DataPacket[] {});
-		} catch (final NullPointerException e) {
-			return new DataPacket[] {};
-		}
+	private static final DataPacket[] tryGettingResults(String ofCompound, PacketColumns from) {
+		final Replicates r = from.columnOf(ofCompound);
+		return r == null ? new DataPacket[] {} : r.toPackets();
+	}
+
+
+
+	/* number of replicates which survive RSD rejection, counted without building packets */
+	private static final int keptByRSD(final Replicates r) {
+		if(r == null)
+			return 0;
+		final int n = r.size();
+		return ReplicateStats.rejectToLimit(r.copyResults(new double[n]), new int[n], n, DataPacket.MAX_PRECISE_RSD);
 	}
 
 	
@@ -196,13 +229,17 @@ public class DataSet {
 	 * @see WorkingSet.insertFthcPacket		and 	 MainMenu.handleAddNondetect
 	 */
 	public final void insertFthcPacket(String compound, DataPacket fthc) {
-		List<DataPacket> list = thcResults.remove(compound);
-		try {
-			list.add(fthc);
-		} catch (NullPointerException e) {
-			list = new LinkedList<>();
-			list.add(fthc);
-		}	thcResults.put(compound, list);
+		thcResults.add(compound, fthc);
+	}
+	
+	
+	
+	/**
+	 * Copies the result columns, so the copy can be altered without affecting this set.
+	 * @return copy of this data set
+	 */
+	public final DataSet copy() {
+		return new DataSet(sample, gcResults.copy(), ppmCannaResults.copy(), massCannaResults.copy(), thcResults.copy());
 	}
 	
 	
@@ -221,10 +258,10 @@ public class DataSet {
 	 */
 	public static final DataSet merge(final DataSet parent, final DataSet child) {
 		//Generate a merged map for each of the analysis methods, omitting possible duplicate results
-		final Map<String,List<DataPacket>> mergedGC = tryMerge(parent.gcResults,child.gcResults);
-		final Map<String,List<DataPacket>> mergedPPM = tryMerge(parent.ppmCannaResults,child.ppmCannaResults);
-		final Map<String,List<DataPacket>> mergedCanna = tryMerge(parent.massCannaResults,child.massCannaResults);
-		final Map<String,List<DataPacket>> mergedTHC = tryMerge(parent.thcResults,child.thcResults);
+		final PacketColumns mergedGC = tryMerge(parent.gcResults,child.gcResults);
+		final PacketColumns mergedPPM = tryMerge(parent.ppmCannaResults,child.ppmCannaResults);
+		final PacketColumns mergedCanna = tryMerge(parent.massCannaResults,child.massCannaResults);
+		final PacketColumns mergedTHC = tryMerge(parent.thcResults,child.thcResults);
 		//assemble a new data set and return it
 		return new DataSet(parent.getSample(),mergedGC,mergedPPM,mergedCanna,mergedTHC);
 	}
@@ -232,41 +269,36 @@ public class DataSet {
 	
 
 	/**
-	 * Merges two compound maps, ignoring any duplicate results.
-	 * Duplicate results are specified by the DataSet's implementation of this equals(DataSet) function
-	 * @param parent map
-	 * @param child map
-	 * @return parent map with merged lists
+	 * Merges two compound columns, ignoring any duplicate results.
+	 * Duplicate results are specified by the DataPacket's implementation of equals(DataPacket)
+	 * @param parent columns, which are appended to
+	 * @param child columns
+	 * @return parent columns with merged replicates
 	 */
-	private static final Map<String,List<DataPacket>> tryMerge(Map<String,List<DataPacket>> parent, Map<String,List<DataPacket>> child) {
-		//Iterates through each compound in the child map
-		for(final String compound : child.keySet())
-			//Puts the child data into the parent list if the parent has no record of the current compound
-			if(!parent.containsKey(compound))
-				parent.put(compound,child.get(compound));
-			//Merges the result lists if the parent DOES contain the current compound, ignoring duplicates
+	private static final PacketColumns tryMerge(PacketColumns parent, PacketColumns child) {
+		//Iterates through each compound in the child columns
+		for(final String compound : child.compounds()) {
+			final Replicates childResults = child.columnOf(compound);
+			final Replicates parentResults = parent.columnOf(compound);
+			//Adopts the child data if the parent has no record of the current compound
+			if(parentResults == null)
+				parent.adopt(compound, childResults);
+			//Merges the replicates if the parent DOES contain the current compound, ignoring duplicates
 			else {
-				//collect the result lists from both maps
-				List<DataPacket> parentResults = parent.get(compound),
-				childResults = child.get(compound);
-				//Finds duplicate results in the child list and tells the user it will remove them
-				for(DataPacket parentResult : parentResults) {
-					DataPacket toRemove = null;			//attempt to find a duplicate result for each in parent
-					for(DataPacket childResult : childResults)
-						if(childResult.equals(parentResult))
-							toRemove = childResult;
-						else continue;
-					if(toRemove != null) {				//if a duplicate was found, remove it and notify the user
-						childResults.remove(toRemove);
-						toRemove = null;
+				//Counts the parent results of each kind, since each one cancels out one duplicate child
+				Map<DataPacket,Integer> unmatched = new HashMap<>();
+				for(DataPacket parentResult : parentResults.toPackets())
+					unmatched.merge(parentResult, 1, Integer::sum);
+				//Adds the children which aren't duplicates to the parent's replicates and tells the user about the rest
+				for(DataPacket childResult : childResults.toPackets()) {
+					Integer count = unmatched.get(childResult);
+					if(count != null && count > 0) {
+						unmatched.put(childResult, count - 1);
 						Terminal.say("Highly likely that a duplicate result was found. Neglecting child...");
-					}
+					} else parentResults.add(childResult);
 				}
-				//Adds remaining results to the parent's list
-				parentResults.addAll(childResults);
-				//Put the merged parent list in the parent map
-				parent.put(compound, parentResults);
 			}
+		}
 		return parent;
 	}
 
@@ -340,87 +372,72 @@ public class DataSet {
 		/**
 		 * @param results to map
 		 * @param sample name since this is a static method with no access to instance data
-		 * @return mapping of compounds from the specified method to a list numerical result Pairs
+		 * @return columns of compounds from the specified method to their numerical results
 		 */
-		private static final Map<String,List<DataPacket>> generateGCMap(final GCResult[] results, final String ofSample) {
-			Map<String,List<DataPacket>> compoundMap = new HashMap<>();
-			for(GCResult r : results)
-				compoundMap = insertCompound(compoundMap,r);
-			return compoundMap;
+		private static final PacketColumns generateGCColumns(final GCResult[] results, final String ofSample) {
+			final PacketColumns columns = new PacketColumns();
+			final Map<String,Set<DataPacket>> inserted = new HashMap<>();
+			for(final GCResult r : results)
+				insertCompound(columns,inserted,r);
+			return columns;
 		}
 	
 		/**
 		 * @param results to map
 		 * @param sample name since this is a static method with no access to instance data
-		 * @return mapping of compounds from the specified method to a list numerical result Pairs
+		 * @return columns of compounds from the specified method to their numerical results
 		 */
-		private static final Map<String,List<DataPacket>> generatePPMMap(final PPMResult[] results, final String ofSample) {
-			Map<String,List<DataPacket>> compoundMap = new HashMap<>();
-			for(PPMResult r : results)
-				compoundMap = insertCompound(compoundMap,r);
-			return compoundMap;
+		private static final PacketColumns generatePPMColumns(final PPMResult[] results, final String ofSample) {
+			final PacketColumns columns = new PacketColumns();
+			final Map<String,Set<DataPacket>> inserted = new HashMap<>();
+			for(final PPMResult r : results)
+				insertCompound(columns,inserted,r);
+			return columns;
 		}
 	
 		/**
 		 * @param results to map
 		 * @param sample name since this is a static method with no access to instance data
-		 * @return mapping of compounds from the specified method to a list numerical result Pairs
+		 * @return columns of compounds from the specified method to their numerical results
 		 */
-		private static final Map<String,List<DataPacket>> generateMassMap(final CannaResult[] results, final String ofSample) {
-			Map<String,List<DataPacket>> compoundMap = new HashMap<>();
+		private static final PacketColumns generateMassColumns(final CannaResult[] results, final String ofSample) {
+			final PacketColumns columns = new PacketColumns();
+			final Map<String,Set<DataPacket>> inserted = new HashMap<>();
 			for(final CannaResult r : results)
-				compoundMap = insertCompound(compoundMap,r);
-			return compoundMap;
+				insertCompound(columns,inserted,r);
+			return columns;
 		}
 	
 		/**
 		 * @param results to map
 		 * @param sample name since this is a static method with no access to instance data
-		 * @return mapping of compounds from the specified method to a list numerical result Pairs
+		 * @return columns of compounds from the specified method to their numerical results
 		 */
-		private static final Map<String,List<DataPacket>> generateTHCMap(final FTHCResult[] results, final String ofSample) {
-			Map<String,List<DataPacket>> compoundMap = new HashMap<>();
-			for(FTHCResult r : results)
-				compoundMap = insertCompound(compoundMap,r);
-			return compoundMap;
+		private static final PacketColumns generateTHCColumns(final FTHCResult[] results, final String ofSample) {
+			final PacketColumns columns = new PacketColumns();
+			final Map<String,Set<DataPacket>> inserted = new HashMap<>();
+			for(final FTHCResult r : results)
+				insertCompound(columns,inserted,r);
+			return columns;
 		}
 	
 	
 		
 		/**
-		 * Contains logic for inserting/appending data into a compound map
-		 * @param map to insert into
+		 * Contains logic for inserting/appending data into compound columns
+		 * @param columns to insert into
+		 * @param packets already inserted into the columns, by compound
 		 * @param result to insert
-		 * @return modified map
 		 */
-		private static final Map<String,List<DataPacket>> insertCompound(Map<String,List<DataPacket>> toHold, Result toInsert) {
+		private static final void insertCompound(PacketColumns toHold, 
+				Map<String,Set<DataPacket>> inserted, Result toInsert) {
 			String compound = toInsert.getCompound();		//obtains key for map
 			DataPacket numerical = toInsert.toPacket();		//transforms abstract result
-			//if the map already contains results for this compound, first ensure that is not a duplicate
-			//before adding the result to the end of the value list
-			if(toHold.containsKey(compound)) {
-				List<DataPacket> previousResults = toHold.get(compound);	//collect the previous results
-				//iterate through the existing results, ensuring no duplicates are found
-				boolean isDuplicate = false;
-				for(DataPacket dp : previousResults)
-					if(dp.equals(numerical)) {
-						isDuplicate = true;
-						break;
-					}
-				//manage the insertion of the result based on duplication status
-				if(isDuplicate) 
-					Terminal.say("\t\t\t\t\tDuplicate result rejected during data set insertion, ignoring: "+toInsert.getCompound());
-				else {
-					previousResults.add(numerical);
-					toHold.put(compound, previousResults);
-				}
-			//if the result is for a novel compound, create the container list and insert it
-			} else {
-				List<DataPacket> list = new LinkedList<>();
-				list.add(numerical);
-				toHold.put(compound, list);
-			}
-			return toHold;
+			//the set of packets inserted for each compound mirrors its list, so a duplicate is found by hash
+			if(!inserted.computeIfAbsent(compound, c -> new HashSet<>()).add(numerical))
+				Terminal.debug(() -> "\t\t\t\t\tDuplicate result rejected during data set insertion, ignoring: "+toInsert.getCompound());
+			//otherwise append it to the compound's replicates, creating them for a novel compound
+			else toHold.add(compound, numerical);
 		}
 	}
 
@@ -438,32 +455,154 @@ public class DataSet {
 	 * @return stringified object
 	 */
 	public final String stringify() {
-		String stringified = "DataSet for sample: "+sample+"\n";
-		stringified += "\tGC RESULTS:\n";
-		for(final String compound : gcResults.keySet()) {
-			stringified += "\t\tCOMPOUND: "+compound+"\n";
+		final StringBuilder s = new StringBuilder("DataSet for sample: ").append(sample).append('\n');
+		s.append("\tGC RESULTS:\n");
+		for(final String compound : gcResults.compounds()) {
+			s.append("\t\tCOMPOUND: ").append(compound).append('\n');
 			for(final DataPacket p : getGCResultsOf(compound))
-				stringified = stringified + "\t\t\tAREA: "+p.getArea()+"\tAREA %: "+p.getResult()														+"\t\t"+p.getSource()+"\n";
+				s.append("\t\t\tAREA: ").append(p.getArea()).append("\tAREA %: ").append(p.getResult())
+				.append("\t\t").append(p.getSource()).append('\n');
 		}
-		stringified += "\tPPM RESULTS:\n";
-		for(final String compound : ppmCannaResults.keySet()) {
-			stringified += "\t\tCOMPOUND: "+compound+"\n";
+		s.append("\tPPM RESULTS:\n");
+		for(final String compound : ppmCannaResults.compounds()) {
+			s.append("\t\tCOMPOUND: ").append(compound).append('\n');
 			for(final DataPacket p : getCannaPPMResultsOf(compound))
-				stringified = stringified + "\t\t\tAREA: "+p.getArea()+"\tDF: "+p.getDilution()+"\tPPM: "+p.getResult()									+"\t\t"+p.getSource()+"\n";
+				s.append("\t\t\tAREA: ").append(p.getArea()).append("\tDF: ").append(p.getDilution()).append("\tPPM: ").append(p.getResult())
+				.append("\t\t").append(p.getSource()).append('\n');
 		}
-		stringified += "\tTHC RESULTS:\n";
-		for(final String compound : thcResults.keySet()) {
-			stringified += "\t\tCOMPOUND: "+compound+"\n";
-			for(final DataPacket p : getTHCMassResultsOf(compound))
-				stringified = stringified + "\t\t\tAREA: "+p.getArea()+"\tDF: "+p.getDilution()+"\tMASS %: "+p.getResult()+"\tAMOUNT: "+p.getAmount()+"\t\t"+p.getSource()+"\n";
+		s.append("\tTHC RESULTS:\n");
+		for(final String compound : thcResults.compounds())
+			appendMassResults(s, compound, getTHCMassResultsOf(compound));
+		s.append("\tCANNA RESULTS:\n");
+		for(final String compound : massCannaResults.compounds())
+			appendMassResults(s, compound, getCannaMassResultsOf(compound));
+		return s.toString();
+	}
+
+	/* appends a compound's mass % packets to a stringified data set */
+	private static final void appendMassResults(final StringBuilder s, final String compound, final DataPacket[] packets) {
+		s.append("\t\tCOMPOUND: ").append(compound).append('\n');
+		for(final DataPacket p : packets)
+			s.append("\t\t\tAREA: ").append(p.getArea()).append("\tDF: ").append(p.getDilution()).append("\tMASS %: ").append(p.getResult())
+			.append("\tAMOUNT: ").append(p.getAmount()).append("\t\t").append(p.getSource()).append('\n');
+	}
+
+
+
+
+
+
+
+
+	/**
+	 * Reads and writes data sets as JSON. Each set numbers its text once in a symbol table
+	 * and writes its replicates as columns which refer to it, e.g.
+	 * {"sample":..., "symbols":[...], "gcResults":{"compound":{"source":[0,0], ..., "area":[1.0,2.0]}}, ...}
+	 * Sets written before the symbol table (a list of packets per compound) are still read.
+	 * Registered with the storage's Gson.
+	 * @author talon
+	 *
+	 */
+	public static final class Json implements JsonSerializer<DataSet>, JsonDeserializer<DataSet> {
+
+		private static final Type COMPOUND_MAP = new TypeToken<Map<String,List<DataPacket>>>() {}.getType();
+		private static final Type SYMBOL_LIST = new TypeToken<List<String>>() {}.getType();
+		private static final String SYMBOLS = "symbols";
+		//in the order the fields were always written
+		private static final String[] METHODS = {"ppmCannaResults", "massCannaResults", "gcResults", "thcResults"};
+
+		/**
+		 * serializes a data set as its sample, symbols and compound columns
+		 */
+		@Override public JsonElement serialize(DataSet d, Type type, JsonSerializationContext context) {
+			final Symbols.Table symbols = new Symbols.Table();
+			final PacketColumns[] columns = {d.ppmCannaResults, d.massCannaResults, d.gcResults, d.thcResults};
+			final JsonObject[] methods = new JsonObject[METHODS.length];
+			for(int m = 0; m < METHODS.length; m++)
+				methods[m] = encode(columns[m], symbols);
+			final JsonObject o = new JsonObject();
+			o.addProperty("sample", d.sample);
+			o.add(SYMBOLS, context.serialize(symbols.symbols(), SYMBOL_LIST));
+			for(int m = 0; m < METHODS.length; m++)
+				o.add(METHODS[m], methods[m]);
+			return o;
+		}
+
+		/**
+		 * deserializes a data set, treating missing methods as empty
+		 * @throws JsonSyntaxException if the JSON isn't an object (the working set relies on this to tell requests from puma sets)
+		 */
+		@Override public DataSet deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
+			if(!json.isJsonObject())
+				throw new JsonSyntaxException("Expected a data set object but was "+json);
+			final JsonObject o = json.getAsJsonObject();
+			final JsonElement sample = o.get("sample");
+			final JsonElement written = o.get(SYMBOLS);
+			final Symbols.Table symbols = written == null ? null : new Symbols.Table(context.deserialize(written, SYMBOL_LIST));
+			final PacketColumns[] methods = new PacketColumns[METHODS.length];
+			for(int m = 0; m < METHODS.length; m++) {
+				final JsonElement method = o.get(METHODS[m]);
+				if(method == null || method.isJsonNull())
+					methods[m] = new PacketColumns();
+				else if(symbols == null)
+					methods[m] = PacketColumns.of(context.deserialize(method, COMPOUND_MAP));
+				else methods[m] = decode(method.getAsJsonObject(), symbols);
+			}
+			return new DataSet(sample == null || sample.isJsonNull() ? null : Symbols.of(sample.getAsString()),
+					methods[2], methods[0], methods[1], methods[3]);
 		}
-		stringified += "\tCANNA RESULTS:\n";
-		for(final String compound : massCannaResults.keySet()) {
-			stringified += "\t\tCOMPOUND: "+compound+"\n";
-			for(final DataPacket p : getCannaMassResultsOf(compound))
-				stringified = stringified + "\t\t\tAREA: "+p.getArea()+"\tDF: "+p.getDilution()+"\tMASS %: "+p.getResult()+"\tAMOUNT: "+p.getAmount()+"\t\t"+p.getSource()+"\n";
+
+
+
+		/* writes the replicates of every compound of one method as columns */
+		private static final JsonObject encode(final PacketColumns columns, final Symbols.Table symbols) {
+			final JsonObject method = new JsonObject();
+			for(final String compound : columns.compounds()) {
+				final Replicates r = columns.columnOf(compound);
+				final JsonArray source = new JsonArray(), rType = new JsonArray(), description = new JsonArray(),
+						amount = new JsonArray(), dilution = new JsonArray(), area = new JsonArray(), result = new JsonArray();
+				for(int i = 0; i < r.size(); i++) {
+					source.add(symbols.idOf(r.getSource(i)));
+					rType.add(symbols.idOf(r.getType(i)));
+					description.add(symbols.idOf(r.getGivenDescription(i)));
+					amount.add(number(r.getAmount(i)));
+					dilution.add(number(r.getDilution(i)));
+					area.add(number(r.getArea(i)));
+					result.add(number(r.getResult(i)));
+				}
+				final JsonObject replicates = new JsonObject();
+				replicates.add("source", source);
+				replicates.add("type", rType);
+				replicates.add("description", description);
+				replicates.add("amount", amount);
+				replicates.add("dilution", dilution);
+				replicates.add("area", area);
+				replicates.add("result", result);
+				method.add(compound, replicates);
+			}
+			return method;
+		}
+
+		/* reads the columns written by encode */
+		private static final PacketColumns decode(final JsonObject method, final Symbols.Table symbols) {
+			final PacketColumns columns = new PacketColumns();
+			for(final Map.Entry<String,JsonElement> e : method.entrySet()) {
+				final JsonObject replicates = e.getValue().getAsJsonObject();
+				final JsonArray source = replicates.getAsJsonArray("source"), rType = replicates.getAsJsonArray("type"),
+						description = replicates.getAsJsonArray("description"), amount = replicates.getAsJsonArray("amount"),
+						dilution = replicates.getAsJsonArray("dilution"), area = replicates.getAsJsonArray("area"),
+						result = replicates.getAsJsonArray("result");
+				final Replicates r = columns.columnFor(e.getKey());
+				for(int i = 0; i < source.size(); i++)
+					r.add(symbols.at(source.get(i).getAsInt()), symbols.at(rType.get(i).getAsInt()), symbols.at(description.get(i).getAsInt()),
+							number(amount.get(i)), number(dilution.get(i)), number(area.get(i)), number(result.get(i)));
+			}
+			return columns;
 		}
-		return stringified;
+
+		/* NaN is written as null, since JSON has no NaN */
+		private static final Double number(final double d) 		{ return Double.isNaN(d) ? null : d; }
+		private static final double number(final JsonElement e) 	{ return e.isJsonNull() ? Double.NaN : e.getAsDouble(); }
 	}
 
 }
@@ -0,0 +1,156 @@
+package en.talond.simGUI.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+
+/**
+ * The results of one analysis method in a data set: each detected compound and its replicates.
+ * Compounds are numbered in the order they were first detected, so their replicates sit in a plain
+ * array instead of one map entry (and list) per compound.
+ * @author talon
+ *
+ */
+final class PacketColumns {
+
+
+
+	private final Map<String,Integer> ids;
+	private String[] compounds;
+	private Replicates[] columns;
+	private int size;
+
+
+
+	/**
+	 * No compounds
+	 */
+	PacketColumns() {
+		ids = new HashMap<>();
+		compounds = new String[8];
+		columns = new Replicates[8];
+	}
+
+
+
+	/**
+	 * Copies every compound and its replicates, so the copy can be appended to without affecting this
+	 * @param toCopy
+	 */
+	private PacketColumns(final PacketColumns toCopy) {
+		ids = new HashMap<>(toCopy.ids);
+		compounds = toCopy.compounds.clone();
+		columns = new Replicates[toCopy.columns.length];
+		size = toCopy.size;
+		for(int i = 0; i < size; i++)
+			columns[i] = new Replicates(toCopy.columns[i]);
+	}
+
+
+
+	/**
+	 * Builds columns from the legacy compound map, e.g. one read from an old working set
+	 * @param map of compounds to their packets (may be null)
+	 * @return columns holding the same packets
+	 */
+	static final PacketColumns of(final Map<String,List<DataPacket>> map) {
+		final PacketColumns c = new PacketColumns();
+		if(map != null)
+			for(final Map.Entry<String,List<DataPacket>> e : map.entrySet())
+				if(e.getValue() != null)
+					for(final DataPacket p : e.getValue())
+						c.add(e.getKey(), p);
+		return c;
+	}
+
+
+
+
+
+
+
+	/* number of compounds */
+	final int size() 						{ return size; }
+	final boolean isEmpty() 				{ return size == 0; }
+	/* detected compounds, in order of first detection */
+	final String[] compounds() 				{ return Arrays.copyOf(compounds, size); }
+	/* copy of every column, e.g. for the data set's copy */
+	final PacketColumns copy() 				{ return new PacketColumns(this); }
+
+
+
+	/**
+	 * Finds the replicates of a compound
+	 * @param compound
+	 * @return replicates, or null if the compound wasn't detected
+	 */
+	final Replicates columnOf(final String compound) {
+		final Integer id = ids.get(compound);
+		return id == null ? null : columns[id];
+	}
+
+
+
+	/**
+	 * Finds the replicates of a compound, adding empty ones for a novel compound
+	 * @param compound
+	 * @return replicates
+	 */
+	final Replicates columnFor(final String compound) {
+		final Integer id = ids.get(compound);
+		if(id != null)
+			return columns[id];
+		if(size == columns.length) {
+			compounds = Arrays.copyOf(compounds, size * 2);
+			columns = Arrays.copyOf(columns, size * 2);
+		}
+		final String shared = Symbols.of(compound);
+		ids.put(shared, size);
+		compounds[size] = shared;
+		return columns[size++] = new Replicates();
+	}
+
+
+
+	/**
+	 * Adds a copy of another set's replicates for a compound this doesn't have yet
+	 * @param compound
+	 * @param replicates to copy
+	 */
+	final void adopt(final String compound, final Replicates replicates) {
+		if(columnOf(compound) != null)
+			throw new IllegalArgumentException("Compound already has replicates: "+compound);
+		columnFor(compound);
+		columns[ids.get(compound)] = new Replicates(replicates);
+	}
+
+
+
+	/**
+	 * Appends a packet to the replicates of its compound
+	 * @param compound
+	 * @param packet
+	 */
+	final void add(final String compound, final DataPacket packet) {
+		columnFor(compound).add(packet);
+	}
+
+
+
+	/**
+	 * Builds the legacy compound map, e.g. to serialize this
+	 * @return compounds mapped to their packets, in order of first detection
+	 */
+	final Map<String,List<DataPacket>> toMap() {
+		final Map<String,List<DataPacket>> map = new LinkedHashMap<>();
+		for(int i = 0; i < size; i++)
+			map.put(compounds[i], Arrays.asList(columns[i].toPackets()));
+		return map;
+	}
+
+}
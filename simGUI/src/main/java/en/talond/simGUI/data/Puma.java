@@ -1,6 +1,7 @@
 package en.talond.simGUI.data;
 
 import java.time.LocalDate;
+import java.util.regex.Pattern;
 import java.util.zip.DataFormatException;
 
 import en.talond.simGUI.Terminal;
@@ -51,6 +52,13 @@ public class Puma {
 	//An expression used to find the date of a PUMA sample, inferred from its data source filename
 	SOURCE_DATE_MARKER = "MOJO_SSMBEEW[0-9]C[1-9]\\.[0-9]_";
 
+	//the expressions above which are used on every name or source, compiled once
+	private static final Pattern
+	FEED_GC_PREFIX = Pattern.compile(FEED_GC_PRE_EXP),
+	RAFF_GC_PREFIX = Pattern.compile(RAFF_GC_PRE_EXP),
+	EXTR_GC_PREFIX = Pattern.compile(EXTR_GC_PRE_EXP),
+	SOURCE_DATE = Pattern.compile(SOURCE_DATE_MARKER);
+
 	private static final boolean
 	//inferred analysis tags for puma set elements
 	PUMA_CANNA_INFERENCE = true,
@@ -233,11 +241,10 @@ public class Puma {
 	 * Checks if a sample name is from a PUMA GC sheet
 	 * @param name string
 	 * @return true if name should belong to puma set
+	 * @see SampleName.Kind.PUMA_GC_PREFIX
 	 */
 	public static final boolean nameIsFromPumaGC(final String name) {
-		return name.matches("^("+FEED_GC_PRE_EXP+")") 
-				|| name.matches("^("+RAFF_GC_PRE_EXP+")") 
-				|| name.matches("^("+EXTR_GC_PRE_EXP+")");
+		return SampleName.of(name).isPumaGCPrefix();
 	}
 	
 	
@@ -257,11 +264,11 @@ public class Puma {
 		String prefix = tokens[0];
 		final String date = tokens[1];
 		final String suffix = tokens[2].split("#")[0];
-		if(prefix.matches(FEED_GC_PRE_EXP)) {
+		if(FEED_GC_PREFIX.matcher(prefix).matches()) {
 			prefix = SHEET_FEED;
-		} else if (prefix.matches(RAFF_GC_PRE_EXP)) {
+		} else if (RAFF_GC_PREFIX.matcher(prefix).matches()) {
 			prefix = SHEET_RAFF;
-		} else if (prefix.matches(EXTR_GC_PRE_EXP)) {
+		} else if (EXTR_GC_PREFIX.matcher(prefix).matches()) {
 			prefix = SHEET_EXTR;
 			final String[] pt = prefix.split("-");
 			if(pt.length == 2)
@@ -286,7 +293,7 @@ public class Puma {
 	 * @return date from source file name
 	 */
 	public static final LocalDate parseDateFromSource(final String source) {
-		String cutName = source.replaceFirst(SOURCE_DATE_MARKER, CUT);
+		String cutName = SOURCE_DATE.matcher(source).replaceFirst(CUT);
 		final int cutLocation = cutName.indexOf(CUT) + CUT.length();
 		cutName = cutName.substring(cutLocation, cutLocation+8);
 		return SampleFactory.parseDate(cutName);
@@ -300,12 +307,12 @@ public class Puma {
 	 * @return index or -1 if this name doesn't belong to a puma set
 	 */
 	public static final int inferDataSetIndex(String sheetName) {
-		Terminal.say("Attempting to infer dataset index of puma: "+sheetName);
+		Terminal.debug(() -> "Attempting to infer dataset index of puma: "+sheetName);
 		int index;
 		if(!nameIsFromPumaLC(sheetName))
 			index = -1;
 		else {
-			Terminal.say(sheetName+" does belong to puma");
+			Terminal.debug(() -> sheetName+" does belong to puma");
 			if(sheetName.startsWith(SHEET_FEED))
 				index = 0;
 			else if (sheetName.startsWith(SHEET_RAFF))
@@ -320,14 +327,15 @@ public class Puma {
 				}
 			} else index = -1;
 		}
+		final int inferred = index;
 		if (index == 0)
-			Terminal.say(sheetName+" is feed!");
+			Terminal.debug(() -> sheetName+" is feed!");
 		else if (index == 1)
-			Terminal.say(sheetName+" is raff!");
+			Terminal.debug(() -> sheetName+" is raff!");
 		else if (index > 1)
-			Terminal.say(sheetName+" is extract (of index: "+index+")!");
+			Terminal.debug(() -> sheetName+" is extract (of index: "+inferred+")!");
 		else
-			Terminal.say("Operation unsuccessful for "+sheetName);
+			Terminal.debug(() -> "Operation unsuccessful for "+sheetName);
 		return index;
 	}
 	
@@ -418,7 +426,7 @@ public class Puma {
 		 */
 		public static final Type inferFromSuffix(String suffix) {
 			//standardize and split input
-			suffix = suffix.replaceAll("P", "");
+			suffix = suffix.replace("P", "");
 			final String[] tokens = suffix.split("\\.");
 			int controller, width;
 			//attempt to parse tokens
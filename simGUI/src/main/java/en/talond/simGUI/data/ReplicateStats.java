@@ -0,0 +1,127 @@
+package en.talond.simGUI.data;
+
+
+
+
+/**
+ * Primitive statistics over the replicate results of one compound, for finalizing them.
+ * The RSD follows the lab's historical definition: the square root of the summed squared deviations
+ * (not divided by the count) over the mean, as a percent.
+ * Every routine works in place on the first n values of the given arrays and allocates nothing.
+ * @author talon
+ *
+ */
+public final class ReplicateStats {
+
+
+
+	//relative difference below which two RSDs are treated as tied
+	private static final double TIE = 1e-9;
+
+
+
+	private ReplicateStats() {}
+
+
+
+
+
+
+
+	/**
+	 * Calculates the arithmetic mean of the first n values
+	 * @param values
+	 * @param n values to use
+	 * @return mean, or NaN for no values
+	 */
+	public static final double mean(final double[] values, final int n) {
+		double sum = 0.0;
+		for(int i = 0; i < n; i++)
+			sum += values[i];
+		return sum / n;
+	}
+
+
+
+	/**
+	 * Calculates the RSD of the first n values
+	 * @param values
+	 * @param n values to use
+	 * @return RSD in percent, -1 for no values and 0 for a single value
+	 */
+	public static final double rsd(final double[] values, final int n) {
+		if(n == 0)
+			return -1.0;
+		else if(n == 1)
+			return 0.0;
+		final double mean = mean(values, n);
+		double squares = 0.0;
+		for(int i = 0; i < n; i++)
+			squares += (values[i] - mean) * (values[i] - mean);
+		return Math.sqrt(squares) / mean * 100.0;
+	}
+
+
+
+	/**
+	 * Rejects one value at a time, always the one whose removal leaves the lowest RSD,
+	 * until the RSD is within the limit or one value remains.
+	 * Kept values (and their indices) are compacted to the front of the arrays in their original order.
+	 * Each rejection costs one pass to center the values and one to try leaving each of them out,
+	 * so rejecting down from n values is O(n^2).
+	 * @param values to finalize
+	 * @param indices travelling with the values (e.g. their packet positions)
+	 * @param n values to use
+	 * @param rsdLimit acceptable RSD in percent
+	 * @return number of values kept
+	 */
+	public static final int rejectToLimit(final double[] values, final int[] indices, int n, final double rsdLimit) {
+		while(n > 1 && !(rsd(values, n) <= rsdLimit)) {
+			final int rejected = leastPreciseOf(values, n);
+			//close the gap, keeping the order of the rest
+			for(int i = rejected + 1; i < n; i++) {
+				values[i-1] = values[i];
+				indices[i-1] = indices[i];
+			}
+			n--;
+		}
+		return n;
+	}
+
+
+
+	/**
+	 * Finds the value whose removal leaves the lowest RSD (the first one on a tie).
+	 * The values are centered on their mean first, so the leave-one-out sums are taken over
+	 * small deviations instead of the values themselves, which keeps them from cancelling.
+	 * @param values
+	 * @param n values to use, at least 2
+	 * @return position of the value to reject
+	 */
+	public static final int leastPreciseOf(final double[] values, final int n) {
+		final double center = mean(values, n);
+		double deviations = 0.0, squares = 0.0;
+		for(int i = 0; i < n; i++) {
+			final double d = values[i] - center;
+			deviations += d;
+			squares += d * d;
+		}
+		final int rest = n - 1;
+		int best = -1;
+		double bestRSD = Double.NaN;
+		for(int i = 0; i < n; i++) {
+			final double d = values[i] - center;
+			final double restDeviations = deviations - d;
+			//squared deviations of the rest about their own mean
+			final double restSquares = Math.max(0.0, squares - d * d - restDeviations * restDeviations / rest);
+			final double restRSD = rest == 1 ? 0.0 : Math.sqrt(restSquares) / (center + restDeviations / rest) * 100.0;
+			//rounding can split an exact tie, so only a clearly lower RSD displaces an earlier candidate
+			if(best < 0 || restRSD < bestRSD - TIE * Math.abs(bestRSD) || (Double.isNaN(bestRSD) && !Double.isNaN(restRSD))) {
+				best = i;
+				bestRSD = restRSD;
+			}
+		}
+		return best;
+	}
+
+}
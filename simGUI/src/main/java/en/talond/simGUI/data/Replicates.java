@@ -0,0 +1,184 @@
+package en.talond.simGUI.data;
+
+import java.util.Arrays;
+
+
+
+
+/**
+ * The replicate results of one compound from one analysis, stored as columns.
+ * Numbers are kept as primitives (NaN standing in for a missing value) and text as shared symbols,
+ * so a data set costs a few arrays per compound instead of an object with boxed fields per result.
+ * A data set hands out its replicates without copying them; they must be treated as read-only,
+ * which is safe because the working set never alters a data set after publishing it.
+ * Packets are only built on request, e.g. for the few results a report finally keeps.
+ * @author talon
+ *
+ */
+public final class Replicates {
+
+
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private int size;
+	private double[] area, result, dilution, amount;
+	private String[] source, description, type;
+
+
+
+	/**
+	 * Empty replicates
+	 */
+	Replicates() {
+		area = new double[INITIAL_CAPACITY];
+		result = new double[INITIAL_CAPACITY];
+		dilution = new double[INITIAL_CAPACITY];
+		amount = new double[INITIAL_CAPACITY];
+		source = new String[INITIAL_CAPACITY];
+		description = new String[INITIAL_CAPACITY];
+		type = new String[INITIAL_CAPACITY];
+	}
+
+
+
+	/**
+	 * Copies replicates, so the copy can be appended to without affecting the original
+	 * @param toCopy
+	 */
+	Replicates(final Replicates toCopy) {
+		size = toCopy.size;
+		area = toCopy.area.clone();
+		result = toCopy.result.clone();
+		dilution = toCopy.dilution.clone();
+		amount = toCopy.amount.clone();
+		source = toCopy.source.clone();
+		description = toCopy.description.clone();
+		type = toCopy.type.clone();
+	}
+
+
+
+
+
+
+
+	/* number of replicates */
+	public final int size() 						{ return size; }
+	/* columns of a replicate, NaN where the packet had no value */
+	public final double getArea(final int i) 		{ return area[check(i)]; }
+	public final double getResult(final int i) 		{ return result[check(i)]; }
+	public final double getDilution(final int i) 	{ return dilution[check(i)]; }
+	public final double getAmount(final int i) 		{ return amount[check(i)]; }
+	public final String getSource(final int i) 		{ return source[check(i)]; }
+	/* type and description as given, for persistence */
+	final String getType(final int i) 				{ return type[check(i)]; }
+	final String getGivenDescription(final int i) 	{ return description[check(i)]; }
+
+
+
+	/**
+	 * Copies the results into an array, e.g. for ReplicateStats
+	 * @param into array of at least size() values
+	 * @return into
+	 */
+	public final double[] copyResults(final double[] into) {
+		System.arraycopy(result, 0, into, 0, size);
+		return into;
+	}
+
+
+
+	/**
+	 * Builds the packet of a single replicate
+	 * @param i of the replicate
+	 * @return packet equal to the one which was added
+	 */
+	public final DataPacket getPacket(final int i) {
+		check(i);
+		if(description[i] != null)
+			return new DataPacket(source[i], type[i], description[i], boxed(area[i]), boxed(result[i]));
+		return new DataPacket(source[i], type[i], boxed(amount[i]), boxed(dilution[i]), boxed(area[i]), boxed(result[i]));
+	}
+
+
+
+	/**
+	 * Builds the packets of every replicate, in the order they were added
+	 * @return packets
+	 */
+	public final DataPacket[] toPackets() {
+		final DataPacket[] packets = new DataPacket[size];
+		for(int i = 0; i < size; i++)
+			packets[i] = getPacket(i);
+		return packets;
+	}
+
+
+
+
+
+
+
+	/**
+	 * Appends a packet's fields as a new replicate
+	 * @param packet to add
+	 */
+	final void add(final DataPacket p) {
+		//lc packets describe themselves by their dilution, so the description also tells which constructor rebuilds the packet
+		add(p.getSource(), p.getResultType(), p.getGivenDescription(),
+				unboxed(p.getAmount()), unboxed(p.getDilution()), unboxed(p.getArea()), unboxed(p.getResult()));
+	}
+
+
+
+	/**
+	 * Appends a replicate, sharing its text through the symbol table
+	 * @param source
+	 * @param type
+	 * @param description, null for lc replicates
+	 * @param amount (NaN for none)
+	 * @param dilution (NaN for none)
+	 * @param area (NaN for none)
+	 * @param result (NaN for none)
+	 */
+	final void add(final String source, final String type, final String description,
+			final double amount, final double dilution, final double area, final double result) {
+		if(size == this.area.length)
+			grow();
+		this.area[size] = area;
+		this.result[size] = result;
+		this.dilution[size] = dilution;
+		this.amount[size] = amount;
+		this.source[size] = Symbols.of(source);
+		this.description[size] = Symbols.of(description);
+		this.type[size] = Symbols.of(type);
+		size++;
+	}
+
+
+
+	/* doubles the capacity of every column */
+	private final void grow() {
+		final int capacity = area.length * 2;
+		area = Arrays.copyOf(area, capacity);
+		result = Arrays.copyOf(result, capacity);
+		dilution = Arrays.copyOf(dilution, capacity);
+		amount = Arrays.copyOf(amount, capacity);
+		source = Arrays.copyOf(source, capacity);
+		description = Arrays.copyOf(description, capacity);
+		type = Arrays.copyOf(type, capacity);
+	}
+
+	/* bounds check against the replicates actually stored, not the capacity */
+	private final int check(final int i) {
+		if(i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Replicate "+i+" of "+size);
+		return i;
+	}
+
+	private static final double unboxed(final Double d) { return d == null ? Double.NaN : d; }
+	private static final Double boxed(final double d) 	{ return Double.isNaN(d) ? null : d; }
+
+
+}
@@ -1,5 +1,8 @@
 package en.talond.simGUI.data;
 
+import java.util.Locale;
+import java.util.regex.Pattern;
+
 
 
 
@@ -24,6 +27,7 @@ public class Request {
 	
 	//characters which are not allowed within the prefix or suffix of a sample
 	public static final String DISALLOWED_CHARACTERS = "[ \t]";
+	private static final Pattern DISALLOWED = Pattern.compile(DISALLOWED_CHARACTERS);
 
 	
 	
@@ -116,6 +120,35 @@ public class Request {
 	
 	
 	
+	/**
+	 * Requests are equal when their names match, ignoring case
+	 */
+	@Override public final boolean equals(Object other) {
+		return other instanceof Request && equals((Request) other);
+	}
+	
+	
+	
+	/**
+	 * Hashes the normalized name, so requests key maps by name
+	 */
+	@Override public final int hashCode() {
+		return normalizeName(getName()).hashCode();
+	}
+	
+	
+	
+	/**
+	 * Normalizes a sample name for case-insensitive lookups
+	 * @param name of a request
+	 * @return normalized name
+	 */
+	public static final String normalizeName(final String name) {
+		return name.toUpperCase(Locale.ROOT);
+	}
+	
+	
+	
 	
 	
 	
@@ -147,7 +180,7 @@ public class Request {
 	 */
 	private static final String reformIdentifier(String prefixOrSuffix) {
 		String reformed = prefixOrSuffix.toUpperCase();
-		return reformed.replaceAll(DISALLOWED_CHARACTERS, "-");
+		return DISALLOWED.matcher(reformed).replaceAll("-");
 	}
 	
 	
@@ -1,8 +1,13 @@
 package en.talond.simGUI.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.zip.DataFormatException;
 
 import en.talond.simGUI.Terminal;
@@ -72,7 +77,25 @@ public abstract class Result {
 	 */
 	public final boolean equals(Result other) {
 		return (source.equals(other.source) && compound.equals(other.compound)
-				&& amount == other.amount && area == other.area);
+				&& Objects.equals(amount, other.amount) && Objects.equals(area, other.area));
+	}
+	
+	
+	
+	/**
+	 * Results are equal when their source, compound, amount and area match
+	 */
+	@Override public final boolean equals(Object other) {
+		return other instanceof Result && equals((Result) other);
+	}
+	
+	
+	
+	/**
+	 * Hashes the same fields equals compares, so results can be deduplicated by hash
+	 */
+	@Override public final int hashCode() {
+		return Objects.hash(source, compound, amount, area);
 	}
 	
 	
@@ -181,19 +204,14 @@ public abstract class Result {
 	 * @return array of unique results
 	 */
 	public static final Result[] mergeWithoutDuplication(Result[] parents, Result[] children) {
-		Terminal.say("\t\t\t\t\tdoing result merge...");
-		List<Result> merged = new LinkedList<>();
-		List<Integer> duplicateChildren = new LinkedList<>();
-		for(Result parent : parents) {
-			for(int i = 0; i < children.length; i++)
-				if(parent.equals(children[i]) && !duplicateChildren.contains(i))
-					duplicateChildren.add(i);
-			merged.add(parent);
-		}
-		for(int i = 0; i < children.length; i++)
-			if(!duplicateChildren.contains(i))
-				merged.add(children[i]);
-		Terminal.say("\t\t\t\t\tomitted "+(parents.length+children.length-merged.size())+" identical results!");
+		Terminal.debug("\t\t\t\t\tdoing result merge...");
+		List<Result> merged = new ArrayList<>(parents.length + children.length);
+		Set<Result> parentSet = new HashSet<>(Arrays.asList(parents));
+		merged.addAll(Arrays.asList(parents));
+		for(Result child : children)
+			if(!parentSet.contains(child))
+				merged.add(child);
+		Terminal.debug(() -> "\t\t\t\t\tomitted "+(parents.length+children.length-merged.size())+" identical results!");
 		return merged.toArray(new Result[] {});
 	}
 	
@@ -223,7 +241,7 @@ public abstract class Result {
     		Terminal.say("\t\t\t"+key);
 		List<MergeCluster> pumasToMerge = new LinkedList<>();
 		for(final String key : map.keySet())
-			if(key.matches(Puma.PUMA_GC_RESULT_NAME)) {
+			if(SampleName.of(key).isPumaGC()) {
 				Terminal.say(key+"is a GC puma member!");
 				final String lcNameToMergeInto = Puma.standardizePumaGcName(key);
 				pumasToMerge.add(new MergeCluster(lcNameToMergeInto,key));
@@ -337,9 +355,9 @@ public abstract class Result {
 				final double massPercent = d.getMassP();
 				return (Data) new FTHCResult(path,amount,compound,area,dilution,massPercent);
 			} else
-				Terminal.say("\t\t\tInvalid result row given! Data not appended to "+sample+". Maybe implement new case in Result.parseRaw?");
+				Terminal.warn("\t\t\tInvalid result row given! Data not appended to "+sample+". Maybe implement new case in Result.parseRaw?");
 		} else
-			Terminal.say("\t\t\tNull result row given! Data not appendeOd to "+sample);
+			Terminal.warn("\t\t\tNull result row given! Data not appendeOd to "+sample);
 		return null;
 	}
 
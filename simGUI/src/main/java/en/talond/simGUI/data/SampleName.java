@@ -0,0 +1,182 @@
+package en.talond.simGUI.data;
+
+import java.time.LocalDate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import en.talond.simGUI.io.SampleFactory;
+
+
+
+
+/**
+ * A sample name, classified once against the precompiled PUMA expressions and split into its parts.
+ * The same names come through ingest, merging and filing over and over, so each distinct name is
+ * parsed the first time it is seen and later lookups return that same instance, for the most recently used names.
+ *
+ * 	Names are one of:
+ * 		FEED_P1.3_20220506		a PUMA element as the LC sheets name it (Kind.PUMA_LC)
+ * 		14S_20220506_P1.3#103	a PUMA element as the GC sheets name it, with date, suffix and batch (Kind.PUMA_GC)
+ * 		14S						the bare GC prefix of a PUMA element (Kind.PUMA_GC_PREFIX)
+ * 		anything else			a plain request (Kind.REQUEST)
+ *
+ * @author talon
+ * @see Puma
+ *
+ */
+public final class SampleName {
+
+
+
+	//the expressions of Puma, compiled once
+	private static final Pattern
+	GC_RESULT_NAME = Pattern.compile(Puma.PUMA_GC_RESULT_NAME),
+	GC_PREFIX = Pattern.compile("("+Puma.FEED_GC_PRE_EXP+")|("+Puma.RAFF_GC_PRE_EXP+")|("+Puma.EXTR_GC_PRE_EXP+")"),
+	//the name of a PUMA element on the key of a raw Agilent sheet, e.g. FEED_1.3, before its date is known
+	SHEET_KEY = Pattern.compile("(FEED|RAFFINATE|EXTRACT[1-9]?)_([Pp]?[1-9]\\.[1-9])");
+
+	//names classified so far, bounded since every sample ever ingested brings new ones
+	private static final int CLASSIFIED_NAMES = 4096;
+	private static final LoadingCache<String,SampleName> CLASSIFIED = CacheBuilder.newBuilder()
+			.maximumSize(CLASSIFIED_NAMES)
+			.build(CacheLoader.from(SampleName::new));
+
+
+
+	/**
+	 * Enumerates the kinds of sample name
+	 * @author talon
+	 *
+	 */
+	public static enum Kind {
+		REQUEST,
+		PUMA_LC,
+		PUMA_GC,
+		PUMA_GC_PREFIX;
+	}
+
+
+
+	private final String name;
+	private final Kind kind;
+	//PUMA set the name points to, as written in it (null if the name is too short to have one)
+	private final String suffix, dateText;
+	//prefix and suffix of a sheet key, or null if the name isn't one
+	private final String keyPrefix, keySuffix;
+	private volatile LocalDate date;
+
+
+
+	/* classifies a name; only called through of */
+	private SampleName(final String name) {
+		this.name = name;
+		if(Puma.nameIsFromPumaLC(name))
+			kind = Kind.PUMA_LC;
+		else if(GC_RESULT_NAME.matcher(name).matches())
+			kind = Kind.PUMA_GC;
+		else if(GC_PREFIX.matcher(name).matches())
+			kind = Kind.PUMA_GC_PREFIX;
+		else kind = Kind.REQUEST;
+		//LC names read PREFIX_SUFFIX_DATE, anything else is read like a GC name: PREFIX_DATE_SUFFIX#BATCH
+		if(kind == Kind.PUMA_LC) {
+			final String[] tokens = name.split("_");
+			dateText = tokens.length > 2 ? tokens[2] : null;
+			suffix = tokens.length > 2 ? (tokens[1].startsWith("P") ? tokens[1] : "P"+tokens[1]) : null;
+		} else {
+			final String[] withoutBatch = name.split("#");
+			final String[] tokens = (withoutBatch.length > 0 ? withoutBatch[0] : "").split("_");
+			dateText = tokens.length > 2 ? tokens[1] : null;
+			suffix = tokens.length > 2 ? tokens[2] : null;
+		}
+		final Matcher key = SHEET_KEY.matcher(name);
+		if(key.matches()) {
+			keyPrefix = key.group(1);
+			keySuffix = key.group(2);
+		} else keyPrefix = keySuffix = null;
+	}
+
+
+
+	/**
+	 * Finds the classification of a name, classifying it if it's novel
+	 * @param name of a sample
+	 * @return classified name
+	 */
+	public static final SampleName of(final String name) {
+		return CLASSIFIED.getUnchecked(name);
+	}
+
+
+
+
+
+
+
+	/**
+	 * @return the name as given
+	 */
+	public final String getName() { return name; }
+
+	/**
+	 * @return kind of name
+	 */
+	public final Kind getKind() { return kind; }
+
+	/* kind checks */
+	public final boolean isPumaLC() { return kind == Kind.PUMA_LC; }
+	public final boolean isPumaGC() { return kind == Kind.PUMA_GC; }
+	public final boolean isPumaGCPrefix() { return kind == Kind.PUMA_GC_PREFIX; }
+
+
+
+	/**
+	 * @return suffix of the PUMA set the name points to, e.g. P1.3, or null if the name has none
+	 */
+	public final String getSuffix() { return suffix; }
+
+
+
+	/**
+	 * @return date of the PUMA set the name points to as written, e.g. 20220506, or null if the name has none
+	 */
+	public final String getDateText() { return dateText; }
+
+
+
+	/**
+	 * Parses the date of the PUMA set the name points to, the first time it's asked for
+	 * @return date or null if the name has none or it isn't a valid date
+	 */
+	public final LocalDate getDate() {
+		LocalDate d = date;
+		if(d == null && dateText != null)
+			date = d = SampleFactory.parseDate(dateText);
+		return d;
+	}
+
+
+
+	/**
+	 * @return true if this is a PUMA element as named on the key of a raw Agilent sheet, e.g. FEED_1.3
+	 */
+	public final boolean isPumaSheetKey() { return keyPrefix != null; }
+
+
+
+	/**
+	 * Completes a PUMA sheet key into the LC name of its element
+	 * @param date of the element, as assembled by SampleFactory
+	 * @return LC name e.g. FEED_P1.3_20220506
+	 * @throws IllegalStateException if this isn't a sheet key
+	 */
+	public final String toLcName(final String date) {
+		if(keyPrefix == null)
+			throw new IllegalStateException(name+" isn't a PUMA sheet key");
+		return keyPrefix+"_P"+keySuffix+"_"+date;
+	}
+
+}
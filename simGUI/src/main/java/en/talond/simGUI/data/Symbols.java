@@ -0,0 +1,128 @@
+package en.talond.simGUI.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
+
+
+
+
+/**
+ * The symbol table shared by parsing, the working set and persistence.
+ * Compound names, result types and Agilent source paths repeat across thousands of rows,
+ * so each distinct one is kept once and every row refers to that same instance.
+ * Symbols are held weakly: one no row refers to anymore (e.g. the paths of a removed request) is let go.
+ * Comparisons still go through equals, since not every string is interned, but equal symbols
+ * are the same reference and equals returns on its first check.
+ * Joined paths are remembered by directory and data file for as long as both are in use,
+ * so the rows of a sheet usually concatenate each path once.
+ * For persistence, a Table numbers the symbols of one document, so they are written once and referred to by index.
+ * @author talon
+ *
+ */
+public final class Symbols {
+
+
+
+	private static final Interner<String> SYMBOLS = Interners.newWeakInterner();
+	//interned directory -> data file -> interned path, each let go with the path or directory
+	private static final ConcurrentMap<String,ConcurrentMap<String,String>> PATHS = new MapMaker().weakKeys().makeMap();
+
+
+
+	private Symbols() {}
+
+
+
+
+
+
+
+	/**
+	 * Finds the shared instance of a symbol, making this one shared if it's novel
+	 * @param symbol to intern (may be null)
+	 * @return shared instance equal to the symbol, or null
+	 */
+	public static final String of(final String symbol) {
+		return symbol == null ? null : SYMBOLS.intern(symbol);
+	}
+
+
+
+	/**
+	 * Finds the shared source path of an Agilent data file, e.g. D:/DATA/SEQ/ + 001-0101.D
+	 * @param directory the data file was written to
+	 * @param file name
+	 * @return shared "directory/file" path
+	 */
+	public static final String path(final String directory, final String file) {
+		//keys are compared by identity, which the interned directory makes sound
+		final ConcurrentMap<String,String> files = PATHS.computeIfAbsent(of(directory), d -> new MapMaker().weakValues().makeMap());
+		final String path = files.get(file);
+		if(path != null)
+			return path;
+		final String joined = of(directory + "/" + file);
+		files.putIfAbsent(of(file), joined);
+		return joined;
+	}
+
+
+
+	/**
+	 * Numbers the distinct symbols of one serialized document, in order of first use.
+	 * Symbols read back through a table are interned, so a loaded working set shares them as a parsed one would.
+	 * Not thread-safe; one table belongs to one document.
+	 * @author talon
+	 *
+	 */
+	public static final class Table {
+		private final Map<String,Integer> ids = new HashMap<>();
+		private final List<String> symbols = new ArrayList<>();
+
+		/* empty table, for writing */
+		public Table() {}
+
+		/* table of previously written symbols, for reading */
+		public Table(final List<String> written) {
+			for(final String s : written)
+				idOf(s);
+		}
+
+		/**
+		 * @param symbol to number (may be null)
+		 * @return index of the symbol, numbering it if it's novel, or -1 for null
+		 */
+		public final int idOf(final String symbol) {
+			if(symbol == null)
+				return -1;
+			final Integer id = ids.get(symbol);
+			if(id != null)
+				return id;
+			ids.put(symbol, symbols.size());
+			symbols.add(of(symbol));
+			return symbols.size() - 1;
+		}
+
+		/**
+		 * @param id of a symbol
+		 * @return shared symbol, or null for -1
+		 */
+		public final String at(final int id) {
+			return id < 0 ? null : symbols.get(id);
+		}
+
+		/**
+		 * @return every symbol, by index
+		 */
+		public final List<String> symbols() {
+			return symbols;
+		}
+	}
+
+}
@@ -3,12 +3,19 @@ package en.talond.simGUI.io;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.regex.Pattern;
 
 import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.ss.usermodel.*;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import en.talond.simGUI.Terminal;
 import en.talond.simGUI.data.Puma;
+import en.talond.simGUI.data.SampleName;
+import en.talond.simGUI.data.Symbols;
 
 
 
@@ -37,10 +44,56 @@ public class DataSheet {
 	 * @throws IOException
 	 */
 	public DataSheet(final File src) throws EncryptedDocumentException, IOException {
+		this(src, Mode.USERMODEL);
+	}
+	
+	
+	
+	/**
+	 * Creates a DataSheet from an xls or xlsx source file using the given parse mode.
+	 * CSV exports are always streamed, as there is no workbook to load.
+	 * @param src file
+	 * @param mode of parsing (usermodel or streaming)
+	 * @throws EncryptedDocumentException
+	 * @throws IOException
+	 */
+	public DataSheet(final File src, final Mode mode) throws EncryptedDocumentException, IOException {
 		this.src = src;
-		final Workbook w = WorkbookFactory.create(src);
-		contentMap = generateContentMap( w );
-		Terminal.say(this.stringify());
+		if(mode == Mode.STREAMING || SheetCsv.accepts(src)) {
+			final RowAssembler assembler = new RowAssembler();
+			SheetStream.read(src, assembler);
+			contentMap = assembler.getContentMap();
+		} else {
+			final Workbook w = WorkbookFactory.create(src);
+			contentMap = generateContentMap( w );
+		}
+		//dumping every cell is only worth its cost while debugging
+		Terminal.debug(this::stringify);
+	}
+	
+	
+	
+	/**
+	 * Recreates a DataSheet from a content map which was parsed before, e.g. one read from the SheetCache
+	 * @param src file the content map was parsed from
+	 * @param contentMap of sample names to their data
+	 */
+	DataSheet(final File src, final Map<String,SheetData[]> contentMap) {
+		this.src = src;
+		this.contentMap = contentMap;
+	}
+	
+	
+	
+	/**
+	 * Enumerates the ways a DataSheet can read its source file.
+	 * Both produce the same content map.
+	 * @author talon
+	 *
+	 */
+	public static enum Mode {
+		USERMODEL,		//loads the whole workbook into memory with WorkbookFactory
+		STREAMING;		//reads the rows once, front to back, with the POI event/SAX readers
 	}
 	
 	
@@ -76,12 +129,12 @@ public class DataSheet {
 	 * @return string representation of this DataSheet
 	 */
 	public final String stringify() {
-		String s = "";
+		final StringBuilder s = new StringBuilder();
 		final String[] keys = getSamples();
 		for(final String key : keys)
 			for(final SheetData ofSample : getDataOf(key))
-				s = "\t"+s+ofSample.stringify()+"\n";
-		return s;
+				ofSample.appendTo(s.append('\t')).append('\n');
+		return s.toString();
 	}
 
 
@@ -91,61 +144,69 @@ public class DataSheet {
 
 	/**
 	 * Parses the source file to map data to sample names.
+	 * Each sheet is walked once, row by row, through the same assembler a streamed sheet goes through.
 	 * @param sheet to parse (Apache Workbook representation)
 	 * @return content map
 	 */
 	private static final Map<String,SheetData[]> generateContentMap(final Workbook w) {
-		//Declaring a map of sample names to result sets
-		final Map<String,SheetData[]> contentMap = new HashMap<>();
+		final RowAssembler assembler = new RowAssembler();
 		//Iterates through each sheet of the workbook (mostly legacy feature; Agilent cross-sequence summaries never(?) create multiple sheets)
 		for(int i = 0; i < w.getNumberOfSheets(); i++) {
 			final Sheet s = w.getSheetAt(i);	//obtain the sheet for this iterations
-			//Finds the keys and the number of preps/dilutions for each sample in the key
-			final Queue<KeyRow> keys = parseKey(s);
-			final Integer[] prepsPerSample = findPrepsPerSample(keys.toArray(new KeyRow[] {}));
-			//Finds the all the result rows of the sheet and maps them to sample names
-			final Map<String,ResultRow[]> results = parseResults(s);
-			//Iterates through each sample
-			for (final Integer element : prepsPerSample) {
-				final int prepsOfListedSample = element;					//Collect the number of preparations for this sample
-				final KeyRow[] preps = new KeyRow[prepsOfListedSample];		//Collect all the preparations from the queue and add it to an array
-				//Polls the queue to create a key reference array to parse with
-				for(int k = prepsOfListedSample; k > 0; k--)
-					preps[prepsOfListedSample-k] = keys.poll();
-				//finalizes the key name (adjusments MUST be made to Puma elements)
-				String keyedSample = preps[0].getSample();
-				final ResultRow[] resultsOfAllPreps = results.get(keyedSample);
-				final String end = "_[Pp]?[1-9]\\.[1-9])";
-				if(keyedSample.matches("^(FEED"+end) || keyedSample.matches("^(RAFFINATE"+end) || keyedSample.matches("^(EXTRACT[1-9]?"+end)) try {
-					final String[] pumaKeyPieces = keyedSample.split("_");
-					keyedSample = pumaKeyPieces[0]+"_P"+pumaKeyPieces[1]+"_"+SampleFactory.assembleDate(Puma.parseDateFromSource(preps[0].getPath()));
-				} catch (Exception e) {
-					Terminal.say("Error parsing PUMA sample from data sheet: "+preps[0].getSample());
-				}
-				//Requests the keyed sample from the result map
-				//Creates a SheetData object for each instance of that sample in the key
-				final SheetData[] finalRawData = new SheetData[prepsOfListedSample];
-				for(int k = 0; k < finalRawData.length; k++)
-					finalRawData[k] = new SheetData(preps[k]);
-				for(int k = 0; k < resultsOfAllPreps.length; k++) {
-					final ResultRow[] supposedlyOfSameCompound = Arrays.copyOfRange(resultsOfAllPreps, k, k+prepsOfListedSample);
-					try {
-						if(supposedlyOfSameCompound[0].getCompound().equalsIgnoreCase(supposedlyOfSameCompound[supposedlyOfSameCompound.length-1].getCompound())) {
-							for(int x = 0; x < prepsOfListedSample; x++)
-								finalRawData[x].addResult(supposedlyOfSameCompound[x]);
-							k = k + prepsOfListedSample-1;
-						} else {
-							double maximalPrepAmount = 0.0;
-							for(int x = 0; x < prepsOfListedSample; x++)
-								if(maximalPrepAmount < finalRawData[x].getAmount())
-									maximalPrepAmount = finalRawData[x].getAmount();
-							SheetData leastDilutePrep = null;
-							for(int x = 0; x < prepsOfListedSample; x++)
-								if(finalRawData[x].getAmount() == maximalPrepAmount)
-									leastDilutePrep = finalRawData[x];
-							leastDilutePrep.addResult(resultsOfAllPreps[k]);
-						}
-					} catch (final NullPointerException e) {
+			assembler.startSheet();
+			for(int r = 0; r <= s.getLastRowNum(); r++)
+				assembler.row(r, Cells.of(s.getRow(r)));
+			assembler.endSheet();
+		}
+		try {
+			w.close();
+		} catch (IOException e) {
+			Terminal.specifyFullError(e);
+		}
+		return assembler.getContentMap();
+	}
+
+
+
+	/**
+	 * Matches the keyed preparations of one sheet to their result rows and
+	 * places the assembled sheet data into the content map.
+	 * @param keys parsed from the sheet (consumed)
+	 * @param results of the sheet mapped to sample names
+	 * @param content map to fill
+	 */
+	private static final void mapSheet(final Queue<KeyRow> keys, final Map<String,ResultRow[]> results, final Map<String,SheetData[]> contentMap) {
+		//Finds the number of preps/dilutions for each sample in the key
+		final Integer[] prepsPerSample = findPrepsPerSample(keys.toArray(new KeyRow[] {}));
+		//Iterates through each sample
+		for (final Integer element : prepsPerSample) {
+			final int prepsOfListedSample = element;					//Collect the number of preparations for this sample
+			final KeyRow[] preps = new KeyRow[prepsOfListedSample];		//Collect all the preparations from the queue and add it to an array
+			//Polls the queue to create a key reference array to parse with
+			for(int k = prepsOfListedSample; k > 0; k--)
+				preps[prepsOfListedSample-k] = keys.poll();
+			//finalizes the key name (adjusments MUST be made to Puma elements)
+			String keyedSample = preps[0].getSample();
+			final ResultRow[] resultsOfAllPreps = results.get(keyedSample);
+			final SampleName name = SampleName.of(keyedSample);
+			if(name.isPumaSheetKey()) try {
+				keyedSample = name.toLcName(SampleFactory.assembleDate(Puma.parseDateFromSource(preps[0].getPath())));
+			} catch (Exception e) {
+				Terminal.say("Error parsing PUMA sample from data sheet: "+preps[0].getSample());
+			}
+			//Requests the keyed sample from the result map
+			//Creates a SheetData object for each instance of that sample in the key
+			final SheetData[] finalRawData = new SheetData[prepsOfListedSample];
+			for(int k = 0; k < finalRawData.length; k++)
+				finalRawData[k] = new SheetData(preps[k]);
+			for(int k = 0; k < resultsOfAllPreps.length; k++) {
+				final ResultRow[] supposedlyOfSameCompound = Arrays.copyOfRange(resultsOfAllPreps, k, k+prepsOfListedSample);
+				try {
+					if(supposedlyOfSameCompound[0].getCompound().equalsIgnoreCase(supposedlyOfSameCompound[supposedlyOfSameCompound.length-1].getCompound())) {
+						for(int x = 0; x < prepsOfListedSample; x++)
+							finalRawData[x].addResult(supposedlyOfSameCompound[x]);
+						k = k + prepsOfListedSample-1;
+					} else {
 						double maximalPrepAmount = 0.0;
 						for(int x = 0; x < prepsOfListedSample; x++)
 							if(maximalPrepAmount < finalRawData[x].getAmount())
@@ -156,17 +217,21 @@ public class DataSheet {
 								leastDilutePrep = finalRawData[x];
 						leastDilutePrep.addResult(resultsOfAllPreps[k]);
 					}
-
+				} catch (final NullPointerException e) {
+					double maximalPrepAmount = 0.0;
+					for(int x = 0; x < prepsOfListedSample; x++)
+						if(maximalPrepAmount < finalRawData[x].getAmount())
+							maximalPrepAmount = finalRawData[x].getAmount();
+					SheetData leastDilutePrep = null;
+					for(int x = 0; x < prepsOfListedSample; x++)
+						if(finalRawData[x].getAmount() == maximalPrepAmount)
+							leastDilutePrep = finalRawData[x];
+					leastDilutePrep.addResult(resultsOfAllPreps[k]);
 				}
-				contentMap.put(keyedSample,finalRawData);
+
 			}
+			contentMap.put(keyedSample,finalRawData);
 		}
-		try {
-			w.close();
-		} catch (IOException e) {
-			Terminal.specifyFullError(e);
-		}
-		return contentMap;
 	}
 
 
@@ -206,6 +271,11 @@ public class DataSheet {
 			this.key = key;
 			data = new LinkedList<>();
 		}
+		/* recreates the data of one preparation, e.g. from the SheetCache */
+		SheetData(final String sample, final String source, final Double amount, final List<ResultRow> rows) {
+			this(new KeyRow(sample, amount, source));
+			data.addAll(rows);
+		}
 		/* used by the parse function to append results */
 		private final void addResult(final ResultRow toAdd) { data.add(toAdd); }
 		/* getters for key information */
@@ -213,10 +283,10 @@ public class DataSheet {
 		public final String getSource() { return key.getPath(); }
 		public final Double getAmount() { return key.getAmount(); }
 		public final List<ResultRow> getData() { return data; }
-		private final String stringify() {
-			String s = key.stringify()+"\n";
+		private final StringBuilder appendTo(final StringBuilder s) {
+			s.append(key.stringify()).append('\n');
 			for(final ResultRow r : getData())
-				s += r.stringify()+"\n";
+				s.append(r.stringify()).append('\n');
 			return s;
 		}
 	}
@@ -226,79 +296,185 @@ public class DataSheet {
 
 
 	/**
-	 * Creates a queue from the key at the start of a data sheet.
-	 * This function will look for a key header row. When one is found,
-	 * 	it will begin parsing row by row, until an empty cell is found,
-	 * 	at which point it is assumed the full array has been generated.
-	 *
-	 * The array should roughly follow this scheme:
-	 *
-	 * 					KeyRow[] = { sample0, sample0, sample1, sample2,  }
+	 * The kinds of row a data sheet is made of, in the order they usually appear.
+	 * The key comes first: its header, then one row per preparation, ending with a row whose sample is blank.
+	 * Then each sample has a table: its header, the row naming the sample, its data rows and two blank rows.
+	 * @author talon
 	 *
-	 * 		Different preparations of the same sample should be all in a row,
-	 * 		and each name on the sheet should be completely unique. Ambiguity
-	 * 		is unacceptable.
-	 * @param excel sheet to parse
-	 * @return ordered array of rows of the key
 	 */
-	private static final Queue<KeyRow> parseKey(final Sheet s) {
-		int keyStart = 0;	//Inclusive
-		int keyEnd = 0;		//Exclusive
-		//Iterate through the sheet to find the start of the key
-		for(int i = 0; i < s.getLastRowNum(); i++)
-			if(isKeyHeader(s.getRow(i))) {
-				keyStart = i+1;
-				break;
-			} else continue;
-		//Iterate after the start of the key until an empty sample cell is found to find the end of the key
-		for(int i = keyStart; i < s.getLastRowNum(); i++)
-			if(s.getRow(i).getCell(SAMPLE_COL).getStringCellValue().equals("")) {
-				keyEnd = i;
-				break;
-			} else continue;
-		//Collect the key between the found values
-		final Queue<KeyRow> keys = new LinkedList<>();
-		for(int i = keyStart; i <= keyEnd; i++)
-			keys.add(new KeyRow(s.getRow(i)));
-		return keys;
+	static enum RowKind {
+		KEY_HEADER,		//names the key's columns, e.g. "Sample  Name" ... "Data File"
+		KEY_ROW,		//one preparation of the key, including the blank row that ends it
+		TABLE_HEADER,	//names the table's columns, e.g. "Compound", "Method", ... "Dilute PPM"
+		SAMPLE_ROW,		//"Sample:" and the name of the sample the table belongs to
+		DATA_ROW,		//one result of the open table
+		BLANK;			//anything else, e.g. the spacer rows between tables
 	}
 
 
 
-	private static final Map<String,ResultRow[]> parseResults(final Sheet s)
-	{
-		final Map<String,ResultRow[]> allResults = new HashMap<>();
-		//Obtains a list of row indices for data table headers
-		final List<Integer> headerIndices = new LinkedList<>();
-		for(int i = 0; i < s.getLastRowNum(); i++)
-			if(isHeader(s.getRow(i)))
-				headerIndices.add(i);
-		//Goes through each header index that was found and creates a map entry
-		for(int i = 0; i < headerIndices.size(); i++) {
-			//Finds the indexes to parse between
-			final int sampleRowNum = headerIndices.get(i)+1;	//The row below the header should contain the sample name
-			int nextHeaderRowNum;						//The next header will tell the loop when to stop looking for this samples data
-			try {											//Collects the next header index
-				nextHeaderRowNum = headerIndices.get(i+1);
-			} catch (final IndexOutOfBoundsException e) {			//Or if there isn't one, use the last row as the end
-				nextHeaderRowNum = s.getLastRowNum()+2;			// 2 has to be added to account for the usual two blank rows under before a header
+	/**
+	 * Builds the content map from rows handed over one at a time, front to back.
+	 * Each row is classified once by where the sheet is at (in the key, in a table, between tables),
+	 * and handled as its kind of row, so KeyRows and ResultRows are built as the sheet is walked.
+	 * Both parse modes feed the same assembler: the usermodel rows of a loaded workbook,
+	 * or the streamed rows of SheetStream, where the workbook itself is never held in memory.
+	 * Only the last two rows of the current table are held back, since the two rows above the next header are not data.
+	 * @author talon
+	 * @see SheetStream
+	 */
+	static final class RowAssembler implements SheetStream.RowSink {
+		
+		//finished map of every sheet streamed so far
+		private final Map<String,SheetData[]> contentMap = new HashMap<>();
+		//key trackers for the current sheet
+		private Queue<KeyRow> keys;
+		private Columns keyColumns;
+		private boolean keyDone;
+		//table trackers for the current sheet
+		private Map<String,ResultRow[]> results;
+		private final Deque<PendingRow> pending = new ArrayDeque<>(3);
+		private List<ResultRow> tableRows;
+		private String tableSample;
+		//columns of the open table, and of a header just classified but not yet handled
+		private Columns tableColumns, headerColumns;
+		private int headerIndex, lastIndex;
+		
+		/**
+		 * @return content map of every sheet streamed into this assembler
+		 */
+		final Map<String,SheetData[]> getContentMap() { return contentMap; }
+		
+		@Override public final void startSheet() {
+			keys = new LinkedList<>();
+			results = new HashMap<>();
+			keyColumns = tableColumns = headerColumns = null;
+			keyDone = false;
+			tableRows = null;
+			tableSample = null;
+			pending.clear();
+			headerIndex = lastIndex = -1;
+		}
+		
+		@Override public final void row(final int index, final String[] cells) {
+			row(index, Cells.of(cells));
+		}
+		
+		/**
+		 * Classifies one row and handles it as that kind of row
+		 * @param index of the row in its sheet
+		 * @param cells of the row
+		 */
+		final void row(final int index, final Cells row) {
+			lastIndex = index;
+			switch(classify(index, row)) {
+			case KEY_HEADER:
+				keyColumns = headerColumns;
+				break;
+			case KEY_ROW:
+				//the key runs up to and including the first row with a blank sample
+				keys.add(new KeyRow(row, keyColumns));
+				keyDone = keyColumns.get(row, Column.SAMPLE).isEmpty();
+				break;
+			case TABLE_HEADER:
+				//a table header closes the previous table
+				closeTable(index-3);
+				tableColumns = headerColumns;
+				headerIndex = index;
+				break;
+			case SAMPLE_ROW:
+				tableSample = row.get(row.firstFilled()+1).toUpperCase();
+				tableRows = new LinkedList<>();
+				break;
+			case DATA_ROW:
+			case BLANK:
+				if(tableSample != null) {
+					//anything two rows above this one can no longer be one of the blank rows before a header
+					release(index-2);
+					pending.add(new PendingRow(index, row));
+				}
+				break;
 			}
-			//
-			final Row sampleRow = s.getRow(sampleRowNum);			//Collects supposed sample row
-			final String sampleName = sampleRow.getCell(1).getStringCellValue().toUpperCase();
-			final boolean validRow = sampleRow.getCell(0).getStringCellValue().equals(SAMPLE_FIELD);
-			//Moves on to the next header index if the sample header row is invalid
-			if(!validRow)
-				;
-			// otherwise...
-			else {
-				final ResultRow[] dataRows = new ResultRow[nextHeaderRowNum-sampleRowNum-3];	//Get the data rows between the current and next header
-				for(int j = sampleRowNum+1; j < nextHeaderRowNum-2; j++)				//Iterate through each data row and create a RawData object
-					dataRows[j-sampleRowNum-1] = new ResultRow(s.getRow(j));
-				allResults.put(sampleName, dataRows);										//Places the rawData into the map with the listed sample
+		}
+		
+		@Override public final void endSheet() {
+			//an unterminated key is discarded
+			if(!keyDone)
+				keys.clear();
+			//the last row of the sheet is never data
+			closeTable(lastIndex-1);
+			mapSheet(keys, results, contentMap);
+		}
+		
+		/**
+		 * Decides what kind of row this is, given what came before it
+		 * @param index of the row
+		 * @param cells of the row
+		 * @return kind of row
+		 */
+		private final RowKind classify(final int index, final Cells row) {
+			if(keyColumns == null && (headerColumns = Columns.of(row, Column.KEY)) != null)
+				return RowKind.KEY_HEADER;
+			if(keyColumns != null && !keyDone)
+				return RowKind.KEY_ROW;
+			if(isTableHeader(row))
+				return RowKind.TABLE_HEADER;
+			if(headerIndex > -1 && index == headerIndex+1) {
+				//a table without a sample row is skipped up to the next header
+				final int label = row.firstFilled();
+				return label > -1 && row.get(label).equals(SAMPLE_FIELD) ? RowKind.SAMPLE_ROW : RowKind.BLANK;
+			}
+			if(tableSample != null && !tableColumns.get(row, Column.COMPOUND).isEmpty())
+				return RowKind.DATA_ROW;
+			return RowKind.BLANK;
+		}
+		
+		/**
+		 * Checks for a table header, mapping its columns into headerColumns if it is one
+		 * @param row to check
+		 * @return true for a table header
+		 */
+		private final boolean isTableHeader(final Cells row) {
+			if(tableColumns != null && tableColumns.repeatedBy(row, Column.TABLE)) {
+				headerColumns = tableColumns;
+				return true;
+			}
+			return (headerColumns = Columns.of(row, Column.TABLE)) != null;
+		}
+		
+		/**
+		 * Finishes the open table, keeping pending rows up to the given row index
+		 * @param last row index that still belongs to the table
+		 */
+		private final void closeTable(final int lastIncluded) {
+			if(tableSample != null) {
+				release(lastIncluded);
+				results.put(tableSample, tableRows.toArray(new ResultRow[0]));
+			}
+			pending.clear();
+			tableRows = null;
+			tableSample = null;
+			headerIndex = -1;
+		}
+		
+		/**
+		 * Turns held back rows into result rows
+		 * @param last row index to release
+		 */
+		private final void release(final int lastIncluded) {
+			while(!pending.isEmpty() && pending.peek().index <= lastIncluded)
+				tableRows.add(new ResultRow(pending.poll().cells, tableColumns));
+		}
+		
+		/* a row of the open table that has not been confirmed as data yet */
+		private static final class PendingRow {
+			private final int index;
+			private final Cells cells;
+			private PendingRow(final int index, final Cells cells) {
+				this.index = index;
+				this.cells = cells;
 			}
 		}
-		return allResults;
 	}
 
 
@@ -313,72 +489,244 @@ public class DataSheet {
 
 
 
-	//Valid key header
-	private static final String
-	SAMPLE_HEADER = "Sample  Name",
-	AMOUNT_HEADER = "Sample Amt",
-	PATH_HEADER = "Directory",
-	FILE_HEADER = "Data File";
-	//Locations of valid key data
-	private static final int
-	SAMPLE_COL = 0,
-	AMOUNT_COL = 5,
-	PATH_COL= 9,
-	FILE_COL = 11;
-	//Valid sample header
+	//Label of the row below a table header, followed by the name of the sample
 	private static final String
 	SAMPLE_FIELD	= "Sample:";
-	//Valid header contents
-	private static final String
-	COMPOUND_HEADER = "Compound",
-	METHOD_HEADER	= "Method",
-	DESC_HEADER		= "Desc.",
-	AREA_HEADER		= "Area",
-	AREAP_HEADER	= "Area %",
-	MASSP_HEADER	= "Mass %",
-	PPM_HEADER		= "Dilute PPM";
-	//Locations of valid data
-	private static final int
-	COMPOUND_COL= 0,
-	METHOD_COL	= 1,
-	DESC_COL	= 4,
-	AREA_COL	= 6,
-	AREAP_COL	= 8,
-	MASSP_COL	= 10,
-	PPM_COL		= 12;
 
 
 
 	/**
-	 * Checks to see if the contents of a row match the expected values for a header row
-	 * @param row to check
-	 * @return true for a header row
+	 * The columns the parser reads: the key's columns first, then the columns of a result table
+	 * @author talon
+	 *
 	 */
-	private static final boolean isHeader(final Row toCheck)
-	{
-		//Gets the contents of each each cell
-		final String compoundHeader = toCheck.getCell(COMPOUND_COL).getStringCellValue();
-		final String methodHeader	  = toCheck.getCell(METHOD_COL).getStringCellValue();
-		final String descHeader	  = toCheck.getCell(DESC_COL).getStringCellValue();
-		final String areaHeader	  = toCheck.getCell(AREA_COL).getStringCellValue();
-		final String areapHeader	  = toCheck.getCell(AREAP_COL).getStringCellValue();
-		final String masspHeader	  = toCheck.getCell(MASSP_COL).getStringCellValue();
-		final String ppmHeader	  = toCheck.getCell(PPM_COL).getStringCellValue();
-		//Checks the contents
-		return compoundHeader.equals(COMPOUND_HEADER) && methodHeader.equals(METHOD_HEADER)
-				&& descHeader.equals(DESC_HEADER) && areaHeader.equals(AREA_HEADER) && areapHeader.equals(AREAP_HEADER)
-				&& masspHeader.equals(MASSP_HEADER) && ppmHeader.equals(PPM_HEADER);
+	static enum Column {
+		SAMPLE, AMOUNT, DIRECTORY, DATA_FILE,
+		COMPOUND, METHOD, DESC, AREA, AREA_PERCENT, MASS_PERCENT, DILUTE_PPM;
+		/* columns of the key header */
+		private static final Column[] KEY = { SAMPLE, AMOUNT, DIRECTORY, DATA_FILE };
+		/* columns of a table header */
+		private static final Column[] TABLE = { COMPOUND, METHOD, DESC, AREA, AREA_PERCENT, MASS_PERCENT, DILUTE_PPM };
 	}
 
 
-	private static final boolean isKeyHeader(final Row toCheck)
-	{
-		final String sampleHeader = toCheck.getCell(SAMPLE_COL).getStringCellValue();
-		final String amountHeader = toCheck.getCell(AMOUNT_COL).getStringCellValue();
-		final String pathHeader = toCheck.getCell(PATH_COL).getStringCellValue();
-		final String fileHeader = toCheck.getCell(FILE_COL).getStringCellValue();
-		return sampleHeader.equals(SAMPLE_HEADER) && amountHeader.equals(AMOUNT_HEADER)
-				&& pathHeader.equals(PATH_HEADER) && fileHeader.equals(FILE_HEADER);
+
+	/**
+	 * Registry of the export layouts the parser knows, by the header text each gives the columns.
+	 * Columns are found by their header text rather than their position, so an export whose columns
+	 * are inserted, dropped or moved parses without an entry of its own; only one which renames a header needs one.
+	 * Header text is matched ignoring case and the width of whitespace.
+	 * @author talon
+	 *
+	 */
+	static enum Layout {
+		//ChemStation cross-sequence summary, which OpenLab exports the same way
+		CHEMSTATION("Sample  Name", "Sample Amt", "Directory", "Data File",
+				"Compound", "Method", "Desc.", "Area", "Area %", "Mass %", "Dilute PPM");
+
+		//header text, by column
+		private final String[] headers;
+		Layout(final String... headers) {
+			this.headers = headers;
+		}
+	}
+
+
+
+	/**
+	 * Maps each column of a key or table header to its index in the row, so the rows below it are read by column.
+	 * Built once per header; the map of the previous table header is tried first, since one export writes every table alike.
+	 * Any other row is turned away on its first filled cell: an exact lookup, then a comparison against the
+	 * few headers starting with the same letter, neither of which allocates.
+	 * @author talon
+	 *
+	 */
+	static final class Columns {
+		private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+		//header text of every known layout, collapsed to single spaces, to the column it names
+		private static final Map<String,Column> NAMES = new HashMap<>();
+		//the same header text by its first character in lower case, for cells which differ from it in case or whitespace
+		private static final Map<Character,List<String>> BY_FIRST = new HashMap<>();
+		static {
+			for(final Layout l : Layout.values())
+				for(final Column c : Column.values()) {
+					final String header = collapse(l.headers[c.ordinal()]);
+					NAMES.put(header, c);
+					BY_FIRST.computeIfAbsent(Character.toLowerCase(header.charAt(0)), k -> new ArrayList<>()).add(header);
+				}
+		}
+		//column indices of ChemStation exports, for rows read without their header
+		static final Columns CHEMSTATION = new Columns(new int[] {0, 5, 9, 11, 0, 1, 4, 6, 8, 10, 12}, null);
+
+		private final int[] index;
+		//header text the map was built from, by column
+		private final String[] text;
+
+		private Columns(final int[] index, final String[] text) {
+			this.index = index;
+			this.text = text;
+		}
+
+		/**
+		 * Maps a header row, if it is one
+		 * @param header row to map
+		 * @param columns the header must have (Column.KEY or Column.TABLE)
+		 * @return map of the header, or null if the row isn't a header with every one of the columns
+		 */
+		private static final Columns of(final Cells header, final Column[] required) {
+			//skips ordinary rows without reading past their first cell
+			final int first = header.firstFilled();
+			if(first < 0 || named(header.get(first)) == null)
+				return null;
+			final int[] index = new int[Column.values().length];
+			final String[] text = new String[index.length];
+			Arrays.fill(index, -1);
+			int found = 0;
+			for(int col = first; col < header.width(); col++) {
+				final String cell = header.get(col);
+				final Column c = named(cell);
+				if(c != null && index[c.ordinal()] < 0 && isOneOf(c, required)) {
+					index[c.ordinal()] = col;
+					text[c.ordinal()] = cell;
+					found++;
+				}
+			}
+			return found == required.length ? new Columns(index, text) : null;
+		}
+
+		/**
+		 * Checks for the same header this map was built from, in the same columns
+		 * @param row to check
+		 * @param columns of the header
+		 * @return true if the row repeats the header
+		 */
+		private final boolean repeatedBy(final Cells row, final Column[] required) {
+			for(final Column c : required)
+				if(!row.get(index[c.ordinal()]).equals(text[c.ordinal()]))
+					return false;
+			return true;
+		}
+
+		/* contents of a column of a row below the header */
+		private final String get(final Cells row, final Column c) {
+			return row.get(index[c.ordinal()]);
+		}
+
+		/* column named by header text, or null */
+		private static final Column named(final String text) {
+			final Column c = NAMES.get(text);
+			if(c != null)
+				return c;
+			int first = 0;
+			while(first < text.length() && isSpace(text.charAt(first)))
+				first++;
+			if(first == text.length())
+				return null;
+			final List<String> candidates = BY_FIRST.get(Character.toLowerCase(text.charAt(first)));
+			if(candidates != null)
+				for(final String header : candidates)
+					if(sameHeader(text, first, header))
+						return NAMES.get(header);
+			return null;
+		}
+
+		/* header text without surrounding whitespace, and with one space in place of each run of it */
+		private static final String collapse(final String text) {
+			return WHITESPACE.matcher(text.trim()).replaceAll(" ");
+		}
+
+		/**
+		 * Compares a cell to collapsed header text, ignoring case and the width of whitespace
+		 * @param text of the cell
+		 * @param first non-whitespace character of the cell
+		 * @param header text, collapsed
+		 * @return true if the cell names the header
+		 */
+		private static final boolean sameHeader(final String text, final int first, final String header) {
+			int at = first;
+			for(int h = 0; h < header.length(); h++) {
+				final char expected = header.charAt(h);
+				if(expected == ' ') {
+					//a space stands for any run of whitespace
+					if(at == text.length() || !isSpace(text.charAt(at)))
+						return false;
+					while(at < text.length() && isSpace(text.charAt(at)))
+						at++;
+				} else if(at == text.length() || !sameLetter(text.charAt(at++), expected))
+					return false;
+			}
+			while(at < text.length() && isSpace(text.charAt(at)))
+				at++;
+			return at == text.length();
+		}
+
+		/* whitespace as the WHITESPACE pattern reads it */
+		private static final boolean isSpace(final char c) {
+			return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+		}
+
+		/* compares two characters the way String.CASE_INSENSITIVE_ORDER does */
+		private static final boolean sameLetter(final char a, final char b) {
+			if(a == b)
+				return true;
+			final char upperA = Character.toUpperCase(a), upperB = Character.toUpperCase(b);
+			return upperA == upperB || Character.toLowerCase(upperA) == Character.toLowerCase(upperB);
+		}
+
+		private static final boolean isOneOf(final Column c, final Column[] columns) {
+			for(final Column other : columns)
+				if(c == other)
+					return true;
+			return false;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Minimal view of the string contents of a row, so the row wrappers below
+	 * can be built from a usermodel Row or from a streamed array of cell strings.
+	 * @author talon
+	 *
+	 */
+	private static interface Cells {
+		/* string contents of the cell in the given column (empty past the last cell) */
+		String get(int col);
+		/* number of cells up to and including the last one */
+		int width();
+		/* index of the first cell with contents, or -1 for a blank row */
+		default int firstFilled() {
+			for(int col = 0; col < width(); col++)
+				if(!get(col).isEmpty())
+					return col;
+			return -1;
+		}
+		/* reads straight from a usermodel row, where missing rows and cells are empty like streamed ones */
+		static Cells of(final Row r) {
+			return new Cells() {
+				@Override public String get(final int col) {
+					final Cell c = r == null || col < 0 ? null : r.getCell(col);
+					return c == null ? "" : c.getStringCellValue();
+				}
+				@Override public int width() {
+					return r == null ? 0 : Math.max(0, r.getLastCellNum());
+				}
+			};
+		}
+		/* reads from a streamed row, where missing cells are empty */
+		static Cells of(final String[] r) {
+			return new Cells() {
+				@Override public String get(final int col) {
+					return col >= 0 && col < r.length && r[col] != null ? r[col] : "";
+				}
+				@Override public int width() {
+					return r.length;
+				}
+			};
+		}
 	}
 
 
@@ -396,11 +744,17 @@ public class DataSheet {
 		/* instance data */
 		private final String sample, filePath;
 		private final Double amount;
-		/* constructor from sheet */
-		private KeyRow(final Row r) {
-			sample = collectSample(r);
-			amount = collectAmount(r);
-			filePath = collectPath(r);
+		/* constructor from fields which were parsed before */
+		private KeyRow(final String sample, final Double amount, final String filePath) {
+			this.sample = Symbols.of(sample);
+			this.amount = amount;
+			this.filePath = Symbols.of(filePath);
+		}
+		/* constructor from any row of cell strings, read through the columns of the key header */
+		private KeyRow(final Cells r, final Columns cols) {
+			sample = collectSample(cols.get(r, Column.SAMPLE));
+			amount = collectAmount(cols.get(r, Column.AMOUNT));
+			filePath = Symbols.path(cols.get(r, Column.DIRECTORY), cols.get(r, Column.DATA_FILE));
 		}
 		/* getters */
 		private final String getSample() { return sample; }
@@ -411,19 +765,16 @@ public class DataSheet {
 			return sample+" "+amount+":\t"+filePath;
 		}
 		/* construction helper methods */
-		private static final String collectSample(final Row r) {
-			return  r.getCell(SAMPLE_COL).getStringCellValue().toUpperCase();
+		private static final String collectSample(final String cell) {
+			return  Symbols.of(cell.toUpperCase());
 		}
-		private static final Double collectAmount(final Row r) {
+		private static final Double collectAmount(final String cell) {
 			try {
-				return Double.parseDouble(r.getCell(AMOUNT_COL).getStringCellValue());
+				return Double.parseDouble(cell);
 			} catch (final NumberFormatException e) {
 				return 0.0;
 			}
 		}
-		private static final String collectPath(final Row r) 	 {
-			return r.getCell(PATH_COL).getStringCellValue() + "/" + r.getCell(FILE_COL).getStringCellValue();
-		}
 
 	}
 
@@ -441,14 +792,16 @@ public class DataSheet {
 		private final String compound,desc;
 		private final Double area, areaP, massP, dilutePPM;
 		/* primary constructor */
-		public ResultRow(final Row row) {
-			compound = collectCompound(row);
-			method = collectMethod(row);
-			desc = collectDescription(row);
-			area = collectArea(row);
-			areaP = collectAreaP(row);
-			massP = collectMassP(row);
-			dilutePPM = collectPPM(row);
+		public ResultRow(final Row row) { this(Cells.of(row), Columns.CHEMSTATION); }
+		/* constructor from any row of cell strings, read through the columns of its table header */
+		private ResultRow(final Cells row, final Columns cols) {
+			compound = Symbols.of(cols.get(row, Column.COMPOUND));
+			method = Method.detect(cols.get(row, Column.METHOD));
+			desc = Symbols.of(cols.get(row, Column.DESC));
+			area = Double.parseDouble(cols.get(row, Column.AREA));
+			areaP = Double.parseDouble(cols.get(row, Column.AREA_PERCENT));
+			massP = wrapVal(cols.get(row, Column.MASS_PERCENT));
+			dilutePPM = Double.parseDouble(cols.get(row, Column.DILUTE_PPM));
 		}
 
 		/* testing constructor */
@@ -469,35 +822,29 @@ public class DataSheet {
 			if(method != null)
 				return method; 
 			else
-				Terminal.say("WARNING: NULL METHOD FOR KEY ROW. Double check regexp strings.");
+				Terminal.warn("WARNING: NULL METHOD FOR KEY ROW. Double check regexp strings.");
 			return null;
 		}
+		/* method without the warning, which may be null */
+		final Method getDetectedMethod()	{ return method; }
 		public final String getDesc()		{ return desc; }
 		public final Double getArea()		{ return area; }
 		public final Double getAreaP()		{ return areaP; }
 		public final Double getMassP()		{ return massP; }
 		public final Double getPPM()		{ return dilutePPM; }
 		public final String stringify() 	{ return method.name()+S+compound+S+desc+S+area+S+areaP+S+massP+S+dilutePPM; }	private static final String S = " ";
-		/* Data collection helper methods */
-		private static final String collectCompound(final Row row) 		{ return row.getCell(COMPOUND_COL).getStringCellValue();}
-		private static final Method collectMethod(final Row row)		{ return Method.detect(row.getCell(METHOD_COL).getStringCellValue()); }
-		private static final String collectDescription(final Row row)	{ return row.getCell(DESC_COL).getStringCellValue(); }
-		private static final Double collectArea(final Row row)			{ return Double.parseDouble(row.getCell(AREA_COL).getStringCellValue()); }
-		private static final Double collectAreaP(final Row row) 		{ return Double.parseDouble(row.getCell(AREAP_COL).getStringCellValue()); }
-		private static final Double collectMassP(final Row row)			{ return wrapVal(row.getCell(MASSP_COL)); }
-		private static final Double collectPPM(final Row row)			{ return Double.parseDouble(row.getCell(PPM_COL).getStringCellValue()); }
 	}
 
 
 	/**
 	 * Attempts to retrieve the mass percent of a cell,
 	 * 	and returns negative one is the cell is NaN
-	 * @param cell
+	 * @param cell contents
 	 * @return mass percent from cell or -1.0
 	 */
-	private static final Double wrapVal(final Cell cell) {
+	private static final Double wrapVal(final String cell) {
 		try {
-			return Double.parseDouble(cell.getStringCellValue());
+			return Double.parseDouble(cell);
 		} catch(final NumberFormatException e) {
 			return INVALID_MASS_PERCENT;
 		}
@@ -539,12 +886,26 @@ public class DataSheet {
 			this.regexp = regexp; 
 		}
 
+		//method names already detected, since every row of a sheet repeats one of a handful; bounded, as the names come from the sheets
+		private static final LoadingCache<String,Optional<Method>> DETECTED = CacheBuilder.newBuilder()
+				.maximumSize(256)
+				.build(CacheLoader.from(name -> Optional.ofNullable(scan(name))));
+
 		/**
-		 * Iterates through the enumeration to find a method pattern which matches the name given
+		 * Finds the method of a method name, remembering the answer for the next row with the same name
 		 * @param possibleMethod
 		 * @return method found or null
 		 */
 		public static final Method detect(final String possibleMethod) {
+			return DETECTED.getUnchecked(possibleMethod).orElse(null);
+		}
+
+		/**
+		 * Iterates through the enumeration to find a method pattern which matches the name given
+		 * @param possibleMethod
+		 * @return method found or null
+		 */
+		private static final Method scan(final String possibleMethod) {
 			for(final Method m : Method.values())
 				if(possibleMethod.toUpperCase().contains(m.regexp))
 					return m;
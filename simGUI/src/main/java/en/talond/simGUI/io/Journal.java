@@ -0,0 +1,249 @@
+package en.talond.simGUI.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import en.talond.simGUI.Terminal;
+
+
+
+
+
+
+/**
+ * Append-only journal of operations, flushed to disk as each one is appended.
+ * Every journal belongs to a generation, which is bumped each time the journaled
+ * operations are folded into a snapshot and the journal is reset. Replay stops at the
+ * first torn or corrupt record and cuts it off, since it can only be an unfinished append.
+ *
+ * 		header:	MAGIC  generation
+ * 		record:	length  crc  { op  count  { length  bytes }... }
+ *
+ * @author talon
+ * @see WorkingSet
+ *
+ */
+public final class Journal implements Closeable {
+
+
+
+	private static final int
+	MAGIC = 0x53494D4A,			//"SIMJ"
+	HEADER_SIZE = 12,
+	RECORD_HEADER_SIZE = 8;
+
+
+
+	private final FileChannel channel;
+	private long generation, end;
+
+
+
+	/**
+	 * Opens a journal, creating an empty one of generation 0 if none exists
+	 * @param file of the journal
+	 * @throws IOException if the file exists but isn't a journal
+	 */
+	private Journal(final File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(channel.size() < HEADER_SIZE)
+			reset(0);
+		else {
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, 0);
+			header.flip();
+			if(header.getInt() != MAGIC)
+				throw new IOException(file+" is not a working set journal");
+			generation = header.getLong();
+			end = channel.size();
+		}
+	}
+
+
+
+	/**
+	 * Opens the journal at the given file, creating it if it doesn't exist
+	 * @param file of the journal
+	 * @return opened journal
+	 * @throws IOException if the file exists but isn't a journal
+	 */
+	public static final Journal open(final File file) throws IOException {
+		return new Journal(file);
+	}
+
+
+
+	/**
+	 * Receives each operation of a replayed journal
+	 * @author talon
+	 *
+	 */
+	public static interface Handler {
+		void apply(String op, String[] args) throws Exception;
+	}
+
+
+
+
+
+
+
+	/**
+	 * @return generation of this journal
+	 */
+	public final synchronized long getGeneration() {
+		return generation;
+	}
+
+
+
+	/**
+	 * @return true if no operations have been appended since the last reset
+	 */
+	public final synchronized boolean isEmpty() {
+		return end <= HEADER_SIZE;
+	}
+
+
+
+	/**
+	 * @return size of the journal in bytes
+	 */
+	public final synchronized long size() {
+		return end;
+	}
+
+
+
+	/**
+	 * Appends an operation and flushes it to disk
+	 * @param op name
+	 * @param args of the operation
+	 * @throws IOException if the operation couldn't be written
+	 */
+	public final synchronized void append(final String op, final String... args) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);		//length and crc, filled in below
+		out.writeInt(0);
+		out.writeUTF(op);
+		out.writeInt(args.length);
+		for(final String arg : args) {
+			final byte[] raw = arg.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(raw.length);
+			out.write(raw);
+		}
+		out.flush();
+		final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		final CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+		record.putInt(0, record.capacity() - RECORD_HEADER_SIZE);
+		record.putInt(4, (int) crc.getValue());
+		writeFully(record, end);
+		channel.force(false);
+		end += record.capacity();
+	}
+
+
+
+	/**
+	 * Hands every intact operation to the handler, in the order they were appended
+	 * @param handler of each operation
+	 * @return number of operations replayed
+	 * @throws Exception if the handler fails
+	 */
+	public final synchronized int replay(final Handler handler) throws Exception {
+		int count = 0;
+		long at = HEADER_SIZE;
+		while(at + RECORD_HEADER_SIZE <= end) {
+			final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			readFully(header, at);
+			header.flip();
+			final int length = header.getInt(), crc = header.getInt();
+			if(length < 0 || at + RECORD_HEADER_SIZE + length > end)
+				break;
+			final ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, at + RECORD_HEADER_SIZE);
+			final CRC32 check = new CRC32();
+			check.update(payload.array());
+			if((int) check.getValue() != crc)
+				break;
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+			final String op = in.readUTF();
+			final String[] args = new String[in.readInt()];
+			for(int i = 0; i < args.length; i++) {
+				final byte[] raw = new byte[in.readInt()];
+				in.readFully(raw);
+				args[i] = new String(raw, StandardCharsets.UTF_8);
+			}
+			handler.apply(op, args);
+			count++;
+			at += RECORD_HEADER_SIZE + length;
+		}
+		if(at < end) {
+			Terminal.say("\t\tDiscarding "+(end-at)+" bytes of unfinished journal records");
+			channel.truncate(at);
+			end = at;
+		}
+		return count;
+	}
+
+
+
+	/**
+	 * Empties the journal and moves it to a new generation
+	 * @param generation of the snapshot the journal now follows
+	 * @throws IOException if the journal couldn't be rewritten
+	 */
+	public final synchronized void reset(final long generation) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putLong(generation).flip();
+		channel.truncate(HEADER_SIZE);
+		writeFully(header, 0);
+		channel.force(true);
+		this.generation = generation;
+		end = HEADER_SIZE;
+	}
+
+
+
+	/**
+	 * Closes the file
+	 */
+	@Override public final synchronized void close() throws IOException {
+		channel.close();
+	}
+
+
+
+
+
+
+
+	private final void readFully(final ByteBuffer into, long at) throws IOException {
+		while(into.hasRemaining()) {
+			final int read = channel.read(into, at);
+			if(read < 0)
+				throw new IOException("Unexpected end of working set journal");
+			at += read;
+		}
+	}
+
+
+
+	private final void writeFully(final ByteBuffer from, long at) throws IOException {
+		while(from.hasRemaining())
+			at += channel.write(from, at);
+	}
+
+}
@@ -0,0 +1,436 @@
+package en.talond.simGUI.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import en.talond.simGUI.Terminal;
+
+
+
+
+
+
+/**
+ * Binary, indexed store for the contents of the WorkingSet.
+ *
+ * The file starts with a fixed header which points to the latest index block. Values are
+ * deflated records which are only ever appended, and each commit appends a new index block
+ * before moving the header pointer, so a crash mid-write leaves the previous commit intact.
+ * Opening a store only reads its index; values are read one at a time when asked for.
+ * Once dead records outweigh live ones the file is compacted into a fresh copy.
+ *
+ * 		header:	MAGIC  VERSION  index offset
+ * 		record:	deflated UTF-8 value
+ * 		index:	block length  count  { kind  name  key  offset  length  crc }...
+ *
+ * @author talon
+ * @see WorkingSet
+ *
+ */
+public final class SetStore implements Closeable {
+
+
+
+	//kinds of stored entries
+	public static final byte
+	CALIBRATION = 0,
+	REQUEST = 1,
+	PUMA = 2,
+	META = 3;			//bookkeeping of the store's owner
+
+	private static final int
+	MAGIC = 0x53494D53,			//"SIMS"
+	VERSION = 1,
+	HEADER_SIZE = 16,
+	POINTER_OFFSET = 8;
+	//dead bytes tolerated past the live ones before compacting
+	private static final long COMPACT_SLACK = 1 << 20;
+
+
+
+	private final Path path;
+	private final Map<String,Entry> index;
+	private FileChannel channel;
+	private long end, live;
+
+
+
+	/**
+	 * Opens an existing store or initializes a new one
+	 * @param path of the store file
+	 * @throws IOException if the file exists but isn't a readable store
+	 */
+	private SetStore(final Path path) throws IOException {
+		this.path = path;
+		index = new LinkedHashMap<>();
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(channel.size() == 0) {
+			writeHeader(channel, 0);
+			end = HEADER_SIZE;
+		} else
+			readIndex();
+	}
+
+
+
+	/**
+	 * Opens the store at the given file, creating it if it doesn't exist
+	 * @param file of the store
+	 * @return opened store
+	 * @throws IOException if the file exists but isn't a readable store
+	 */
+	public static final SetStore open(final File file) throws IOException {
+		return new SetStore(file.toPath());
+	}
+
+
+
+	/**
+	 * Checks whether a file begins with the store header
+	 * @param file to check
+	 * @return true if the file is a store
+	 */
+	public static final boolean isStore(final File file) {
+		if(!file.isFile() || file.length() < HEADER_SIZE)
+			return false;
+		try(DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+
+
+
+
+
+
+	/**
+	 * Indexed location of one stored value
+	 * @author talon
+	 *
+	 */
+	public static final class Entry {
+		public final byte kind;
+		public final String name, key;
+		private final long offset;
+		private final int length, crc;
+		private Entry(byte kind, String name, String key, long offset, int length, int crc) {
+			this.kind = kind;
+			this.name = name;
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+
+
+	/**
+	 * Lists the indexed entries of one kind, in the order they were first stored
+	 * @param kind of entry
+	 * @return entries (the values are not read)
+	 */
+	public final synchronized List<Entry> getEntries(final byte kind) {
+		final List<Entry> list = new ArrayList<>();
+		for(final Entry e : index.values())
+			if(e.kind == kind)
+				list.add(e);
+		return list;
+	}
+
+
+
+	/**
+	 * Reads one stored value
+	 * @param kind of entry
+	 * @param name of entry
+	 * @return value or null if none is stored
+	 * @throws IOException if the record can't be read or is corrupt
+	 */
+	public final synchronized String read(final byte kind, final String name) throws IOException {
+		final Entry e = index.get(slot(kind, name));
+		if(e == null)
+			return null;
+		final byte[] record = readRecord(channel, e);
+		final CRC32 crc = new CRC32();
+		crc.update(record);
+		if((int) crc.getValue() != e.crc)
+			throw new IOException("Corrupt record for "+name+" in "+path);
+		try(InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(record))) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+
+
+
+
+
+
+	/**
+	 * Appends a value, replacing any earlier value of the same name.
+	 * Nothing is visible to a reopened store until commit.
+	 * @param kind of entry
+	 * @param name of entry
+	 * @param key (small description read along with the index, such as a serialized request)
+	 * @param value to store
+	 * @throws IOException if the record can't be written
+	 */
+	public final synchronized void put(final byte kind, final String name, final String key, final String value) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+			out.write(value.getBytes(StandardCharsets.UTF_8));
+		}
+		final byte[] record = bytes.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(record);
+		writeFully(channel, ByteBuffer.wrap(record), end);
+		forget(slot(kind, name));
+		index.put(slot(kind, name), new Entry(kind, name, key, end, record.length, (int) crc.getValue()));
+		end += record.length;
+		live += record.length;
+	}
+
+
+
+	/**
+	 * Removes a value from the index
+	 * @param kind of entry
+	 * @param name of entry
+	 * @return true if a value was removed
+	 */
+	public final synchronized boolean remove(final byte kind, final String name) {
+		return forget(slot(kind, name));
+	}
+
+
+
+	/**
+	 * Removes every value of one kind from the index
+	 * @param kind of entry
+	 */
+	public final synchronized void removeAll(final byte kind) {
+		final Iterator<Entry> it = index.values().iterator();
+		while(it.hasNext()) {
+			final Entry e = it.next();
+			if(e.kind == kind) {
+				live -= e.length;
+				it.remove();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Makes every put and remove since the last commit durable, compacting the file if
+	 * it has grown mostly dead.
+	 * @throws IOException if the index can't be written
+	 */
+	public final synchronized void commit() throws IOException {
+		final long at = end;
+		end += writeIndex(channel, at, index);
+		channel.force(false);
+		writePointer(channel, at);
+		channel.force(true);
+		if(end - HEADER_SIZE - live > live + COMPACT_SLACK)
+			compact();
+	}
+
+
+
+	/**
+	 * Closes the file. Uncommitted changes are lost.
+	 */
+	@Override public final synchronized void close() throws IOException {
+		channel.close();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Rewrites the live records and index into a fresh file, then swaps it in
+	 * @throws IOException
+	 */
+	private final void compact() throws IOException {
+		Terminal.say("\tCompacting "+path.getFileName()+" ("+(end-HEADER_SIZE)+" bytes, "+live+" live)...");
+		final Path tmp = path.resolveSibling(path.getFileName()+".tmp");
+		final Map<String,Entry> moved = new LinkedHashMap<>();
+		long at = HEADER_SIZE;
+		try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for(final Map.Entry<String,Entry> slot : index.entrySet()) {
+				final Entry e = slot.getValue();
+				writeFully(out, ByteBuffer.wrap(readRecord(channel, e)), at);
+				moved.put(slot.getKey(), new Entry(e.kind, e.name, e.key, at, e.length, e.crc));
+				at += e.length;
+			}
+			final int indexSize = writeIndex(out, at, moved);
+			writeHeader(out, at);
+			out.force(true);
+			at += indexSize;
+		}
+		channel.close();
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index.clear();
+		index.putAll(moved);
+		end = at;
+	}
+
+
+
+	/**
+	 * Loads the index the header points to. Anything past it is an unfinished commit and is cut off.
+	 * @throws IOException if the file isn't a store
+	 */
+	private final void readIndex() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		header.flip();
+		if(header.getInt() != MAGIC)
+			throw new IOException(path+" is not a working set store");
+		final int version = header.getInt();
+		if(version != VERSION)
+			throw new IOException(path+" is store version "+version+", expected "+VERSION);
+		final long at = header.getLong();
+		if(at == 0) {
+			end = HEADER_SIZE;
+		} else {
+			final ByteBuffer size = ByteBuffer.allocate(4);
+			readFully(channel, size, at);
+			final ByteBuffer block = ByteBuffer.allocate(size.flip().getInt());
+			readFully(channel, block, at + 4);
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(block.array()));
+			final int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				final Entry e = new Entry(in.readByte(), in.readUTF(), in.readUTF(), in.readLong(), in.readInt(), in.readInt());
+				index.put(slot(e.kind, e.name), e);
+				live += e.length;
+			}
+			end = at + 4 + block.capacity();
+		}
+		if(channel.size() > end)
+			channel.truncate(end);
+	}
+
+
+
+	/**
+	 * Appends an index as a block
+	 * @param channel to write to
+	 * @param position of the block
+	 * @param index to write
+	 * @return size of the written block
+	 * @throws IOException
+	 */
+	private static final int writeIndex(final FileChannel to, final long at, final Map<String,Entry> index) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);					//block length, filled in below
+		out.writeInt(index.size());
+		for(final Entry e : index.values()) {
+			out.writeByte(e.kind);
+			out.writeUTF(e.name);
+			out.writeUTF(e.key);
+			out.writeLong(e.offset);
+			out.writeInt(e.length);
+			out.writeInt(e.crc);
+		}
+		out.flush();
+		final ByteBuffer block = ByteBuffer.wrap(bytes.toByteArray());
+		block.putInt(0, block.capacity() - 4);
+		writeFully(to, block, at);
+		return block.capacity();
+	}
+
+
+
+	/* writes a full header with the given index pointer */
+	private static final void writeHeader(final FileChannel to, final long indexAt) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(indexAt).flip();
+		writeFully(to, header, 0);
+	}
+
+
+
+	/* moves the index pointer of an existing header */
+	private static final void writePointer(final FileChannel to, final long indexAt) throws IOException {
+		final ByteBuffer pointer = ByteBuffer.allocate(8);
+		pointer.putLong(indexAt).flip();
+		writeFully(to, pointer, POINTER_OFFSET);
+	}
+
+
+
+	/* drops an entry from the index, counting its bytes as dead */
+	private final boolean forget(final String slot) {
+		final Entry old = index.remove(slot);
+		if(old != null)
+			live -= old.length;
+		return old != null;
+	}
+
+
+
+	/* index key of an entry */
+	private static final String slot(final byte kind, final String name) {
+		return kind+":"+name;
+	}
+
+
+
+	/* reads the raw bytes of a record */
+	private static final byte[] readRecord(final FileChannel from, final Entry e) throws IOException {
+		final ByteBuffer record = ByteBuffer.allocate(e.length);
+		readFully(from, record, e.offset);
+		return record.array();
+	}
+
+
+
+	private static final void readFully(final FileChannel from, final ByteBuffer into, long at) throws IOException {
+		while(into.hasRemaining()) {
+			final int read = from.read(into, at);
+			if(read < 0)
+				throw new IOException("Unexpected end of working set store");
+			at += read;
+		}
+	}
+
+
+
+	private static final void writeFully(final FileChannel to, final ByteBuffer from, long at) throws IOException {
+		while(from.hasRemaining())
+			at += to.write(from, at);
+	}
+
+}
@@ -0,0 +1,271 @@
+package en.talond.simGUI.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.poi.EncryptedDocumentException;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import en.talond.simGUI.Terminal;
+import en.talond.simGUI.data.Symbols;
+import en.talond.simGUI.io.DataSheet.Method;
+import en.talond.simGUI.io.DataSheet.ResultRow;
+import en.talond.simGUI.io.DataSheet.SheetData;
+
+
+
+
+
+
+/**
+ * An on-disk cache of parsed data sheets, keyed by the SHA-256 of each file's contents.
+ * Resubmitting an unchanged export then costs a hash and the read of a small gzipped entry,
+ * instead of a full POI parse whose results would only be thrown away as duplicates.
+ * Entries hold the sheet's content map (preparations and their result rows), so a cached sheet is
+ * turned into results by the same Result.parseSheet as a parsed one.
+ * The least recently used entries are evicted once there are more than MAX_ENTRIES.
+ * @author talon
+ * @see SheetIngest
+ *
+ */
+public final class SheetCache {
+
+
+
+	//bumped whenever the parsed form of a sheet changes, so stale entries are never read
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".v"+VERSION+".json.gz";
+	//entries kept before the least recently used are evicted
+	public static final int MAX_ENTRIES = 2048;
+
+	//entries may hold NaN, e.g. an area percent printed as NaN by the machine
+	private static final Gson SERIALIZER = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+	private static volatile SheetCache shared;
+
+	private final File dir;
+
+
+
+	/**
+	 * Opens a cache in a directory, which is created when the first entry is stored
+	 * @param directory of cache entries
+	 */
+	public SheetCache(final File dir) {
+		this.dir = dir;
+	}
+
+
+
+	/**
+	 * @return the cache next to the working set, shared by every ingest
+	 */
+	public static final SheetCache getDefault() {
+		if(shared == null)
+			synchronized(SheetCache.class) {
+				if(shared == null)
+					shared = new SheetCache(new File(Storage.ROOT, Storage.SHEET_CACHE_NAME));
+			}
+		return shared;
+	}
+
+
+
+
+
+
+
+	/**
+	 * Loads a data sheet from the cache if its contents were parsed before,
+	 * otherwise parses it and caches the result
+	 * @param src file
+	 * @param mode to parse with on a miss
+	 * @return data sheet of the file
+	 * @throws EncryptedDocumentException
+	 * @throws IOException if the file can't be read or parsed
+	 */
+	public final DataSheet load(final File src, final DataSheet.Mode mode) throws EncryptedDocumentException, IOException {
+		final String hash = Storage.hashOf(src);
+		final File entry = new File(dir, hash+SUFFIX);
+		if(entry.isFile()) try {
+			final DataSheet cached = new DataSheet(src, read(entry));
+			entry.setLastModified(System.currentTimeMillis());
+			Terminal.debug(() -> "\t\tCache hit for "+src.getName());
+			return cached;
+		} catch (IOException | JsonParseException | IllegalStateException | NullPointerException e) {
+			Terminal.warn("\t\tDropping unreadable sheet cache entry for "+src.getName()+": "+e.getLocalizedMessage());
+			Files.deleteIfExists(entry.toPath());
+		}
+		final DataSheet parsed = new DataSheet(src, mode);
+		try {
+			write(parsed, entry);
+			evict();
+		} catch (IOException e) {
+			Terminal.warn("\t\tCouldn't cache "+src.getName()+": "+e.getLocalizedMessage());
+		}
+		return parsed;
+	}
+
+
+
+	/**
+	 * Deletes every entry
+	 * @throws IOException
+	 */
+	public final void clear() throws IOException {
+		for(final File entry : entries())
+			Files.deleteIfExists(entry.toPath());
+	}
+
+
+
+
+
+
+
+	/* reads an entry back into a content map */
+	private static final Map<String,SheetData[]> read(final File entry) throws IOException {
+		final Entry e;
+		try(Reader in = new InputStreamReader(new GZIPInputStream(new FileInputStream(entry)), StandardCharsets.UTF_8)) {
+			e = SERIALIZER.fromJson(in, Entry.class);
+		}
+		if(e == null || e.version != VERSION)
+			throw new IOException("Not a version "+VERSION+" entry");
+		final Map<String,SheetData[]> contentMap = new LinkedHashMap<>();
+		for(final Map.Entry<String,Prep[]> sample : e.samples.entrySet()) {
+			final SheetData[] preps = new SheetData[sample.getValue().length];
+			for(int i = 0; i < preps.length; i++) {
+				final Prep p = sample.getValue()[i];
+				final List<ResultRow> rows = new ArrayList<>(p.rows.length);
+				for(final Row r : p.rows)
+					rows.add(r == null ? null : new ResultRow(Symbols.of(r.compound), r.method, Symbols.of(r.desc), r.area, r.areaP, r.massP, r.ppm));
+				preps[i] = new SheetData(p.sample, p.source, p.amount, rows);
+			}
+			contentMap.put(Symbols.of(sample.getKey()), preps);
+		}
+		return contentMap;
+	}
+
+
+
+	/* writes the content map of a sheet to a temporary file, then moves it into place */
+	private final void write(final DataSheet sheet, final File entry) throws IOException {
+		final Entry e = new Entry();
+		for(final String sample : sheet.getSamples()) {
+			final SheetData[] data = sheet.getDataOf(sample);
+			final Prep[] preps = new Prep[data.length];
+			for(int i = 0; i < data.length; i++)
+				preps[i] = new Prep(data[i]);
+			e.samples.put(sample, preps);
+		}
+		dir.mkdirs();
+		final File tmp = File.createTempFile("entry", ".tmp", dir);
+		try {
+			try(Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8)) {
+				SERIALIZER.toJson(e, out);
+			}
+			try {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+
+
+	/* deletes the least recently used entries beyond MAX_ENTRIES */
+	private final void evict() throws IOException {
+		final File[] entries = entries();
+		if(entries.length <= MAX_ENTRIES)
+			return;
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for(int i = 0; i < entries.length - MAX_ENTRIES; i++)
+			Files.deleteIfExists(entries[i].toPath());
+	}
+
+	/* every entry of the current version */
+	private final File[] entries() {
+		final File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+		return entries == null ? new File[0] : entries;
+	}
+
+
+
+
+
+
+
+	/**
+	 * Serialized form of a cached sheet
+	 * @author talon
+	 *
+	 */
+	private static final class Entry {
+		private int version = VERSION;
+		private Map<String,Prep[]> samples = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Serialized form of one preparation (key row) and its result rows
+	 * @author talon
+	 *
+	 */
+	private static final class Prep {
+		private String sample, source;
+		private Double amount;
+		private Row[] rows;
+		private Prep(final SheetData d) {
+			sample = d.getSample();
+			source = d.getSource();
+			amount = d.getAmount();
+			rows = new Row[d.getData().size()];
+			int i = 0;
+			for(final ResultRow r : d.getData())
+				rows[i++] = r == null ? null : new Row(r);
+		}
+	}
+
+	/**
+	 * Serialized form of a result row
+	 * @author talon
+	 *
+	 */
+	private static final class Row {
+		private String compound, desc;
+		private Method method;
+		private Double area, areaP, massP, ppm;
+		private Row(final ResultRow r) {
+			compound = r.getCompound();
+			method = r.getDetectedMethod();
+			desc = r.getDesc();
+			area = r.getArea();
+			areaP = r.getAreaP();
+			massP = r.getMassP();
+			ppm = r.getPPM();
+		}
+	}
+
+}
@@ -0,0 +1,344 @@
+package en.talond.simGUI.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+
+
+
+
+/**
+ * Reads the CSV form of an Agilent cross-sequence summary as one sheet of rows, the same rows
+ * SheetStream hands over for a workbook, so it maps through the same RowAssembler.
+ * The file is read through a plain channel and decoded a chunk at a time into one reused buffer,
+ * which is tokenized as it comes, so a large export never sits in memory whole and isn't held open past the read.
+ * Records follow RFC 4180, with the delimiter (comma, semicolon or tab) and the encoding
+ * (UTF-8, or UTF-16 as ChemStation writes it) sniffed from the start of the file.
+ * @author talon
+ * @see DataSheet.Mode
+ *
+ */
+final class SheetCsv {
+
+
+
+	//delimiters Agilent writes, depending on the locale of the machine
+	private static final char[] DELIMITERS = { ',', ';', '\t' };
+	//records the delimiter is sniffed from, since the title rows above the key may have none
+	private static final int SNIFF_RECORDS = 16;
+	//bytes read and characters decoded at a time
+	private static final int CHUNK = 1 << 16;
+	private static final String[] BLANK_ROW = new String[0];
+
+
+
+	private SheetCsv() {}
+
+
+
+
+
+
+
+	/**
+	 * @param src file
+	 * @return true if the file is named as a CSV export
+	 */
+	static final boolean accepts(final File src) {
+		return src.getName().toLowerCase().endsWith(".csv");
+	}
+
+
+
+	/**
+	 * Reads a CSV export into the given sink as a single sheet
+	 * @param csv file
+	 * @param sink to receive the rows
+	 * @throws IOException if the file cannot be read
+	 */
+	static final void read(final File src, final SheetStream.RowSink sink) throws IOException {
+		try(FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+			final CharBuffer chars = CharBuffer.allocate(CHUNK);
+			boolean eof = fill(in, bytes);
+			final CharsetDecoder decoder = charsetOf(bytes).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			final Records records = new Records(sink);
+			while(true) {
+				final CoderResult result = decoder.decode(bytes, chars, eof);
+				records.feed(chars);
+				//the characters ran out of room before the bytes ran out
+				if(result.isOverflow())
+					continue;
+				if(eof) {
+					decoder.flush(chars);
+					records.feed(chars);
+					break;
+				}
+				bytes.compact();
+				eof = fill(in, bytes);
+			}
+			records.finish();
+		}
+	}
+
+
+
+
+
+
+
+	/**
+	 * Reads from a channel until the buffer is full or the file ends
+	 * @param channel to read
+	 * @param buffer to read into, left flipped for reading
+	 * @return true if the file has ended
+	 * @throws IOException
+	 */
+	private static final boolean fill(final FileChannel in, final ByteBuffer bytes) throws IOException {
+		boolean eof = false;
+		while(bytes.hasRemaining() && !eof)
+			eof = in.read(bytes) < 0;
+		bytes.flip();
+		return eof;
+	}
+
+
+
+	/**
+	 * Finds the encoding of a file from its first bytes, skipping its byte order mark
+	 * @param bytes from the start of the file
+	 * @return encoding of the file
+	 */
+	private static final Charset charsetOf(final ByteBuffer bytes) {
+		final int b0 = bytes.remaining() > 0 ? bytes.get(0) & 0xFF : -1;
+		final int b1 = bytes.remaining() > 1 ? bytes.get(1) & 0xFF : -1;
+		final int b2 = bytes.remaining() > 2 ? bytes.get(2) & 0xFF : -1;
+		if(b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+			bytes.position(3);
+			return StandardCharsets.UTF_8;
+		} else if(b0 == 0xFF && b1 == 0xFE) {
+			bytes.position(2);
+			return StandardCharsets.UTF_16LE;
+		} else if(b0 == 0xFE && b1 == 0xFF) {
+			bytes.position(2);
+			return StandardCharsets.UTF_16BE;
+		} else if(b0 > 0 && b1 == 0)
+			//UTF-16 without a mark still gives itself away on the first ascii character
+			return StandardCharsets.UTF_16LE;
+		return StandardCharsets.UTF_8;
+	}
+
+
+
+	/* whether a character ends the field it follows */
+	private static final boolean endsField(final char c, final char delimiter) {
+		return c == delimiter || c == '\n' || c == '\r';
+	}
+
+
+
+	/**
+	 * Picks the delimiter which occurs most often, outside quotes, in the first few records
+	 * @param text to sniff
+	 * @param first character of the text
+	 * @param end of the text (exclusive)
+	 * @return delimiter, a comma if there are none
+	 */
+	private static final char sniffDelimiter(final char[] text, final int first, final int end) {
+		final int[] counts = new int[DELIMITERS.length];
+		boolean inQuotes = false;
+		int records = 0;
+		for(int pos = first; pos < end && records < SNIFF_RECORDS; pos++) {
+			final char c = text[pos];
+			if(c == '"')
+				inQuotes = !inQuotes;
+			else if(!inQuotes && c == '\n')
+				records++;
+			else if(!inQuotes)
+				for(int d = 0; d < DELIMITERS.length; d++)
+					if(c == DELIMITERS[d])
+						counts[d]++;
+		}
+		int most = 0;
+		for(int d = 1; d < DELIMITERS.length; d++)
+			if(counts[d] > counts[most])
+				most = d;
+		return DELIMITERS[most];
+	}
+
+
+
+
+
+
+
+	/**
+	 * Splits decoded text into records and fields as it is fed, handing each record to the sink as a row.
+	 * A field or record cut off at the end of one chunk carries on into the next.
+	 * A plain field within one chunk costs one string, anything else goes through a reused builder, and a row costs one array.
+	 * The delimiter is sniffed from the first chunk, which holds far more than the records it's sniffed from.
+	 * @author talon
+	 *
+	 */
+	private static final class Records {
+		/* where the tokenizer is at */
+		private static final int
+		START = 0,		//the start of a field
+		PLAIN = 1,		//inside a field without quotes
+		QUOTED = 2,		//inside quotes
+		QUOTE = 3,		//just past a quote inside quotes, which either closes them or escapes the next one
+		AFTER = 4;		//past the closing quote, where text is kept up to the delimiter, as Excel does
+
+		private final SheetStream.RowSink sink;
+		private final StringBuilder field = new StringBuilder();
+		private String[] cells = new String[16];
+		private int width = 0, row = 0, state = START;
+		private char delimiter;
+		private boolean sniffed;
+		//the last record ended on a carriage return, so a line feed right after belongs to it
+		private boolean afterReturn;
+
+		private Records(final SheetStream.RowSink sink) {
+			this.sink = sink;
+			sink.startSheet();
+		}
+
+		/**
+		 * Tokenizes the characters decoded so far and clears the buffer for the next chunk
+		 * @param chars decoded into, still in writing mode
+		 */
+		private final void feed(final CharBuffer chars) {
+			chars.flip();
+			if(chars.hasRemaining())
+				feed(chars.array(), chars.arrayOffset()+chars.position(), chars.arrayOffset()+chars.limit());
+			chars.clear();
+		}
+
+		/**
+		 * Tokenizes one chunk of text
+		 * @param text to split
+		 * @param first character of the chunk
+		 * @param end of the chunk (exclusive)
+		 */
+		private final void feed(final char[] text, final int first, final int end) {
+			if(!sniffed) {
+				delimiter = sniffDelimiter(text, first, end);
+				sniffed = true;
+			}
+			int pos = first;
+			while(pos < end) {
+				final char c = text[pos];
+				if(afterReturn) {
+					afterReturn = false;
+					if(c == '\n') {
+						pos++;
+						continue;
+					}
+				}
+				switch(state) {
+				case START:
+					if(c == '"') {
+						state = QUOTED;
+						pos++;
+					} else if(width == 0 && (c == '\n' || c == '\r')) {
+						//blank lines still count towards the row indices
+						sink.row(row++, BLANK_ROW);
+						afterReturn = c == '\r';
+						pos++;
+					} else if(endsField(c, delimiter)) {
+						end("", c);
+						pos++;
+					} else state = PLAIN;
+					break;
+				case PLAIN: {
+					final int start = pos;
+					while(pos < end && !endsField(text[pos], delimiter))
+						pos++;
+					if(pos == end)
+						field.append(text, start, pos-start);
+					else if(field.length() == 0)
+						end(new String(text, start, pos-start), text[pos++]);
+					else
+						end(field.append(text, start, pos-start).toString(), text[pos++]);
+					break;
+				}
+				case QUOTED: {
+					final int start = pos;
+					while(pos < end && text[pos] != '"')
+						pos++;
+					field.append(text, start, pos-start);
+					if(pos < end) {
+						state = QUOTE;
+						pos++;
+					}
+					break;
+				}
+				case QUOTE:
+					if(c == '"') {
+						field.append('"');
+						state = QUOTED;
+						pos++;
+					} else state = AFTER;
+					break;
+				case AFTER: {
+					final int start = pos;
+					while(pos < end && !endsField(text[pos], delimiter))
+						pos++;
+					field.append(text, start, pos-start);
+					if(pos < end)
+						end(field.toString(), text[pos++]);
+					break;
+				}
+				}
+			}
+		}
+
+		/**
+		 * Ends a field, and the record too unless the field ended on the delimiter
+		 * @param value of the field
+		 * @param character which ended it
+		 */
+		private final void end(final String value, final char ending) {
+			add(value);
+			field.setLength(0);
+			state = START;
+			if(ending != delimiter) {
+				sink.row(row++, Arrays.copyOf(cells, width));
+				width = 0;
+				afterReturn = ending == '\r';
+			}
+		}
+
+		/* adds a finished field to the current record */
+		private final void add(final String value) {
+			if(width == cells.length)
+				cells = Arrays.copyOf(cells, width*2);
+			cells[width++] = value;
+		}
+
+		/**
+		 * Hands over the last record, if the text didn't end with a line break, and ends the sheet
+		 */
+		private final void finish() {
+			if(state != START)
+				add(field.toString());
+			if(width > 0)
+				sink.row(row, Arrays.copyOf(cells, width));
+			sink.endSheet();
+		}
+	}
+
+}
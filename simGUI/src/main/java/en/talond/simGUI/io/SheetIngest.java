@@ -0,0 +1,194 @@
+package en.talond.simGUI.io;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import en.talond.simGUI.Terminal;
+import en.talond.simGUI.data.Result;
+
+
+
+
+
+
+/**
+ * Turns a batch of Agilent data sheets into one intermediary result map.
+ * Each file is parsed and converted to results on a bounded worker pool, and the
+ * per-file maps are then reduced pairwise in parallel. The reduction keeps the
+ * order of the given files, so the merged map is the same one a sequential
+ * loop over Result.parseSheet would have produced.
+ * Sheets whose contents were parsed before are read from a SheetCache instead.
+ * @author talon
+ * @see MainMenu.handleDataSheetSubmission
+ *
+ */
+public final class SheetIngest {
+
+
+
+	//default number of workers; one per core
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+
+
+	private final File[] files;
+	private final DataSheet.Mode mode;
+	private final int threads;
+	private final SheetCache cache;
+	private final AtomicInteger parsed, finished;
+	private final Set<File> parsedFiles;
+
+
+
+	/**
+	 * Prepares an ingest of the given files using the default parse mode, worker count and cache
+	 * @param files to parse
+	 */
+	public SheetIngest(final File[] files) {
+		this(files, DataSheet.Mode.USERMODEL, DEFAULT_THREADS);
+	}
+
+
+
+	/**
+	 * Prepares an ingest of the given files using the default cache
+	 * @param files to parse
+	 * @param mode to parse each sheet with
+	 * @param maximum number of sheets parsed at once
+	 */
+	public SheetIngest(final File[] files, final DataSheet.Mode mode, final int threads) {
+		this(files, mode, threads, SheetCache.getDefault());
+	}
+
+
+
+	/**
+	 * Prepares an ingest of the given files
+	 * @param files to parse
+	 * @param mode to parse each sheet with
+	 * @param maximum number of sheets parsed at once
+	 * @param cache of previously parsed sheets (null to always parse)
+	 */
+	public SheetIngest(final File[] files, final DataSheet.Mode mode, final int threads, final SheetCache cache) {
+		this.files = files;
+		this.mode = mode;
+		this.threads = Math.max(1, threads);
+		this.cache = cache;
+		parsed = new AtomicInteger();
+		finished = new AtomicInteger();
+		parsedFiles = ConcurrentHashMap.newKeySet();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Receives updates as each file finishes, from whichever worker finished it
+	 * @author talon
+	 *
+	 */
+	public static interface Progress {
+		void update(int finished, int total);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Parses every file and reduces the results into one map.
+	 * Files which can't be parsed are logged and skipped.
+	 * @param progress listener (called off the calling thread)
+	 * @return map of sample names to merged results
+	 * @throws InterruptedException if interrupted while waiting on the workers
+	 */
+	public final Map<String,Result[]> run(final Progress progress) throws InterruptedException {
+		Terminal.say("\tIngesting "+files.length+" files with "+threads+" workers...");
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.submit(() -> Arrays.stream(files).parallel()
+					.map(f -> parse(f, progress))
+					.reduce(new HashMap<>(), SheetIngest::combine)
+				).get();
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Sheet ingest failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+
+	/**
+	 * @return the number of files successfully parsed as data sheets so far
+	 */
+	public final int getSheetsParsed() {
+		return parsed.get();
+	}
+
+
+
+	/**
+	 * @return the files whose results made it into the result map, so far
+	 */
+	public final Set<File> getParsedFiles() {
+		return parsedFiles;
+	}
+
+
+
+
+
+
+
+	/**
+	 * Parses one file into its own result map
+	 * @param file to parse
+	 * @param progress listener
+	 * @return result map of the file, or an empty map if it wasn't a data sheet
+	 */
+	private final Map<String,Result[]> parse(final File f, final Progress progress) {
+		try {
+			final DataSheet s = cache == null ? new DataSheet(f, mode) : cache.load(f, mode);
+			parsed.incrementAndGet();
+			Terminal.say("\t\tParsed data from "+f.getName());
+			final Map<String,Result[]> results = Result.parseSheet(s, new HashMap<>());
+			parsedFiles.add(f);
+			return results;
+		} catch (Exception e) {
+			Terminal.say("\t\tCouldn't parse file as data sheet: "+f.getAbsolutePath()+". Continuing...");
+			Terminal.specifyFullError(e);
+			return new HashMap<>();
+		} finally {
+			progress.update(finished.incrementAndGet(), files.length);
+		}
+	}
+
+
+
+	/**
+	 * Reduction step for two result maps. Neither argument is altered.
+	 * @param earlier map (its results are kept first)
+	 * @param later map
+	 * @return new merged map
+	 */
+	private static final Map<String,Result[]> combine(final Map<String,Result[]> earlier, final Map<String,Result[]> later) {
+		final Map<String,Result[]> both = new HashMap<>(earlier);
+		for(final Map.Entry<String,Result[]> e : later.entrySet())
+			both.merge(e.getKey(), e.getValue(), Result::mergeWithoutDuplication);
+		return both;
+	}
+
+}
@@ -0,0 +1,341 @@
+package en.talond.simGUI.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.RKRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+
+
+
+
+
+/**
+ * Reads Agilent summary workbooks as a single forward pass of rows, without ever
+ * building the POI usermodel. Legacy .xls files are read with the HSSF event API,
+ * .xlsx files with the XSSF SAX handler and .csv exports by SheetCsv. Each cell is
+ * handed on as a string, the same way the usermodel parse reads them, and every row index
+ * from the first to the last row of a sheet is handed on, as an empty row if the file skips it.
+ * Formula cells are handed on as their cached result, and as empty if it is neither a string nor a number.
+ * @author talon
+ * @see DataSheet.Mode
+ *
+ */
+final class SheetStream {
+
+
+
+	/**
+	 * Receives the rows of a workbook in order, one sheet at a time
+	 * @author talon
+	 *
+	 */
+	static interface RowSink {
+		void startSheet();
+		void row(int index, String[] cells);
+		void endSheet();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Streams every sheet of a workbook into the given sink
+	 * @param workbook file (.xls, .xlsx or .csv)
+	 * @param sink to receive the rows
+	 * @throws IOException if the file cannot be read or is not a workbook
+	 */
+	static final void read(final File src, final RowSink sink) throws IOException {
+		if(SheetCsv.accepts(src)) {
+			SheetCsv.read(src, sink);
+			return;
+		}
+		final FileMagic type = FileMagic.valueOf(src);
+		if(type == FileMagic.OLE2)
+			readHSSF(src, sink);
+		else if(type == FileMagic.OOXML)
+			readXSSF(src, sink);
+		else
+			throw new IOException("Couldn't stream "+src.getName()+" as it is not an xls, xlsx or csv workbook");
+	}
+
+
+
+	/**
+	 * Streams a legacy .xls workbook with the HSSF event API
+	 * @param file to read
+	 * @param sink to receive the rows
+	 * @throws IOException
+	 */
+	private static final void readHSSF(final File src, final RowSink sink) throws IOException {
+		try(POIFSFileSystem fs = new POIFSFileSystem(src, true)) {
+			final HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(new HSSFRows(sink));
+			new HSSFEventFactory().processWorkbookEvents(request, fs);
+		}
+	}
+
+
+
+	/**
+	 * Streams an .xlsx workbook with the XSSF SAX handler
+	 * @param file to read
+	 * @param sink to receive the rows
+	 * @throws IOException
+	 */
+	private static final void readXSSF(final File src, final RowSink sink) throws IOException {
+		try(OPCPackage pkg = OPCPackage.open(src, PackageAccess.READ)) {
+			final XSSFReader reader = new XSSFReader(pkg);
+			final ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			final StylesTable styles = reader.getStylesTable();
+			final Iterator<InputStream> sheets = reader.getSheetsData();
+			while(sheets.hasNext()) try(InputStream sheet = sheets.next()) {
+				final XMLReader parser = XMLHelper.newXMLReader();
+				parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new XSSFRows(sink), false));
+				sink.startSheet();
+				parser.parse(new InputSource(sheet));
+				sink.endSheet();
+			}
+		} catch (final OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new IOException("Couldn't stream "+src.getName()+": "+e.getMessage(), e);
+		}
+	}
+
+
+
+
+
+
+
+	/**
+	 * Collects the cells of one row at a time, growing as wider rows are found.
+	 * Rows the file leaves out (no cells, or only formatting) are handed on as empty rows,
+	 * so the sink sees every index like the usermodel walk does, e.g. the blank row which ends the key.
+	 * @author talon
+	 *
+	 */
+	private static class RowBuffer {
+		private static final String[] BLANK_ROW = new String[0];
+		final RowSink sink;
+		private String[] cells = new String[16];
+		private int width = 0;
+		int row = -1;
+		//index the next row handed to the sink has
+		private int next = 0;
+		private RowBuffer(final RowSink sink) { this.sink = sink; }
+		/* places a cell value, flushing the previous row if this one is new */
+		final void put(final int rowIndex, final int col, final String value) {
+			if(rowIndex != row) {
+				flush();
+				row = rowIndex;
+			}
+			if(col >= cells.length)
+				cells = Arrays.copyOf(cells, Math.max(col+1, cells.length*2));
+			cells[col] = value;
+			width = Math.max(width, col+1);
+		}
+		/* hands the collected row to the sink and clears the buffer */
+		final void flush() {
+			if(row > -1)
+				emit(row, Arrays.copyOf(cells, width));
+			Arrays.fill(cells, 0, width, null);
+			width = 0;
+			row = -1;
+		}
+		/* hands a row to the sink, after an empty row for each index skipped before it */
+		final void emit(final int rowIndex, final String[] rowCells) {
+			fillTo(rowIndex);
+			sink.row(rowIndex, rowCells);
+			next = rowIndex+1;
+		}
+		/* hands an empty row to the sink for each index before the given one that hasn't been handed on */
+		final void fillTo(final int rowIndex) {
+			while(next < rowIndex)
+				sink.row(next++, BLANK_ROW);
+		}
+		/* starts the row indices of a new sheet */
+		final void restart() {
+			row = -1;
+			next = 0;
+		}
+	}
+
+
+
+	/**
+	 * Turns a numeric cell into the text Agilent would have written
+	 * @param number
+	 * @return string without a trailing .0 for whole numbers
+	 */
+	private static final String format(final double value) {
+		if(value == Math.rint(value) && !Double.isInfinite(value))
+			return Long.toString((long) value);
+		else
+			return Double.toString(value);
+	}
+
+
+
+
+
+
+
+	/**
+	 * HSSF record listener that assembles rows from cell records.
+	 * Nested BOF/EOF pairs (charts inside a worksheet) are tracked so they don't end the sheet.
+	 * Blank cells read as empty strings, and rows which only have a row record are handed on empty at the end of the sheet.
+	 * @author talon
+	 *
+	 */
+	private static final class HSSFRows extends RowBuffer implements HSSFListener {
+		private SSTRecord strings;
+		private int depth = 0;
+		private boolean inSheet = false;
+		//last row of the sheet with a row record, which may come after the last cell
+		private int lastRow = -1;
+		//formula cell whose cached string result is in the string record following it, if any
+		private int formulaRow = -1, formulaCol = -1;
+		private HSSFRows(final RowSink sink) { super(sink); }
+		@Override public void processRecord(final Record r) {
+			switch(r.getSid()) {
+			case BOFRecord.sid:
+				depth++;
+				if(depth == 1 && ((BOFRecord) r).getType() == BOFRecord.TYPE_WORKSHEET) {
+					inSheet = true;
+					restart();
+					lastRow = -1;
+					formulaRow = -1;
+					sink.startSheet();
+				}
+				break;
+			case EOFRecord.sid:
+				if(depth == 1 && inSheet) {
+					flush();
+					fillTo(lastRow+1);
+					inSheet = false;
+					sink.endSheet();
+				}
+				depth--;
+				break;
+			case SSTRecord.sid:
+				strings = (SSTRecord) r;
+				break;
+			case RowRecord.sid:
+				if(depth == 1 && inSheet)
+					lastRow = Math.max(lastRow, ((RowRecord) r).getRowNumber());
+				break;
+			case BlankRecord.sid:
+				final BlankRecord blank = (BlankRecord) r;
+				put(blank.getRow(), blank.getColumn(), "");
+				break;
+			case MulBlankRecord.sid:
+				final MulBlankRecord blanks = (MulBlankRecord) r;
+				for(int col = blanks.getFirstColumn(); col <= blanks.getLastColumn(); col++)
+					put(blanks.getRow(), col, "");
+				break;
+			case LabelSSTRecord.sid:
+				final LabelSSTRecord sst = (LabelSSTRecord) r;
+				put(sst.getRow(), sst.getColumn(), strings.getString(sst.getSSTIndex()).getString());
+				break;
+			case LabelRecord.sid:
+				final LabelRecord label = (LabelRecord) r;
+				put(label.getRow(), label.getColumn(), label.getValue());
+				break;
+			case NumberRecord.sid:
+				final NumberRecord num = (NumberRecord) r;
+				put(num.getRow(), num.getColumn(), format(num.getValue()));
+				break;
+			case RKRecord.sid:
+				final RKRecord rk = (RKRecord) r;
+				put(rk.getRow(), rk.getColumn(), format(rk.getRKNumber()));
+				break;
+			case FormulaRecord.sid:
+				final FormulaRecord formula = (FormulaRecord) r;
+				if(formula.hasCachedResultString()) {
+					formulaRow = formula.getRow();
+					formulaCol = formula.getColumn();
+				} else if(!Double.isNaN(formula.getValue()))
+					put(formula.getRow(), formula.getColumn(), format(formula.getValue()));
+				else
+					//boolean, error and empty string results carry no string record
+					put(formula.getRow(), formula.getColumn(), "");
+				break;
+			case StringRecord.sid:
+				if(formulaRow != -1)
+					put(formulaRow, formulaCol, ((StringRecord) r).getString());
+				formulaRow = -1;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+
+
+	/**
+	 * XSSF sheet handler that assembles rows from formatted cell values
+	 * @author talon
+	 *
+	 */
+	private static final class XSSFRows extends RowBuffer implements SheetContentsHandler {
+		private int current = -1;
+		private XSSFRows(final RowSink sink) { super(sink); }
+		@Override public void startRow(final int rowNum) {
+			flush();
+			current = rowNum;
+		}
+		@Override public void endRow(final int rowNum) {
+			//rows without any cells still count towards the row indices
+			if(row == -1)
+				emit(rowNum, RowBuffer.BLANK_ROW);
+			else
+				flush();
+		}
+		@Override public void cell(final String ref, final String value, final XSSFComment comment) {
+			put(current, new CellReference(ref).getCol(), value);
+		}
+		@Override public void headerFooter(final String text, final boolean isHeader, final String tagName) {
+			//headers and footers hold no data
+		}
+	}
+}
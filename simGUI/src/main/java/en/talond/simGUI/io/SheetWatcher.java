@@ -0,0 +1,359 @@
+package en.talond.simGUI.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import en.talond.simGUI.Terminal;
+import en.talond.simGUI.data.Result;
+
+
+
+
+
+
+/**
+ * Watches export folders and ingests data sheets as the Agilent machines write them.
+ * A changed file is only ingested once its folder has been quiet for SETTLE_MILLIS and its size has
+ * stopped changing, since sheets are written in steps. A ledger of every ingested file (path, size and
+ * content hash) is kept on disk, so a file is ingested again only if its contents change, even across restarts.
+ * Ingestion runs on the watcher's own thread through SheetIngest, and the results are handed to a listener.
+ * A file only goes into the ledger once it parsed and the listener acknowledged its results were filed;
+ * one which couldn't be parsed (e.g. still locked by the exporting software) is retried on the next few settles.
+ * Folders are watched without their subfolders.
+ * @author talon
+ * @see MainMenu.handleDataSheetSubmission
+ *
+ */
+public final class SheetWatcher implements Closeable {
+
+
+
+	//time a folder must be quiet before its changed files are ingested
+	public static final long SETTLE_MILLIS = 2000;
+	//how often the watcher wakes up to check on settling files and newly watched folders
+	private static final long POLL_MILLIS = 250;
+	//settles a file which couldn't be parsed is retried on, before it's left until it changes again
+	private static final int RETRIES = 3;
+
+
+
+	private final WatchService service;
+	private final Map<WatchKey,Path> folders;
+	private final Queue<Path> toScan;
+	//ledger entries of files whose results the listener has filed, waiting to be recorded by the watcher thread
+	private final Queue<Map<File,Ledger.Entry>> filed;
+	private final Ledger ledger;
+	private final Listener listener;
+	private final Thread thread;
+	//files waiting to settle, with their size when last seen (only touched by the watcher thread)
+	private final Map<Path,Long> pending;
+	//settles each failed file has been retried on (only touched by the watcher thread)
+	private final Map<Path,Integer> retries;
+	private long lastEvent;
+	private volatile boolean closed;
+
+
+
+	/**
+	 * Starts a watcher which isn't watching any folders yet
+	 * @param ledger file of previously ingested sheets (created if it doesn't exist)
+	 * @param listener for each batch of ingested sheets (called on the watcher thread)
+	 * @throws IOException if the file system can't be watched
+	 */
+	public SheetWatcher(final File ledgerFile, final Listener listener) throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+		folders = new ConcurrentHashMap<>();
+		toScan = new ConcurrentLinkedQueue<>();
+		filed = new ConcurrentLinkedQueue<>();
+		ledger = new Ledger(ledgerFile);
+		this.listener = listener;
+		pending = new LinkedHashMap<>();
+		retries = new HashMap<>();
+		thread = new Thread(this::run, "sheet-watch");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+
+
+
+
+
+	/**
+	 * Receives the results of each batch of sheets the watcher ingests
+	 * @author talon
+	 *
+	 */
+	public static interface Listener {
+		/**
+		 * @param sheetsParsed in the batch
+		 * @param results of the batch
+		 * @param filed to run (from any thread) once the results are filed, which records their sheets as ingested
+		 */
+		void ingested(int sheetsParsed, Map<String,Result[]> results, Runnable filed);
+	}
+
+
+
+
+
+
+
+	/**
+	 * Watches a folder, ingesting the sheets already in it which weren't ingested before
+	 * @param folder to watch
+	 * @throws IOException if the folder can't be watched
+	 */
+	public final void watch(final File folder) throws IOException {
+		final Path dir = folder.toPath().toAbsolutePath();
+		if(folders.containsValue(dir))
+			return;
+		final WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		folders.put(key, dir);
+		toScan.add(dir);
+		Terminal.say("\tWatching "+dir+" for data sheets...");
+	}
+
+
+
+	/**
+	 * @return the folders being watched
+	 */
+	public final List<File> getFolders() {
+		final List<File> watched = new ArrayList<>();
+		for(final Path dir : folders.values())
+			watched.add(dir.toFile());
+		return watched;
+	}
+
+
+
+	/**
+	 * Stops watching every folder. Sheets which hadn't settled or been filed yet are left for the next watcher.
+	 */
+	@Override public final void close() throws IOException {
+		closed = true;
+		service.close();
+		thread.interrupt();
+	}
+
+
+
+
+
+
+
+	/* body of the watcher thread */
+	private final void run() {
+		while(!closed) try {
+			final WatchKey key = service.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			for(Map<File,Ledger.Entry> entries = filed.poll(); entries != null; entries = filed.poll())
+				ledger.putAll(entries);
+			for(Path dir = toScan.poll(); dir != null; dir = toScan.poll())
+				scan(dir);
+			if(key != null) {
+				final Path dir = folders.get(key);
+				for(final WatchEvent<?> e : key.pollEvents())
+					if(e.kind() == StandardWatchEventKinds.OVERFLOW)
+						scan(dir);
+					else note(dir.resolve((Path) e.context()));
+				if(!key.reset()) {
+					folders.remove(key);
+					Terminal.warn("\tStopped watching "+dir+", it can no longer be watched");
+				}
+			}
+			if(!pending.isEmpty() && System.currentTimeMillis() - lastEvent >= SETTLE_MILLIS)
+				ingestSettled();
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			return;
+		} catch (RuntimeException e) {
+			//the watcher must outlive whatever went wrong with one batch
+			Terminal.specifyFullError(e);
+		}
+	}
+
+
+
+	/* notes every file of a folder, e.g. when it is first watched or events were lost */
+	private final void scan(final Path dir) {
+		final File[] files = dir.toFile().listFiles();
+		if(files != null)
+			for(final File f : files)
+				note(f.toPath());
+	}
+
+
+
+	/* notes that a file was created or changed, so it's checked once it settles */
+	private final void note(final Path file) {
+		final String name = file.getFileName().toString();
+		//skip folders and the lock files office writes next to open workbooks
+		if(name.startsWith("~$") || name.startsWith(".") || !Files.isRegularFile(file))
+			return;
+		pending.put(file, file.toFile().length());
+		retries.remove(file);
+		lastEvent = System.currentTimeMillis();
+	}
+
+
+
+	/**
+	 * Ingests the pending files whose size has stopped changing, unless their contents were already ingested.
+	 * The rest stay pending until they settle, and the ones which fail to parse are pending again for the next settle.
+	 */
+	private final void ingestSettled() {
+		final List<File> changed = new ArrayList<>();
+		final Map<File,Ledger.Entry> seen = new HashMap<>();
+		final Iterator<Map.Entry<Path,Long>> it = pending.entrySet().iterator();
+		while(it.hasNext()) {
+			final Map.Entry<Path,Long> p = it.next();
+			final File f = p.getKey().toFile();
+			final long size = f.length();
+			if(!f.isFile())
+				it.remove();
+			else if(size != p.getValue()) {
+				//still being written
+				p.setValue(size);
+				lastEvent = System.currentTimeMillis();
+			} else try {
+				it.remove();
+				final Ledger.Entry entry = new Ledger.Entry(size, Storage.hashOf(f));
+				if(entry.equals(ledger.get(f)))
+					Terminal.debug(() -> "\t\tAlready ingested, skipping "+f.getName());
+				else {
+					changed.add(f);
+					seen.put(f, entry);
+				}
+			} catch (IOException e) {
+				Terminal.warn("\t\tCouldn't read "+f.getAbsolutePath()+", skipping it until it changes: "+e.getLocalizedMessage());
+			}
+		}
+		if(changed.isEmpty())
+			return;
+		Terminal.say("Ingesting "+changed.size()+" new or changed files from watched folders...");
+		final SheetIngest ingest = new SheetIngest(changed.toArray(new File[0]));
+		final Map<String,Result[]> results;
+		try {
+			results = ingest.run((done, total) -> {});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		//only parsed files are recorded, and only once their results are filed
+		final Map<File,Ledger.Entry> parsed = new HashMap<>();
+		for(final File f : changed)
+			if(ingest.getParsedFiles().contains(f))
+				parsed.put(f, seen.get(f));
+			else retry(f.toPath(), seen.get(f).size);
+		if(ingest.getSheetsParsed() > 0)
+			listener.ingested(ingest.getSheetsParsed(), results, () -> filed.add(parsed));
+	}
+
+
+
+	/* puts a file which couldn't be parsed back to settle again, unless it has been retried enough */
+	private final void retry(final Path file, final long size) {
+		final int tried = retries.merge(file, 1, Integer::sum);
+		if(tried > RETRIES) {
+			retries.remove(file);
+			Terminal.warn("\t\tGave up on "+file+" after "+RETRIES+" retries, it's ingested again once it changes");
+			return;
+		}
+		pending.put(file, size);
+		lastEvent = System.currentTimeMillis();
+	}
+
+
+
+
+
+
+
+	/**
+	 * The files which have been ingested, by path, with their size and content hash when they were.
+	 * Kept in a tab-separated text file, one file per line, rewritten after every batch.
+	 * @author talon
+	 *
+	 */
+	private static final class Ledger {
+		private static final String DELIMITER = "\t";
+		private final File file;
+		private final Map<String,Entry> ingested = new HashMap<>();
+
+		private Ledger(final File file) {
+			this.file = file;
+			try {
+				for(final String line : Storage.readLines(file.getAbsolutePath())) {
+					final String[] tokens = line.split(DELIMITER, 3);
+					if(tokens.length == 3) try {
+						ingested.put(tokens[2], new Entry(Long.parseLong(tokens[0]), tokens[1]));
+					} catch (NumberFormatException e) {
+						Terminal.warn("\tSkipping malformed line of the watch ledger: "+line);
+					}
+				}
+			} catch (FileNotFoundException e) {
+				Terminal.say("\tNo watch ledger yet, every watched sheet will be ingested");
+			}
+		}
+
+		private final Entry get(final File f) {
+			return ingested.get(f.getAbsolutePath());
+		}
+
+		private final void putAll(final Map<File,Entry> entries) {
+			for(final Map.Entry<File,Entry> e : entries.entrySet())
+				ingested.put(e.getKey().getAbsolutePath(), e.getValue());
+			final String[] lines = new String[ingested.size()];
+			int i = 0;
+			for(final Map.Entry<String,Entry> e : ingested.entrySet())
+				lines[i++] = e.getValue().size+DELIMITER+e.getValue().hash+DELIMITER+e.getKey();
+			try {
+				Storage.writeLines(lines, file.getAbsolutePath());
+			} catch (IOException e) {
+				Terminal.warn("\tCouldn't save the watch ledger, sheets may be ingested again after a restart: "+e.getLocalizedMessage());
+			}
+		}
+
+		/**
+		 * Size and content hash of an ingested file
+		 * @author talon
+		 *
+		 */
+		private static final class Entry {
+			private final long size;
+			private final String hash;
+			private Entry(final long size, final String hash) {
+				this.size = size;
+				this.hash = hash;
+			}
+			@Override public final boolean equals(final Object other) {
+				return other instanceof Entry && ((Entry) other).size == size && ((Entry) other).hash.equals(hash);
+			}
+			@Override public final int hashCode() {
+				return hash.hashCode();
+			}
+		}
+	}
+
+}
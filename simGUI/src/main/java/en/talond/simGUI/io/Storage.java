@@ -1,11 +1,18 @@
 package en.talond.simGUI.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,7 +22,6 @@ import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 
-import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
@@ -24,6 +30,7 @@ import com.google.gson.stream.JsonWriter;
 
 import en.talond.simGUI.Terminal;
 import en.talond.simGUI.WorkingSet;
+import en.talond.simGUI.data.DataSet;
 
 
 
@@ -40,8 +47,12 @@ public class Storage {
     //filesystem location of the working set
     public static final String 
     WORKING_SET_NAME = "sim-set.dat",
+    WATCH_LEDGER_NAME = "sim-watch.dat",
+    SHEET_CACHE_NAME = "sim-cache",
     LOG_NAME = "console-log_"+LocalDate.now().toString()+".txt",
     ROOT = new File("").getAbsolutePath();
+    //files at least this large are memory-mapped by loadBytes instead of read onto the heap
+    public static final long MAP_THRESHOLD = 1 << 20;
 	
 	
 	
@@ -49,6 +60,7 @@ public class Storage {
 	 * Loads program data from the filesystem
 	 */
 	public static final void init() {
+		Terminal.logTo(new File(ROOT, LOG_NAME));
 		Terminal.say("Loading stored info...");
 		try {
 			WorkingSet.open(ROOT+"/"+WORKING_SET_NAME);
@@ -68,12 +80,13 @@ public class Storage {
 		Terminal.say("Storing info...");
 		try {
 			WorkingSet.close();
-			Terminal.writeLog(ROOT+"/"+LOG_NAME);
 			Terminal.say("Successfully stored data.");
 		} catch (Exception e) {
 			Terminal.say("Couldn't store data.");
 			Terminal.specifyFullError(e);
 		}
+		//the log file has been appended to all along, so it only needs to catch up
+		Terminal.close();
 	}
 
 	
@@ -100,18 +113,52 @@ public class Storage {
 	
 	
 	/**
-	 * Loads the lines of a file encoded with UTF-16 strings
+	 * Loads the bytes of a file to be parsed in place.
+	 * Files of at least MAP_THRESHOLD bytes are memory-mapped rather than copied onto the heap.
 	 * @param file to load
-	 * @return array of lines
-	 * @throws IOException
+	 * @return buffer of the whole file
+	 * @throws IOException if the file can't be read or is larger than 2GB
 	 * @see CalTable
 	 */
-	public static final String[] loadUTF16File(final File toLoad) throws IOException {
-		return Files.readLines(toLoad, Charset.forName("UTF-16")).toArray(new String[0]);
+	public static final ByteBuffer loadBytes(final File toLoad) throws IOException {
+		try(FileChannel channel = FileChannel.open(toLoad.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Couldn't load "+toLoad.getName()+" as it is larger than 2GB");
+			if(size >= MAP_THRESHOLD)
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		return ByteBuffer.wrap(Files.readAllBytes(toLoad.toPath()));
 	}
 			
 	
 	
+	/**
+	 * Hashes the contents of a file, e.g. to tell a changed data sheet from one that was only touched
+	 * @param file to hash
+	 * @return hex SHA-256 of the file's bytes
+	 * @throws IOException
+	 */
+	public static final String hashOf(final File toHash) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM provides SHA-256", e);
+		}
+		try(InputStream in = new FileInputStream(toHash)) {
+			final byte[] buffer = new byte[1 << 16];
+			for(int read = in.read(buffer); read >= 0; read = in.read(buffer))
+				digest.update(buffer, 0, read);
+		}
+		final StringBuilder hex = new StringBuilder();
+		for(final byte b : digest.digest())
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+
+
+
 	/**
 	 * Loads the lines of a plain text file (UTF8)
 	 * @param pathToFile
@@ -168,8 +215,9 @@ public class Storage {
 	
 	
 	
-	/* Local Gson implementation, with a LocalDate type adapter */
-	private static final Gson SERIALIZER = new GsonBuilder().registerTypeAdapter(LocalDate.class, new DateAdapter()).create();
+	/* Local Gson implementation, with a LocalDate type adapter and the legacy data set shape */
+	private static final Gson SERIALIZER = new GsonBuilder().registerTypeAdapter(LocalDate.class, new DateAdapter())
+			.registerTypeAdapter(DataSet.class, new DataSet.Json()).create();
 	
 	
 	
@@ -4,13 +4,21 @@ import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.usermodel.Row.MissingCellPolicy;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import en.talond.simGUI.*;
 import en.talond.simGUI.data.*;
@@ -24,9 +32,10 @@ import en.talond.simGUI.report.ReportTable.*;
 /**
  * This class is used to construct excel cannabinoid report files.
  * 
- * When an instance is created, the workbook file is created in memory.
- * Use the writeReport function to write the file in memory to the disk,
- * then use the close function to erase close the file in memory.
+ * When an instance is created, the workbook file is created as a stream:
+ * only the last ROW_WINDOW rows of each sheet stay in memory, the rest are flushed to temporary files.
+ * Use the writeReport function to write the file to the disk,
+ * then use the close function to close the file and delete its temporary files.
  * @author talon
  *
  */
@@ -46,6 +55,10 @@ public class Report {
 	private static final String
 	LC_SRC_MARK = " :LC",
 	GC_SRC_MARK = " :GC";
+	//rows of each sheet kept in memory while the report is streamed (tables only ever append rows)
+	private static final int ROW_WINDOW = 100;
+	//runs the finalization of each reported sample, when the fTHC selector is thread safe
+	private static volatile Executor finalizer = ForkJoinPool.commonPool();
 	
 	
 	
@@ -57,7 +70,7 @@ public class Report {
 	
 	
 	//report instance fields
-	private final Workbook report;
+	private final SXSSFWorkbook report;
 	private final LocalDate date;
 	private final List<Request> samples;
 	private final List<Puma> pumas;
@@ -67,6 +80,7 @@ public class Report {
 	
 	/**
 	 * Constructs a report given lists of samples to report.
+	 * Ambiguous fTHC results are picked by the user (FthcPolicy.INTERACTIVE).
 	 * @param list of samples to report
 	 * @param list of puma sets to report
 	 * @param calibration of canna method
@@ -74,11 +88,120 @@ public class Report {
 	 * @throws Exception if the report could not be assembled (likely invalid data)
 	 */
 	public Report(List<Request> toReport, List<Puma> setsToReport, CalTable ofCannaMethod, LocalDate ofReport) throws Exception {
+		this(toReport, setsToReport, ofCannaMethod, ofReport, FthcPolicy.INTERACTIVE);
+	}
+	
+	
+	
+	/**
+	 * Constructs a report given lists of samples to report.
+	 * @param list of samples to report
+	 * @param list of puma sets to report
+	 * @param calibration of canna method
+	 * @param date of report (only used for filename)
+	 * @param selector for samples with more than one fTHC result
+	 * @throws Exception if the report could not be assembled (likely invalid data)
+	 */
+	public Report(List<Request> toReport, List<Puma> setsToReport, CalTable ofCannaMethod, LocalDate ofReport, PacketSelector fthcSelector) throws Exception {
 		samples = toReport;
 		pumas = setsToReport;
 		calibration = ofCannaMethod;
 		date = ofReport;
-		report = assembleReport(samples,pumas,calibration);
+		report = assembleReport(samples,pumas,calibration,fthcSelector);
+	}
+	
+	
+	
+	/**
+	 * Picks the one packet to report when several differing results exist for a compound
+	 * @author talon
+	 * @see MainMenu.manuallySelectOnePacket
+	 *
+	 */
+	public static interface PacketSelector {
+		DataPacket select(String sample, String compound, DataPacket[] toChooseFrom);
+		/**
+		 * Picks a packet knowing the calibration of the report, which only some selectors need
+		 * @param sample being reported
+		 * @param compound being reported
+		 * @param packets to choose from
+		 * @param calibration of the report
+		 * @return chosen packet
+		 */
+		default DataPacket select(String sample, String compound, DataPacket[] toChooseFrom, CalTable calibration) {
+			return select(sample, compound, toChooseFrom);
+		}
+		/**
+		 * @return true if this selector may be asked about several samples at once (false asks one at a time)
+		 */
+		default boolean isThreadSafe() { return false; }
+	}
+
+
+
+	/**
+	 * Built-in choices for samples with more than one fTHC result.
+	 * Every policy but INTERACTIVE runs unattended and can be asked about many samples at once.
+	 * @author talon
+	 *
+	 */
+	public static enum FthcPolicy implements PacketSelector {
+		//the user picks, one dialog per ambiguous sample
+		INTERACTIVE {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				return MainMenu.manuallySelectOnePacket(sample, compound, toChooseFrom);
+			}
+			@Override public boolean isThreadSafe() { return false; }
+		},
+		//the most recently ingested packet
+		LATEST {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				return toChooseFrom[toChooseFrom.length-1];
+			}
+		},
+		//the first ingested packet
+		EARLIEST {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				return toChooseFrom[0];
+			}
+		},
+		//the packet with an area closest to the middle of the compound's calibration (latest without one)
+		MIDPOINT {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				return LATEST.select(sample, compound, toChooseFrom);
+			}
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom, CalTable calibration) {
+				if(calibration == null)
+					return select(sample, compound, toChooseFrom);
+				return DataPacket.findClosestToCalibrationMidpoint(toChooseFrom, calibration.getLow(compound), calibration.getHigh(compound));
+			}
+		},
+		//the latest of the packets left once outliers are rejected to minimize the RSD
+		LOWEST_RSD {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				final DataPacket[] precise = DataPacket.useRSDToMinimize(toChooseFrom);
+				for(int i = toChooseFrom.length-1; i >= 0; i--)
+					for(final DataPacket kept : precise)
+						if(kept == toChooseFrom[i])
+							return kept;
+				return LATEST.select(sample, compound, toChooseFrom);
+			}
+		},
+		//the packet from the largest prep amount (latest on a tie)
+		MAX_AMOUNT {
+			@Override public DataPacket select(String sample, String compound, DataPacket[] toChooseFrom) {
+				DataPacket largest = toChooseFrom[toChooseFrom.length-1];
+				for(int i = toChooseFrom.length-2; i >= 0; i--)
+					if(amountOf(toChooseFrom[i]) > amountOf(largest))
+						largest = toChooseFrom[i];
+				return largest;
+			}
+		};
+		@Override public boolean isThreadSafe() { return true; }
+		/* prep amount of a packet, where a missing amount never wins */
+		private static final double amountOf(final DataPacket dp) {
+			return dp.getAmount() == null ? Double.NEGATIVE_INFINITY : dp.getAmount();
+		}
 	}
 
 	
@@ -89,6 +212,22 @@ public class Report {
 	
 	
 	
+	/**
+	 * Sets where samples are finalized when the fTHC selector is thread safe, e.g. a single thread executor for strictly sequential reports
+	 * @param executor to finalize samples with (the common fork-join pool by default)
+	 */
+	public static final void finalizeWith(final Executor executor) {
+		finalizer = executor;
+	}
+	
+	
+	
+	
+	
+	
+	
+	
+	
 	/**
 	 * Attempts to write the assembled inner workbook to an xlsx file
 	 * @param file to write to
@@ -115,6 +254,7 @@ public class Report {
 	public final void close() {
 		try {
 			report.close();
+			report.dispose();
 			Terminal.say("Closed Report file...");
 		} catch (IOException e) {
 			Terminal.say("Couldn't close report file!");
@@ -133,56 +273,74 @@ public class Report {
 	 * @param samples to report
 	 * @param puma sets to report
 	 * @param calibration
+	 * @param selector for ambiguous fTHC results
 	 * @return assembled workbook
 	 * @throws Exception 
 	 */
-	private static final Workbook assembleReport(List<Request> toReport, List<Puma> setsToReport, CalTable toCheckAgainst) throws Exception {
+	private static final SXSSFWorkbook assembleReport(List<Request> toReport, List<Puma> setsToReport, CalTable toCheckAgainst, PacketSelector fthcSelector) throws Exception {
 		//excel workbook creation
 		Terminal.say("Workbook contents initializing...");
-		Workbook report = new XSSFWorkbook();
+		final SXSSFWorkbook report = new SXSSFWorkbook(ROW_WINDOW);
+		report.setCompressTempFiles(true);
 		Style.createCellStyles(report);
 		final Sheet lc = report.createSheet(LC_SHEET_NAME),
 				gc = report.createSheet(GC_SHEET_NAME),
 				data = report.createSheet(DATA_SHEET_NAME);
 		report.setMissingCellPolicy(MissingCellPolicy.CREATE_NULL_AS_BLANK);
-		//raw data containers for report table elements
-		final Map<Request,Map<String,DataPacket[]>> sourcesOfAll = new HashMap<>();
-		final Map<Request,Map<String,LCResult>> lcDataOfAll = new HashMap<>();
-		final Map<Request,Map<String,DataPacket>> gcDataOfAll = new HashMap<>();
+		//raw data containers for report table elements, kept in reporting order
+		final Map<Request,Map<String,DataPacket[]>> sourcesOfAll = new LinkedHashMap<>();
+		final Map<Request,Map<String,LCResult>> lcDataOfAll = new LinkedHashMap<>();
+		final Map<Request,Map<String,DataPacket>> gcDataOfAll = new LinkedHashMap<>();
 		Terminal.say("Workbook contents initialized!");
-		//iterate through each request and finalize its lc data, gc data, and their respective sources
-		for(Request r : toReport) {
-			String name = r.getName();
-			Terminal.say("Reporting "+name+"...");
-			final DataSet d = WorkingSet.getDataSetOf(r);
-			Map<String,LCResult> lcData = createLCMapV2(r,d,toCheckAgainst);
-			Map<String,DataPacket> gcData = createGCMap(d);
-			Map<String,DataPacket[]> sources = createSourceMap(lcData,gcData);
-			if(lcData != null)
-				lcDataOfAll.put(r, lcData);
-			if(gcData != null)
-				gcDataOfAll.put(r, gcData);
-			sourcesOfAll.put(r, sources);
-		}
-		//iterate through each puma set to finalize all the data
+		//pair each request, and each element of each puma set, with its data
+		final List<Request> reported = new ArrayList<>(toReport);
+		final List<DataSet> dataOfReported = new ArrayList<>();
+		for(Request r : toReport)
+			dataOfReported.add(WorkingSet.getDataSetOf(r));
 		for(Puma p : setsToReport) {
-			//iterate through each element of the puma set to finalize all the data
 			Request[] sampleSet = p.generateRequests();
 			DataSet[] dataSet = WorkingSet.getDataSetsOf(p);
 			for(int i = 0; i < sampleSet.length; i++) {
-				Request ofSet = sampleSet[i];
-				Terminal.say("Reporting "+ofSet.getName()+"...");
-				DataSet d = dataSet[i];
-				Map<String,LCResult> lcData = createLCMapV2(ofSet,d,toCheckAgainst);
-				Map<String,DataPacket> gcData = createGCMap(d);
-				Map<String,DataPacket[]> sources = createSourceMap(lcData,gcData);
-				if(lcData != null)
-					lcDataOfAll.put(ofSet, lcData);
-				if(gcData != null)
-					gcDataOfAll.put(ofSet, gcData);
-				sourcesOfAll.put(ofSet, sources);
+				reported.add(sampleSet[i]);
+				dataOfReported.add(dataSet[i]);
 			}
 		}
+		final List<Finalized> finalized = new ArrayList<>(reported.size());
+		if(!fthcSelector.isThreadSafe()) {
+			//a selector which isn't thread safe (e.g. one asking the user) is asked on this thread, sample by sample in reporting order
+			for(int i = 0; i < reported.size(); i++) try {
+				finalized.add(finalize(reported.get(i), dataOfReported.get(i), toCheckAgainst, fthcSelector));
+			} catch (CompletionException e) {
+				throw causeOf(e);
+			}
+		} else {
+			//otherwise every sample is finalized in parallel, and the first to fail cancels the ones which haven't started
+			final AtomicReference<Throwable> failure = new AtomicReference<>();
+			final List<CompletableFuture<Finalized>> finalizing = new ArrayList<>(reported.size());
+			for(int i = 0; i < reported.size(); i++) {
+				final Request r = reported.get(i);
+				final DataSet d = dataOfReported.get(i);
+				finalizing.add(CompletableFuture.supplyAsync(() -> finalize(r, d, toCheckAgainst, fthcSelector), finalizer));
+			}
+			for(CompletableFuture<Finalized> f : finalizing)
+				f.whenComplete((done, e) -> {
+					if(e != null && failure.compareAndSet(null, e))
+						finalizing.forEach(other -> other.cancel(false));
+				});
+			//then collect them in order, so the tables are written the same way every time
+			for(CompletableFuture<Finalized> f : finalizing) try {
+				finalized.add(f.join());
+			} catch (CompletionException | CancellationException e) {
+				throw causeOf(failure.get() instanceof RuntimeException ? (RuntimeException) failure.get() : e);
+			}
+		}
+		for(Finalized done : finalized) {
+			if(done.lcData != null)
+				lcDataOfAll.put(done.request, done.lcData);
+			if(done.gcData != null)
+				gcDataOfAll.put(done.request, done.gcData);
+			sourcesOfAll.put(done.request, done.sources);
+		}
 		Terminal.say("Generated report contents! Writing tables to spreadsheet...");
 		//Use the generated lists to fill out the spreadsheet
 		new OldLiquidTable(lc,lcDataOfAll).generate();
@@ -200,7 +358,64 @@ public class Report {
 	}
 	
 	
-	private static final Map<String,LCResult> createLCMapV2(Request r, DataSet d, CalTable t) throws Exception {
+	/**
+	 * Finalizes the lc data, gc data, and their respective sources of one sample.
+	 * Only reads its inputs, so samples can be finalized concurrently.
+	 * @param request to finalize
+	 * @param data of the request
+	 * @param calibration to check against
+	 * @param selector for ambiguous fTHC results (only called from several threads if it is thread safe)
+	 * @return finalized sample
+	 * @throws CompletionException wrapping whatever made the sample unreportable
+	 */
+	private static final Finalized finalize(Request r, DataSet d, CalTable t, PacketSelector fthcSelector) {
+		Terminal.say("Reporting "+r.getName()+"...");
+		try {
+			Map<String,LCResult> lcData = createLCMapV2(r,d,t,fthcSelector);
+			Map<String,DataPacket> gcData = createGCMap(d);
+			return new Finalized(r, lcData, gcData, createSourceMap(lcData,gcData));
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+	
+	
+	
+	/**
+	 * Unwraps what made a sample unreportable from the exception its finalization ended with
+	 * @param exception thrown by finalize, or by waiting on it
+	 * @return the exception to report
+	 */
+	private static final Exception causeOf(final RuntimeException e) {
+		if(e instanceof CompletionException && e.getCause() instanceof Exception)
+			return (Exception) e.getCause();
+		return e;
+	}
+	
+	
+	
+	/**
+	 * The finalized, unmodifiable report data of one sample
+	 * @author talon
+	 *
+	 */
+	private static final class Finalized {
+		private final Request request;
+		private final Map<String,LCResult> lcData;
+		private final Map<String,DataPacket> gcData;
+		private final Map<String,DataPacket[]> sources;
+		private Finalized(final Request request, final Map<String,LCResult> lcData, 
+				final Map<String,DataPacket> gcData, final Map<String,DataPacket[]> sources) {
+			this.request = request;
+			this.lcData = lcData == null ? null : Collections.unmodifiableMap(lcData);
+			this.gcData = gcData == null ? null : Collections.unmodifiableMap(gcData);
+			this.sources = Collections.unmodifiableMap(sources);
+		}
+	}
+	
+	
+	
+	private static final Map<String,LCResult> createLCMapV2(Request r, DataSet d, CalTable t, PacketSelector fthcSelector) throws Exception {
 		Terminal.say("Creating LC Map for "+r.getName());
 		if(!d.hasCanna() && r.needsCanna())
 			throw new Exception("Unable to make LC map for request which needs canna: "+r.getName());
@@ -218,20 +433,24 @@ public class Report {
 			else
 				compounds = d.getCompoundsOfPPM();
 			for(String compound : compounds) {
-				Terminal.say("Finalizing LC data for "+compound);
+				Terminal.debug(() -> "Finalizing LC data for "+compound);
 				DataPacket[] data;
 				boolean highConfidence;
 				boolean anyBelowMaxCalibration = false;
+				final Replicates replicates;
 				if(useMassPercent)
-					data = d.getCannaMassResultsOf(compound);
+					replicates = d.getCannaMassReplicatesOf(compound);
 				else
-					data = d.getCannaPPMResultsOf(compound);
-				Float minCal = t.getLow(compound);
-				Float maxCal = t.getHigh(compound);
-				Terminal.say("!!!"+minCal+"\t\t"+maxCal);
-				Terminal.say("Is mass? "+useMassPercent+"\t\tHas "+data.length+" unfiltered packets");
-				if(data.length > 1)
-					data = useCalibrationToFinalizePackets(data,minCal,maxCal);
+					replicates = d.getCannaPPMReplicatesOf(compound);
+				float minCal = t.getLow(compound);
+				float maxCal = t.getHigh(compound);
+				Terminal.debug(() -> "!!!"+minCal+"\t\t"+maxCal);
+				final int unfiltered = replicates.size();
+				Terminal.debug(() -> "Is mass? "+useMassPercent+"\t\tHas "+unfiltered+" unfiltered packets");
+				//only the replicates which are kept are turned into packets
+				if(unfiltered > 1)
+					data = useCalibrationToFinalizePackets(replicates,minCal,maxCal);
+				else data = replicates.toPackets();
 				if(r.isTargetCompound(compound) && data.length < 1)
 					throw new Exception(compound+" is a target but there isn't enough results!");
 				else if (data.length > 2)
@@ -246,7 +465,7 @@ public class Report {
 				}
 				LCResult ofCompound = new LCResult(data,useMassPercent,highConfidence,!anyBelowMaxCalibration);
 				lcMap.put(compound, ofCompound);
-				Terminal.say(ofCompound.toString());
+				Terminal.debug(ofCompound::toString);
 			}
 			if (r.needsFTHC() || d.hasFthc()) {
 				String thcKey = LC_BY_RT.THC_d9.getSheetName();
@@ -256,7 +475,7 @@ public class Report {
 				if(data.length == 1)
 					finalized = data[0];
 				else if (data.length > 1)
-					finalized = MainMenu.manuallySelectOnePacket(r.getName(), thcKey, data);
+					finalized = fthcSelector.select(r.getName(), thcKey, data, t);
 				else 
 					finalized = DataPacket.generateFTHCNondetect("Autoselected");
 				LCResult fromFTHC;
@@ -278,26 +497,70 @@ public class Report {
 	
 	
 	
-	private static final DataPacket[] useCalibrationToFinalizePackets(DataPacket[] allOfCompound, Float minCal, Float maxCal) {
-		Terminal.say("Finalizing data packets:");
-		DataPacket[] finalized;
-		for(DataPacket dp : allOfCompound)
-			Terminal.say(dp.stringify());
-		DataPacket[] calibrated = DataPacket.findOnlyWithinCalibration(allOfCompound,minCal,maxCal);
-		Terminal.say("There are "+calibrated.length+" packets within calibration!");
-		DataPacket best = DataPacket.findClosestToCalibrationMidpoint(allOfCompound, minCal, maxCal);
-		if(calibrated.length >= 1) {
-			finalized = DataPacket.useRSDToMinimize(calibrated);
-			Terminal.say("\tUsing calibrated...");
+	/**
+	 * Narrows the replicates of a compound down to the ones worth reporting: those within calibration
+	 * minimized by RSD, or else the single one closest to the calibration midpoint.
+	 * Only the kept replicates are turned into packets.
+	 * @param all replicates of the compound
+	 * @param min calibration
+	 * @param max calibration
+	 * @return finalized packets
+	 */
+	private static final DataPacket[] useCalibrationToFinalizePackets(Replicates allOfCompound, float minCal, float maxCal) {
+		Terminal.debug("Finalizing data packets:");
+		Terminal.debug(() -> stringifyAll(allOfCompound.toPackets()));
+		final int n = allOfCompound.size();
+		final double[] results = new double[n];
+		final int[] indices = new int[n];
+		int calibrated = 0;
+		for(int i = 0; i < n; i++) {
+			final double area = allOfCompound.getArea(i);
+			if(area <= maxCal && area >= minCal) {
+				results[calibrated] = allOfCompound.getResult(i);
+				indices[calibrated++] = i;
+			}
+		}
+		final int withinCalibration = calibrated;
+		Terminal.debug(() -> "There are "+withinCalibration+" packets within calibration!");
+		final int kept;
+		if(calibrated >= 1) {
+			kept = ReplicateStats.rejectToLimit(results, indices, calibrated, DataPacket.MAX_PRECISE_RSD);
+			Terminal.debug("\tUsing calibrated...");
 		} else {
-			finalized = new DataPacket[] {best};
-			Terminal.say("\tUsing midpoint...");
+			indices[0] = closestToCalibrationMidpoint(allOfCompound, minCal, maxCal);
+			kept = 1;
+			Terminal.debug("\tUsing midpoint...");
 		}
-		Terminal.say("Finalized packets:");
-		for(DataPacket dp : finalized)
-			Terminal.say(dp.stringify());
+		final DataPacket[] finalized = new DataPacket[kept];
+		for(int i = 0; i < kept; i++)
+			finalized[i] = allOfCompound.getPacket(indices[i]);
+		Terminal.debug("Finalized packets:");
+		Terminal.debug(() -> stringifyAll(finalized));
 		return finalized;
 	}
+
+	/* replicate whose area is closest to the calibration midpoint, the first one on a tie */
+	private static final int closestToCalibrationMidpoint(final Replicates allOfCompound, final float minCal, final float maxCal) {
+		final double calMidpoint = (maxCal - minCal) / 2 + minCal;
+		int indexOfClosest = 0;
+		double minDeviance = Math.abs(allOfCompound.getArea(0) - calMidpoint);
+		for(int i = 1; i < allOfCompound.size(); i++) {
+			final double currentDeviance = Math.abs(allOfCompound.getArea(i) - calMidpoint);
+			if(currentDeviance < minDeviance) {
+				indexOfClosest = i;
+				minDeviance = currentDeviance;
+			}
+		}
+		return indexOfClosest;
+	}
+
+	/* one packet per line, for the debug log */
+	private static final String stringifyAll(final DataPacket[] packets) {
+		final StringBuilder s = new StringBuilder();
+		for(final DataPacket dp : packets)
+			s.append(dp.stringify()).append('\n');
+		return s.toString();
+	}
 	
 
 	
@@ -114,6 +114,45 @@ public abstract class ReportTable {
 	abstract void generateHeader();
 
 
+
+
+
+	/**
+	 * Tracks the widest text of each column while a table is written, then sizes the columns once.
+	 * autoSizeColumn rescans every row of a column on each call (and only sees the rows a streamed
+	 * sheet still holds in memory), so widths are computed from the written values instead.
+	 * @author talon
+	 *
+	 */
+	static final class ColumnWidths {
+
+		//characters of padding around the widest text, and the widths excel allows (in characters)
+		private static final int PADDING = 2, MAX_CHARS = 255;
+		//excel's general format shows no more than this many characters of a number
+		private static final int MAX_NUMBER_CHARS = 11;
+
+		private final Map<Integer,Integer> widest = new HashMap<>();
+
+		/* notes text written to a column */
+		final void fit(final int column, final String text) {
+			if(text != null)
+				widest.merge(column, text.length(), Math::max);
+		}
+
+		/* notes a number written to a column */
+		final void fit(final int column, final Double value) {
+			if(value != null)
+				widest.merge(column, Math.min(MAX_NUMBER_CHARS, value.toString().length()), Math::max);
+		}
+
+		/* sizes every noted column of a sheet */
+		final void apply(final Sheet s) {
+			for(final Map.Entry<Integer,Integer> column : widest.entrySet())
+				s.setColumnWidth(column.getKey(), Math.min(MAX_CHARS, column.getValue() + PADDING) * 256);
+		}
+	}
+
+
 	
 	
 	
@@ -208,7 +247,8 @@ public abstract class ReportTable {
 			final int offset = getHeaderRow()+1;
 			//Iterate through the source list and generate their respective rows
 			for(int i = 0; i < sourceRows.size(); i++)
-				sourceRows.get(i).generate(getContainer().createRow(i+offset),getLeftmost());
+				sourceRows.get(i).generate(getContainer().createRow(i+offset),getLeftmost(),widths);
+			widths.apply(getContainer());
 		}
 		
 		
@@ -222,10 +262,12 @@ public abstract class ReportTable {
 				final Cell c = header.createCell(i+getLeftmost());
 				c.setCellValue(TABLE_HEADERS[i]);
 				c.setCellStyle(Style.TABLE_HEADER);
-				getContainer().autoSizeColumn(i+getLeftmost());
+				widths.fit(i+getLeftmost(), TABLE_HEADERS[i]);
 			}
 		}
 
+		private final ColumnWidths widths = new ColumnWidths();
+
 		// labels for the source table's fields
 		public static final String[] 
 		TABLE_HEADERS = new String[] { "Sample Name", "Compound", "Description", "Area", "Result Type", "Result", "Agilent Datafile Source" };
@@ -547,8 +589,9 @@ public abstract class ReportTable {
 		private final Map<GC_BY_RT,Double> legacyMap;
 
 
-		private final void generateRow(final Row toGenerateIn, final int startCol) {
+		private final void generateRow(final Row toGenerateIn, final int startCol, final ColumnWidths widths) {
 			final Cell sample = toGenerateIn.getCell(startCol);
+			widths.fit(startCol, this.sample);
 			sample.setCellValue(this.sample);
 			sample.setCellStyle(Style.TABLE_LABEL);
 			sample.getCellStyle().setBorderRight(BorderStyle.MEDIUM);
@@ -558,11 +601,11 @@ public abstract class ReportTable {
 				final Cell c = toGenerateIn.getCell(i+offset);
 				try {
 					c.setCellValue(legacyMap.get(compound));
+					widths.fit(i+offset, legacyMap.get(compound));
 				} catch (final NullPointerException e) {
 					c.setCellValue(0.0);
 				}
 				c.setCellStyle(Style.GC_DATA);
-				toGenerateIn.getSheet().autoSizeColumn(i+startCol);
 			}
 		}
 	}
@@ -588,7 +631,8 @@ public abstract class ReportTable {
 				rows.add( new LegacyGCRow(r.getName(),sampleMap.get(r)) );
 			generateHeader();
 			for(int i = 0; i < rows.size(); i++)
-				rows.get(i).generateRow(getContainer().createRow(i+1+getHeaderRow()), getLeftmost());
+				rows.get(i).generateRow(getContainer().createRow(i+1+getHeaderRow()), getLeftmost(), widths);
+			widths.apply(getContainer());
 		}
 
 
@@ -599,15 +643,17 @@ public abstract class ReportTable {
 			final Cell s = header.createCell(getLeftmost());
 			s.setCellValue("SAMPLE");
 			s.setCellStyle(Style.TABLE_HEADER);
+			widths.fit(getLeftmost(), "SAMPLE");
 			final int offset = getLeftmost()+1;
 			for(int i = 0; i < values.length; i++) {
 				final Cell c = header.createCell(i+offset);
 				c.setCellStyle(Style.TABLE_HEADER);
 				c.setCellValue(values[i].getName());
+				widths.fit(i+offset, values[i].getName());
 			}
-			for(int i = 0; i <= values.length; i++)
-				getContainer().autoSizeColumn(i+getLeftmost());
 		}
+
+		private final ColumnWidths widths = new ColumnWidths();
 	}
 
 	
@@ -655,8 +701,9 @@ public abstract class ReportTable {
 		 * Will fill the given row at the given start column with the local instance data
 		 * @param row to generate within
 		 * @param start column
+		 * @param widths of the table's columns, widened to fit this row
 		 */
-		final void generate(final Row toGenerateIn, final int startCol) {
+		final void generate(final Row toGenerateIn, final int startCol, final ColumnWidths widths) {
 			final Cell nameCell 	= toGenerateIn.createCell(NAME_COL+startCol, 	CellType.STRING);
 			final Cell compCell 	= toGenerateIn.createCell(COMP_COL+startCol,	CellType.STRING);
 			final Cell descCell 	= toGenerateIn.createCell(DESC_COL+startCol, 	CellType.STRING);
@@ -673,8 +720,13 @@ public abstract class ReportTable {
 			resultCell.setCellValue(result);
 			srcCell.setCellValue(source);
 			srcCell.setCellStyle(Style.SOURCE);
-			for(int i = 0; i <= SRC_COL; i++)
-				toGenerateIn.getSheet().autoSizeColumn(i+startCol);
+			widths.fit(NAME_COL+startCol, sampleName);
+			widths.fit(COMP_COL+startCol, compound);
+			widths.fit(DESC_COL+startCol, description);
+			widths.fit(AREA_COL+startCol, area);
+			widths.fit(R_TYPE_COL+startCol, resultType);
+			widths.fit(RESULT_COL+startCol, result);
+			widths.fit(SRC_COL+startCol, source);
 		}
 
 	}
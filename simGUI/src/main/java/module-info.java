@@ -8,8 +8,10 @@ module prosep.bossLLC.simGUI {
 	requires com.google.common;
 	requires UiBooster;
 	requires com.google.gson;
+	requires java.xml;
 
     opens en.talond.simGUI to javafx.fxml;
     opens en.talond.simGUI.data to com.google.gson;
+    opens en.talond.simGUI.io to com.google.gson;
     exports en.talond.simGUI;
 }